@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how much is allocated per enabled Logger call.
+ * Run with standard output sent to /dev/null, results go to standard error:
+ *
+ *   java -cp ... uk.org.dataforce.libs.logger.AllocationBenchmark > /dev/null
+ */
+public class AllocationBenchmark {
+	/** Number of calls made before measuring. */
+	private static final int WARMUP = 200000;
+	/** Number of calls measured. */
+	private static final int ITERATIONS = 1000000;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args Ignored.
+	 */
+	public static void main(final String[] args) {
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long id = Thread.currentThread().threadId();
+		Logger.setLevel(LogLevel.INFO);
+
+		run(WARMUP);
+		final long before = bean.getThreadAllocatedBytes(id);
+		final long start = System.nanoTime();
+		run(ITERATIONS);
+		final long time = System.nanoTime() - start;
+		final long after = bean.getThreadAllocatedBytes(id);
+
+		System.err.printf("%d calls: %.2f bytes/call, %.1f ns/call%n", ITERATIONS,
+		                  (double) (after - before) / ITERATIONS, (double) time / ITERATIONS);
+	}
+
+	/**
+	 * Log some lines at INFO, one enabled and one disabled call each time.
+	 *
+	 * @param count Number of lines to log.
+	 */
+	private static void run(final int count) {
+		for (int i = 0; i < count; i++) {
+			Logger.log(LogLevel.INFO, "Processed request {}", i);
+			Logger.log(LogLevel.DEBUG, "Request {} details", i);
+		}
+	}
+}
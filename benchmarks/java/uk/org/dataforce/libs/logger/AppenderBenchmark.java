@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of each appender's append(), called directly with a ready-made event
+ * so the Logger is not included. The console appender writes to the forked
+ * JVM's standard output, which JMH does not show.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppenderBenchmark {
+	/** Appender measured, see BenchmarkAppenders. */
+	@Param({"console", "rolling", "rollingJson", "mapped", "binary", "binaryIndexed"})
+	public String appender;
+
+	/** Event appended. */
+	private final LogEvent event = new LogEvent();
+	/** Directory for files. */
+	private File dir;
+	/** Appender in use. */
+	private Appender current;
+	/** Changes with every call, so nothing is constant folded. */
+	private int request;
+
+	/**
+	 * Create the directory.
+	 *
+	 * @throws IOException If it can not be created.
+	 */
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		dir = BenchmarkAppenders.createDirectory();
+	}
+
+	/**
+	 * Start each iteration with a new appender and no files.
+	 *
+	 * @throws IOException If the appender can not be created.
+	 */
+	@Setup(Level.Iteration)
+	public void setupIteration() throws IOException {
+		current = BenchmarkAppenders.create(appender, dir);
+	}
+
+	/** Remove the appender's files. */
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() {
+		current.close();
+		BenchmarkAppenders.clear(dir);
+	}
+
+	/** Remove the directory. */
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		dir.delete();
+	}
+
+	/** Append a formatted event. */
+	@Benchmark
+	public void append() {
+		event.setFormat("bench", LogLevel.INFO, System.currentTimeMillis(), "Processed request {}");
+		event.addArgument(request++);
+		current.append(event);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Creates the appenders used by the benchmarks, writing to a temporary
+ * directory that is deleted afterwards so long runs don't fill the disk.
+ */
+final class BenchmarkAppenders {
+	/**
+	 * Create an appender.
+	 *
+	 * @param type One of "null", "console", "rolling", "rollingJson",
+	 *             "mapped", "binary" or "binaryIndexed".
+	 * @param dir Directory for any files.
+	 * @return The appender.
+	 * @throws IOException If a file can not be created.
+	 */
+	static Appender create(final String type, final File dir) throws IOException {
+		final String base = new File(dir, "bench.log").getPath();
+		switch (type) {
+			case "null":
+				return new NullAppender();
+			case "console":
+				return new ConsoleAppender();
+			case "rolling":
+				return new RollingFileAppender(base);
+			case "rollingJson":
+				final RollingFileAppender json = new RollingFileAppender(base);
+				json.setFormat(LineFormat.JSON);
+				return json;
+			case "mapped":
+				return new MappedFileAppender(base);
+			case "binary":
+				return new BinaryFileAppender(base);
+			case "binaryIndexed":
+				return new BinaryFileAppender(base, true);
+			default:
+				throw new IllegalArgumentException("Unknown appender: "+type);
+		}
+	}
+
+	/**
+	 * Create an empty temporary directory.
+	 *
+	 * @return The directory.
+	 * @throws IOException If it can not be created.
+	 */
+	static File createDirectory() throws IOException {
+		return Files.createTempDirectory("dflibs-bench").toFile();
+	}
+
+	/**
+	 * Delete everything in a directory.
+	 *
+	 * @param dir Directory to empty.
+	 */
+	static void clear(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files == null) { return; }
+		for (File file : files) { file.delete(); }
+	}
+
+	/** Remove every appender from the Logger. */
+	static void removeAll() {
+		for (Appender appender : Logger.getAppenders()) {
+			Logger.removeAppender(appender);
+		}
+	}
+
+	/** Prevent instances of BenchmarkAppenders. */
+	private BenchmarkAppenders() { }
+}
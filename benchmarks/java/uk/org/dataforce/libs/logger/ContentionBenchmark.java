@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of an enabled Logger call from 1, 8 and 32 threads at once, through
+ * each appender, logging synchronously or through the async writer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+	/** Logger used. */
+	private static final NamedLogger LOGGER = Logger.get("bench");
+
+	/** Logger set up shared by all threads. */
+	@State(Scope.Benchmark)
+	public static class Shared {
+		/** Appender written to, see BenchmarkAppenders. */
+		@Param({"null", "rolling", "mapped", "binary"})
+		public String appender;
+		/** "sync" or "async". */
+		@Param({"sync", "async"})
+		public String mode;
+
+		/** Directory for files. */
+		private File dir;
+		/** Appender in use. */
+		private Appender current;
+
+		/**
+		 * Set up the Logger.
+		 *
+		 * @throws IOException If the directory can not be created.
+		 */
+		@Setup(Level.Trial)
+		public void setupTrial() throws IOException {
+			dir = BenchmarkAppenders.createDirectory();
+			BenchmarkAppenders.removeAll();
+			Logger.setLevel(LogLevel.INFO);
+			if ("async".equals(mode)) {
+				Logger.enableAsync(Logger.DEFAULT_ASYNC_CAPACITY, OverflowPolicy.BLOCK);
+			}
+		}
+
+		/**
+		 * Start each iteration with a new appender and no files.
+		 *
+		 * @throws IOException If the appender can not be created.
+		 */
+		@Setup(Level.Iteration)
+		public void setupIteration() throws IOException {
+			current = BenchmarkAppenders.create(appender, dir);
+			Logger.addAppender(current);
+		}
+
+		/** Remove the appender and its files. */
+		@TearDown(Level.Iteration)
+		public void tearDownIteration() {
+			Logger.flush();
+			Logger.removeAppender(current);
+			current.close();
+			BenchmarkAppenders.clear(dir);
+		}
+
+		/** Put the Logger back. */
+		@TearDown(Level.Trial)
+		public void tearDownTrial() {
+			if (Logger.isAsync()) { Logger.disableAsync(Logger.DEFAULT_FLUSH_TIMEOUT); }
+			Logger.addAppender(new ConsoleAppender());
+			dir.delete();
+		}
+	}
+
+	/** Per-thread state. */
+	@State(Scope.Thread)
+	public static class PerThread {
+		/** Changes with every call, so nothing is constant folded. */
+		private int request;
+	}
+
+	/**
+	 * Log a line.
+	 *
+	 * @param shared Logger set up.
+	 * @param thread Per-thread state.
+	 */
+	private static void log(final Shared shared, final PerThread thread) {
+		LOGGER.log(LogLevel.INFO, "Processed request {}", thread.request++);
+	}
+
+	/**
+	 * One thread logging.
+	 *
+	 * @param shared Logger set up.
+	 * @param thread Per-thread state.
+	 */
+	@Benchmark
+	@Threads(1)
+	public void threads1(final Shared shared, final PerThread thread) {
+		log(shared, thread);
+	}
+
+	/**
+	 * Eight threads logging.
+	 *
+	 * @param shared Logger set up.
+	 * @param thread Per-thread state.
+	 */
+	@Benchmark
+	@Threads(8)
+	public void threads8(final Shared shared, final PerThread thread) {
+		log(shared, thread);
+	}
+
+	/**
+	 * Thirty two threads logging.
+	 *
+	 * @param shared Logger set up.
+	 * @param thread Per-thread state.
+	 */
+	@Benchmark
+	@Threads(32)
+	public void threads32(final Shared shared, final PerThread thread) {
+		log(shared, thread);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+/**
+ * Measures the cost of Logger calls at disabled levels, with the per-level
+ * methods (which go through LevelGuard) and with log(LogLevel, ...).
+ * Results go to standard error:
+ *
+ *   java -cp ... uk.org.dataforce.libs.logger.LevelGuardBenchmark
+ */
+public class LevelGuardBenchmark {
+	/** Number of calls made in each round. */
+	private static final int ITERATIONS = 100000000;
+	/** Number of rounds, the first few are warmup. */
+	private static final int ROUNDS = 5;
+	/** Logger used. */
+	private static final NamedLogger LOGGER = Logger.get("benchmark");
+
+	/** Sink for results, so the loops are not removed entirely. */
+	private static int sink = 0;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args Ignored.
+	 */
+	public static void main(final String[] args) {
+		Logger.setLevel(LogLevel.INFO);
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			guarded(ITERATIONS);
+			final long guarded = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			unguarded(ITERATIONS);
+			final long unguarded = System.nanoTime() - start;
+
+			System.err.printf("Round %d: debug9() %.3f ns/call, log(DEBUG9) %.3f ns/call%n", round,
+			                  (double) guarded / ITERATIONS, (double) unguarded / ITERATIONS);
+		}
+		// Enabling the level must be seen by the already compiled code.
+		Logger.setLevel(LogLevel.DEBUG9);
+		final int[] written = new int[1];
+		Logger.addAppender(new Appender() {
+			@Override
+			public void append(final LogEvent event) { written[0]++; }
+			@Override
+			public void flush() { }
+			@Override
+			public void close() { }
+		});
+		guarded(1000);
+		System.err.println("After setLevel(DEBUG9): "+written[0]+" of 1000 calls logged");
+	}
+
+	/**
+	 * Make disabled calls through the per-level methods.
+	 *
+	 * @param count Number of calls.
+	 */
+	private static void guarded(final int count) {
+		for (int i = 0; i < count; i++) {
+			LOGGER.debug9("Iteration {}", "x");
+			sink++;
+		}
+	}
+
+	/**
+	 * Make disabled calls through log(LogLevel, ...).
+	 *
+	 * @param count Number of calls.
+	 */
+	private static void unguarded(final int count) {
+		for (int i = 0; i < count; i++) {
+			LOGGER.log(LogLevel.DEBUG9, "Iteration {}", "x");
+			sink++;
+		}
+	}
+}
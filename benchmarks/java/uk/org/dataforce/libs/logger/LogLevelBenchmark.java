@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking whether a level is being logged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogLevelBenchmark {
+	/** Level checked. */
+	@Param({"ERROR", "INFO", "DEBUG9"})
+	public String level;
+
+	/** Logger checked, a few levels down the hierarchy. */
+	private NamedLogger logger;
+	/** Level checked. */
+	private LogLevel check;
+
+	/** Set the level to INFO. */
+	@Setup
+	public void setup() {
+		Logger.setLevel(LogLevel.INFO);
+		logger = Logger.get("bench.level.check");
+		check = LogLevel.valueOf(level);
+	}
+
+	/**
+	 * LogLevel.isLoggable() on its own.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public boolean levelIsLoggable() {
+		return check.isLoggable(LogLevel.INFO);
+	}
+
+	/**
+	 * NamedLogger.isLoggable(), using the effective level.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public boolean loggerIsLoggable() {
+		return logger.isLoggable(check);
+	}
+
+	/**
+	 * Logger.isLoggable(), for the root logger.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public boolean rootIsLoggable() {
+		return Logger.isLoggable(check);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of Logger calls at enabled and disabled levels, writing to a
+ * NullAppender so only the Logger itself is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggerBenchmark {
+	/** Logger used. */
+	private static final NamedLogger LOGGER = Logger.get("bench");
+
+	/** Changes with every call, so nothing is constant folded. */
+	private int request;
+
+	/** Log to a NullAppender, at INFO. */
+	@Setup
+	public void setup() {
+		BenchmarkAppenders.removeAll();
+		Logger.addAppender(new NullAppender());
+		Logger.setLevel(LogLevel.INFO);
+	}
+
+	/** Put the default appender back. */
+	@TearDown
+	public void tearDown() {
+		BenchmarkAppenders.removeAll();
+		Logger.addAppender(new ConsoleAppender());
+	}
+
+	/** Enabled level, plain message. */
+	@Benchmark
+	public void enabledMessage() {
+		LOGGER.info("Processed request");
+	}
+
+	/** Enabled level, format with an int argument. */
+	@Benchmark
+	public void enabledFormat() {
+		LOGGER.log(LogLevel.INFO, "Processed request {}", request++);
+	}
+
+	/** Enabled level, structured fields. */
+	@Benchmark
+	public void enabledStructured() {
+		LOGGER.atInfo().with("request", request++).with("ok", true).log("Processed request");
+	}
+
+	/** Disabled level, through the per-level method and its guard. */
+	@Benchmark
+	public void disabledGuarded() {
+		LOGGER.debug("Request {} details", "bench");
+	}
+
+	/** Disabled level, through log(LogLevel, ...) which checks the level. */
+	@Benchmark
+	public void disabledLevel() {
+		LOGGER.log(LogLevel.DEBUG, "Request {} details", request++);
+	}
+
+	/** Disabled level, structured fields. */
+	@Benchmark
+	public void disabledStructured() {
+		LOGGER.atDebug().with("request", request++).with("ok", true).log("Request details");
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Logs from a large number of virtual threads at once, and checks with JDK
+ * Flight Recorder that no virtual thread was pinned to its carrier while
+ * logging, and that every line made it to the file.
+ * This needs Java 21 or later. Usage:
+ *
+ *   java -cp ... uk.org.dataforce.libs.logger.VirtualThreadStress [threads] [lines] [async]
+ *
+ * The exit code is 1 if any pinning was seen or any lines were lost.
+ */
+public class VirtualThreadStress {
+	/** Default number of virtual threads. */
+	private static final int DEFAULT_THREADS = 100000;
+	/** Default number of lines logged by each thread. */
+	private static final int DEFAULT_LINES = 10;
+
+	/**
+	 * Run the stress test.
+	 *
+	 * @param args Number of threads, lines per thread, and "async" to log
+	 *             through the async writer.
+	 * @throws Exception If the test can not be run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int threads = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+		final int lines = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_LINES;
+		final boolean async = args.length > 2 && args[2].equalsIgnoreCase("async");
+
+		final File file = File.createTempFile("VirtualThreadStress", ".log");
+		file.delete();
+		for (Appender appender : Logger.getAppenders()) {
+			Logger.removeAppender(appender);
+		}
+		final RollingFileAppender appender = new RollingFileAppender(file.getPath(), Long.MAX_VALUE, 0, false);
+		Logger.addAppender(appender);
+		Logger.setLevel(LogLevel.INFO);
+		if (async) {
+			Logger.enableAsync(Logger.DEFAULT_ASYNC_CAPACITY, OverflowPolicy.BLOCK);
+		}
+		final NamedLogger logger = Logger.get("stress");
+
+		final long start;
+		final long time;
+		final Path recordingFile = Files.createTempFile("VirtualThreadStress", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+			recording.start();
+
+			start = System.nanoTime();
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				for (int i = 0; i < threads; i++) {
+					final int thread = i;
+					executor.submit(() -> {
+						for (int line = 0; line < lines; line++) {
+							logger.log(LogLevel.INFO, "Thread {} line {}", thread, line);
+						}
+					});
+				}
+			}
+			Logger.disableAsync(Logger.DEFAULT_FLUSH_TIMEOUT);
+			time = System.nanoTime() - start;
+
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+		appender.close();
+
+		int pinned = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+			if (pinned++ < 5) {
+				System.err.println("Pinned for "+event.getDuration().toNanos()+"ns at:");
+				if (event.getStackTrace() != null) {
+					for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+						System.err.println("\t"+frame.getMethod().getType().getName()+"."+frame.getMethod().getName()
+						                   +":"+frame.getLineNumber());
+					}
+				}
+			}
+		}
+		Files.delete(recordingFile);
+
+		final long written = countLines(file);
+		file.delete();
+		final long expected = (long) threads * lines;
+		System.err.printf("%d virtual threads, %d lines in %.1f ms (%s): %d written, %d pinning events%n",
+		                  threads, expected, time / 1e6, async ? "async" : "sync", written, pinned);
+		if (pinned > 0 || written != expected) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Count the lines in a file.
+	 *
+	 * @param file File to count.
+	 * @return Number of lines.
+	 * @throws IOException If the file can not be read.
+	 */
+	private static long countLines(final File file) throws IOException {
+		long count = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			while (reader.readLine() != null) { count++; }
+		}
+		return count;
+	}
+}
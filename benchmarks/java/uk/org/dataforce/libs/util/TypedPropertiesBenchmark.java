@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reading typed values from a TypedProperties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypedPropertiesBenchmark {
+	/** Is the config case sensitive? */
+	@Param({"true", "false"})
+	public boolean caseSensitive;
+
+	/** Are reads served from a snapshot? */
+	@Param({"false", "true"})
+	public boolean readMostly;
+
+	/** Schema bound to the config. */
+	interface ServerConfig {
+		/**
+		 * Get the port.
+		 *
+		 * @return server.port
+		 */
+		@Property(value = "server.port", fallback = "80")
+		int getPort();
+
+		/**
+		 * Get the ratio.
+		 *
+		 * @return server.ratio
+		 */
+		@Property(value = "server.ratio", fallback = "0.5")
+		double getRatio();
+	}
+
+	/** Config read from. */
+	private TypedProperties properties;
+
+	/** Schema bound to the config. */
+	private ServerConfig config;
+
+	/** Fill the config with some typical values. */
+	@Setup
+	public void setup() {
+		properties = new TypedProperties();
+		for (int i = 0; i < 100; i++) {
+			properties.setProperty("server.option" + i, "value" + i);
+		}
+		properties.setIntProperty("server.port", 8080);
+		properties.setLongProperty("server.timeout", 30000L);
+		properties.setDoubleProperty("server.ratio", 0.75);
+		properties.setBoolProperty("server.enabled", true);
+		properties.setCaseSensitivity(caseSensitive);
+		properties.setReadMostly(readMostly);
+		config = properties.bind(ServerConfig.class);
+	}
+
+	/**
+	 * getProperty() for a key that exists.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public String getString() {
+		return properties.getProperty("server.option42");
+	}
+
+	/**
+	 * getIntProperty() for a key that exists.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public int getInt() {
+		return properties.getIntProperty("server.port", 80);
+	}
+
+	/**
+	 * getIntProperty() for a key that exists, asked for in a different case.
+	 * Only found if the config is case insensitive.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public int getIntMixedCase() {
+		return properties.getIntProperty("Server.Port", 80);
+	}
+
+	/**
+	 * getDoubleProperty() for a key that exists.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public double getDouble() {
+		return properties.getDoubleProperty("server.ratio", 0.5);
+	}
+
+	/**
+	 * getLongProperty() for a key that doesn't exist.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public long getMissing() {
+		return properties.getLongProperty("server.missing", 1000L);
+	}
+
+	/**
+	 * An int from a bound schema.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public int boundInt() {
+		return config.getPort();
+	}
+
+	/**
+	 * A double from a bound schema.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	public double boundDouble() {
+		return config.getRatio();
+	}
+
+	/**
+	 * getIntProperty() for a key that exists, from 8 threads at once.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 */
+	@Benchmark
+	@Threads(8)
+	public int getIntContended() {
+		return properties.getIntProperty("server.port", 80);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time taken to load a large properties file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class TypedPropertiesLoadBenchmark {
+	/** Number of entries in the file. */
+	@Param({"100000", "1000000"})
+	public int entries;
+
+	/** File loaded. */
+	private File file;
+
+	/**
+	 * Write the file, with a mix of short and continued lines and comments.
+	 *
+	 * @throws IOException If the file can't be written.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("dflibs-bench", ".properties").toFile();
+		try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.ISO_8859_1)) {
+			for (int i = 0; i < entries; i++) {
+				if (i % 100 == 0) { writer.write("# Section " + i + "\n"); }
+				writer.write("server.section" + (i % 100) + ".option" + i + " = value number " + i);
+				if (i % 10 == 0) { writer.write(", \\\n    continued"); }
+				writer.write('\n');
+			}
+		}
+	}
+
+	/** Delete the file and its snapshot. */
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		PropertiesSnapshot.getFile(file).delete();
+	}
+
+	/**
+	 * TypedProperties.load(InputStream).
+	 *
+	 * @return The result, so it isn't optimised away.
+	 * @throws IOException If the file can't be read.
+	 */
+	@Benchmark
+	public TypedProperties load() throws IOException {
+		final TypedProperties properties = new TypedProperties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	/**
+	 * TypedProperties.loadParallel(File).
+	 *
+	 * @return The result, so it isn't optimised away.
+	 * @throws IOException If the file can't be read.
+	 */
+	@Benchmark
+	public TypedProperties loadParallel() throws IOException {
+		final TypedProperties properties = new TypedProperties();
+		properties.loadParallel(file);
+		return properties;
+	}
+
+	/**
+	 * TypedProperties.loadWithSnapshot(File), reading a property.
+	 * The snapshot is written by the first (warmup) call.
+	 *
+	 * @return The result, so it isn't optimised away.
+	 * @throws IOException If the file can't be read.
+	 */
+	@Benchmark
+	public String loadWithSnapshot() throws IOException {
+		final TypedProperties properties = new TypedProperties();
+		properties.loadWithSnapshot(file);
+		return properties.getProperty("server.section1.option1");
+	}
+}
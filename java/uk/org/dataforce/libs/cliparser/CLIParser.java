@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 
 import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.logger.NamedLogger;
 
 /**
  * Command Line argument parser.
@@ -36,6 +37,9 @@ public class CLIParser {
 	/** Singleton instance of CLIParser. */
 	private static CLIParser me;
 	
+	/** Logger for the cliparser package. */
+	private static final NamedLogger LOGGER = Logger.get("uk.org.dataforce.libs.cliparser");
+	
 	/** Singleton instance of CLIParser. */
 	CLIParam helpParam = null;
 	
@@ -89,11 +93,11 @@ public class CLIParser {
 		if (validChar && validString) {
 			if (param.getChr() != 0) {
 				params.put(""+param.getChr(), param);
-				Logger.debug2("Added Param: [-"+param.getChr()+"]");
+				LOGGER.debug2("Added Param: [-{}]", param.getChr());
 			}
 			if (param.getString().length() > 0) {
 				params.put("-"+param.getString().toLowerCase(), param);
-				Logger.debug2("Added Param: [--"+param.getString()+"]");
+				LOGGER.debug2("Added Param: [--{}]", param.getString());
 			}
 			paramList.add(param);
 			return true;
@@ -235,10 +239,10 @@ public class CLIParser {
 				} else {
 					lastParam = getParam(name);
 					if (lastParam != null) {
-						Logger.debug("Got Param: -"+name);
+						LOGGER.debug("Got Param: -{}", name);
 						lastParam.incNumber();
 					} else {
-						Logger.warning("Unknown Param: -"+name);
+						LOGGER.warning("Unknown Param: -{}", name);
 						if (helpParam != null) {
 							String command = "";
 							if (helpParam.getString().length() > 0) {
@@ -247,7 +251,7 @@ public class CLIParser {
 								command = ""+helpParam.getChr();
 							}
 							if (command.length() > 0) {
-								Logger.warning("Use "+command+" to get help.");
+								LOGGER.warning("Use {} to get help.", command);
 							}
 						}
 						if (strict) {
@@ -258,10 +262,10 @@ public class CLIParser {
 			} else {
 				if (arg.charAt(0) == '\\' && arg.length() > 1) { arg = arg.substring(1); }
 				if (lastParam != null && !allRedundant && lastParam.setValue(arg)) {
-					Logger.debug2("Param Value: "+arg);
+					LOGGER.debug2("Param Value: {}", arg);
 					lastParam = null;
 				} else {
-					Logger.debug2("Redundant Value: "+arg);
+					LOGGER.debug2("Redundant Value: {}", arg);
 					redundant.add(arg);
 				}
 			}
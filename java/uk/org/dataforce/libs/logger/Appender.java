@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+/**
+ * Somewhere for the Logger to write events to.
+ * Appenders are added with Logger.addAppender(). Unless the Logger is
+ * asynchronous, append() may be called by many threads at once.
+ */
+public interface Appender {
+	/**
+	 * Write an event.
+	 * The event is reused once this returns, so anything needed later must be
+	 * copied.
+	 *
+	 * @param event Event to write.
+	 */
+	void append(final LogEvent event);
+	
+	/**
+	 * Make sure anything buffered by this appender has been written out.
+	 */
+	void flush();
+	
+	/**
+	 * Flush and release any resources used by this appender.
+	 * The appender should not be used after this.
+	 */
+	void close();
+}
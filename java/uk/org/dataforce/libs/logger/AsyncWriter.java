@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for the Logger.
+ * Events are published into a preallocated ring buffer by any number of
+ * threads without locking, and a single daemon thread drains and writes them.
+ *
+ * Each slot has a sequence number: a slot at position p is free for a producer
+ * when its sequence is p, and ready for the consumer when it is p + 1. When the
+ * consumer is done it sets the sequence to p + capacity, freeing the slot for
+ * the next lap.
+ *
+ * Producers that find the buffer full are recorded as JFR Overflow events
+ * (see JfrEvents), for as long as they had to wait.
+ */
+final class AsyncWriter implements Runnable {
+	/** How long the writer thread parks for when there is nothing to do. */
+	private static final long IDLE_PARK_NANOS = 10000000L;
+	/** How long a blocked producer parks for before trying again. */
+	private static final long FULL_PARK_NANOS = 100000L;
+	/** Bit set in tail once shut down, so no more positions can be claimed. */
+	private static final long CLOSED = 1L << 62;
+
+	/** Preallocated events. */
+	private final LogEvent[] events;
+	/** Sequence number for each slot. */
+	private final AtomicLongArray sequences;
+	/** Mask used to turn a position into a slot index. */
+	private final int mask;
+	/** Next position to be read. */
+	private final AtomicLong head = new AtomicLong(0);
+	/** Next position to be written, with CLOSED set once shut down. */
+	private final AtomicLong tail = new AtomicLong(0);
+	/** Number of events thrown away. */
+	private final AtomicLong dropped = new AtomicLong(0);
+	/** What to do when the buffer is full. */
+	private final OverflowPolicy policy;
+	/** Thread draining the buffer. */
+	private final Thread thread;
+	/** Is the writer accepting new events? */
+	private volatile boolean running = true;
+	/** Is the writer thread (about to be) parked? */
+	private volatile boolean idle = false;
+	/** Has shutdown stopped waiting, so the writer thread should stop too? */
+	private volatile boolean abandoned = false;
+
+	/**
+	 * Create and start a new AsyncWriter.
+	 *
+	 * @param capacity Number of events to buffer, rounded up to a power of 2.
+	 * @param policy What to do when the buffer is full.
+	 */
+	AsyncWriter(final int capacity, final OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: "+capacity);
+		}
+		int size = 1;
+		while (size < capacity) { size <<= 1; }
+
+		events = new LogEvent[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			events[i] = new LogEvent();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+		this.policy = policy;
+
+		thread = new Thread(this, "Logger AsyncWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Publish an event to be written.
+	 *
+	 * @param event Event to write, copied before this returns.
+	 * @return false if this writer has been shut down and the caller should
+	 *         write the event itself, else true (even if the event was dropped).
+	 */
+	boolean publish(final LogEvent event) {
+		JfrEvents.Overflow overflow = null;
+		boolean droppedOldest = false;
+		while (true) {
+			final long pos = tail.get();
+			if ((pos & CLOSED) != 0) { return false; }
+			final int index = (int) pos & mask;
+			final long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					try {
+						events[index].copyFrom(event);
+					} finally {
+						// The writer thread waits for every claimed slot, so
+						// publish it even if copying failed part way.
+						sequences.set(index, pos + 1);
+					}
+					if (idle) { LockSupport.unpark(thread); }
+					if (overflow != null) { JfrEvents.endOverflow(overflow, policy, event, droppedOldest); }
+					return true;
+				}
+			} else if (diff < 0) {
+				// Full.
+				if (overflow == null && JfrEvents.isOverflowEnabled()) { overflow = JfrEvents.beginOverflow(); }
+				if (policy == OverflowPolicy.DROP_NEWEST) {
+					dropped.incrementAndGet();
+					countDropped(event);
+					if (overflow != null) { JfrEvents.endOverflow(overflow, policy, event, true); }
+					return true;
+				} else if (policy == OverflowPolicy.DROP_OLDEST) {
+					if (consume(false)) {
+						dropped.incrementAndGet();
+						droppedOldest = true;
+					}
+				} else {
+					if (idle) { LockSupport.unpark(thread); }
+					LockSupport.parkNanos(this, FULL_PARK_NANOS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take the event at the head of the buffer.
+	 *
+	 * @param write Should the event be written, or thrown away?
+	 * @return true if an event was taken, false if the buffer was empty.
+	 */
+	private boolean consume(final boolean write) {
+		while (true) {
+			final long pos = head.get();
+			final int index = (int) pos & mask;
+			final long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					final LogEvent event = events[index];
+					if (write) {
+						Logger.write(event);
+					} else {
+						countDropped(event);
+					}
+					event.clear();
+					sequences.set(index, pos + mask + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Count a dropped event in the Logger metrics, if enabled.
+	 *
+	 * @param event Event dropped.
+	 */
+	private static void countDropped(final LogEvent event) {
+		final LoggerMetrics metrics = Logger.getMetrics();
+		if (metrics != null) { metrics.dropped(event.getLevel()); }
+	}
+
+	/** Drain the buffer until shut down. */
+	@Override
+	public void run() {
+		while (running) {
+			if (consume(true)) { continue; }
+			Logger.flushAppenders();
+			idle = true;
+			if (getDepth() == 0 && running) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+			idle = false;
+		}
+		// Flush whatever is left. Producers can't claim positions once tail is
+		// closed, but some may have claimed one and not yet published it.
+		final long end = tail.get() & ~CLOSED;
+		while (head.get() < end && !abandoned) {
+			if (!consume(true)) { Thread.onSpinWait(); }
+		}
+		Logger.flushAppenders();
+	}
+
+	/**
+	 * Stop accepting events and wait for the buffer to be flushed.
+	 *
+	 * @param timeout Maximum time to wait in milliseconds.
+	 * @return true if everything was written, false if the timeout expired
+	 *         first (the writer thread then stops after the event it is
+	 *         writing, and anything unwritten is added to the dropped count).
+	 */
+	boolean shutdown(final long timeout) {
+		running = false;
+		tail.getAndUpdate(t -> t | CLOSED);
+		LockSupport.unpark(thread);
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			abandoned = true;
+			// Take what is left, so the writer thread can't write it as well.
+			while (consume(false)) { dropped.incrementAndGet(); }
+			// Anything claimed but not yet published is never taken.
+			dropped.addAndGet(getDepth());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of events waiting to be written.
+	 *
+	 * @return Number of events in the buffer.
+	 */
+	long getDepth() {
+		return Math.max(0, (tail.get() & ~CLOSED) - head.get());
+	}
+
+	/**
+	 * Get the number of events thrown away.
+	 *
+	 * @return Number of dropped events.
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+}
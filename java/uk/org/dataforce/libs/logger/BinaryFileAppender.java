@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appender that writes events in a compact binary format, for high volume
+ * tracing where formatting text would cost more than the logging itself.
+ *
+ * Events logged with a "{}" format are written as the id of the format plus
+ * the raw arguments, so the message is never expanded. Formats and logger
+ * names are written out in full the first time they are seen and by id after
+ * that. Use BinaryLogDecoder to turn the file back into text.
+ *
+ * The file is a series of records, each starting with a type byte. Numbers
+ * are big-endian, "varint" is an unsigned LEB128 int and "string" is a varint
+ * byte length followed by UTF-8.
+ * <pre>
+ * HEADER        'D' 'F' 'L' 'O' 'G' version       (starts a session, ids reset)
+ * NAME          id:varint name:string
+ * FORMAT        id:varint format:string
+ * FORMAT_EVENT  level:byte time:long name:varint format:varint count:byte args context fields
+ * MESSAGE_EVENT level:byte time:long name:varint message:string context fields
+ * KEY           id:varint key:string
+ * </pre>
+ * Levels are LogLevel.getLevel() numbers. Each argument is a type byte
+ * followed by its value: NULL, INT (int), LONG (long), DOUBLE (double) or
+ * STRING (string). Objects other than boxed numbers are written as their
+ * toString(). Strings longer than MAX_STRING_CHARS are cut short.
+ * The context is the event's MDC, as a count byte followed by that many
+ * key:varint value:string pairs, with keys and values cut short at
+ * MAX_CONTEXT_CHARS. The fields are the event's structured fields (see
+ * LogBuilder), as a count byte followed by that many key:varint argument
+ * pairs, with string values cut short at MAX_CONTEXT_CHARS. Field names share
+ * ids with MDC keys. Version 1 files have no context, and version 1 and 2
+ * files have no fields.
+ *
+ * Appending to an existing file adds a new session to it.
+ *
+ * An indexed appender also keeps a sparse index of the file beside it (see
+ * BinaryLogIndex), which BinaryLogReader uses to find events by time and
+ * level without reading the whole file.
+ *
+ * As with RollingFileAppender, writes are guarded by a ReentrantLock so that
+ * virtual threads logging here do not pin their carriers.
+ */
+public class BinaryFileAppender implements Appender {
+	/** Magic bytes at the start of each session. */
+	static final byte[] MAGIC = {'D', 'F', 'L', 'O', 'G'};
+	/** Version of the format. */
+	static final byte VERSION = 3;
+	/** Record type: session header (the first byte of MAGIC). */
+	static final byte RECORD_HEADER = 'D';
+	/** Record type: logger name definition. */
+	static final byte RECORD_NAME = 1;
+	/** Record type: format definition. */
+	static final byte RECORD_FORMAT = 2;
+	/** Record type: event with a format and arguments. */
+	static final byte RECORD_FORMAT_EVENT = 3;
+	/** Record type: event with a plain message. */
+	static final byte RECORD_MESSAGE_EVENT = 4;
+	/** Record type: MDC key definition. */
+	static final byte RECORD_KEY = 5;
+	/** Argument type: null. */
+	static final byte ARG_NULL = 0;
+	/** Argument type: int. */
+	static final byte ARG_INT = 1;
+	/** Argument type: long. */
+	static final byte ARG_LONG = 2;
+	/** Argument type: double. */
+	static final byte ARG_DOUBLE = 3;
+	/** Argument type: string. */
+	static final byte ARG_STRING = 4;
+	/** Longest string written, longer ones are cut short. */
+	public static final int MAX_STRING_CHARS = 4096;
+	/** Longest MDC key or value written, longer ones are cut short. */
+	public static final int MAX_CONTEXT_CHARS = 128;
+	/** Most formats given ids, after that events are written as messages. */
+	public static final int MAX_FORMATS = 65536;
+	/** Size of the write buffer. */
+	public static final int BUFFER_SIZE = 512 * 1024;
+	/** How often buffered events are written out, in milliseconds. */
+	public static final long FLUSH_INTERVAL = 1000;
+
+	/** File being written. */
+	private final File file;
+	/** Events not yet written. */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	/** Ids of the logger names written so far. */
+	private final Map<String, Integer> names = new HashMap<String, Integer>();
+	/** Ids of the formats written so far. */
+	private final Map<String, Integer> formats = new HashMap<String, Integer>();
+	/** Ids of the MDC keys written so far. */
+	private final Map<String, Integer> keys = new HashMap<String, Integer>();
+	/** Ids of the MDC keys of the event being written. */
+	private final int[] keyIds = new int[MDC.MAX_ENTRIES];
+	/** Ids of the field names of the event being written. */
+	private final int[] fieldIds = new int[LogEvent.MAX_FIELDS];
+	/** Thread flushing the buffer. */
+	private final Thread flusher;
+	/** Channel for the file. */
+	private FileChannel channel;
+	/** Offset in the file of the start of the buffer. */
+	private long position;
+	/** Index being written, or null. */
+	private final BinaryLogIndex.Writer index;
+	/** Blocks of the index, or null. */
+	private final BinaryLogIndex.Builder blocks;
+	/** Lock guarding the buffer and file. */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Has this appender been closed? */
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a new BinaryFileAppender.
+	 *
+	 * @param filename File to write to, appended to if it exists.
+	 * @throws IOException If the file can not be opened.
+	 */
+	public BinaryFileAppender(final String filename) throws IOException {
+		this(filename, false);
+	}
+
+	/**
+	 * Create a new BinaryFileAppender.
+	 * An index is only kept if the file is new, or already has one, as an
+	 * index that doesn't cover the start of the file would be ignored. Older
+	 * files are indexed by BinaryLogReader when they are first read.
+	 *
+	 * @param filename File to write to, appended to if it exists.
+	 * @param indexed Should an index be kept beside the file?
+	 * @throws IOException If the file can not be opened.
+	 */
+	public BinaryFileAppender(final String filename, final boolean indexed) throws IOException {
+		this.file = new File(filename).getAbsoluteFile();
+		channel = openChannel();
+		position = channel.size();
+		final File indexFile = BinaryLogIndex.getFile(file);
+		if (indexed && (position == 0 || indexFile.exists())) {
+			index = new BinaryLogIndex.Writer(indexFile, position > 0);
+			index.session(position, VERSION);
+			blocks = new BinaryLogIndex.Builder(position);
+		} else {
+			index = null;
+			blocks = null;
+		}
+		buffer.put(MAGIC).put(VERSION);
+
+		flusher = new Thread("BinaryFileAppender Flusher: "+file.getName()) {
+			@Override
+			public void run() {
+				while (!isClosed()) {
+					try {
+						Thread.sleep(FLUSH_INTERVAL);
+					} catch (InterruptedException ie) {
+						return;
+					}
+					flush();
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Get the file being written to.
+	 *
+	 * @return The log file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void append(final LogEvent event) {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			try {
+				// Every record is less than half the buffer, given MAX_STRING_CHARS,
+				// MAX_CONTEXT_CHARS, MAX_ARGS and MAX_FIELDS.
+				if (buffer.remaining() < BUFFER_SIZE / 2) {
+					writeBuffer();
+				}
+				if (index != null) {
+					final BinaryLogIndex.Block block = blocks.boundary(position + buffer.position());
+					if (block != null) { index.block(block); }
+				}
+				final int nameId = getId(names, event.getName(), RECORD_NAME, Integer.MAX_VALUE);
+				final String format = event.getFormat();
+				final int formatId = (format == null) ? -1 : getId(formats, format, RECORD_FORMAT, MAX_FORMATS);
+				final int contextSize = event.getContextSize();
+				for (int i = 0; i < contextSize; i++) {
+					keyIds[i] = getId(keys, event.getContextKey(i), RECORD_KEY, Integer.MAX_VALUE);
+				}
+				final int fieldCount = event.getFieldCount();
+				for (int i = 0; i < fieldCount; i++) {
+					fieldIds[i] = getId(keys, event.getFieldKey(i), RECORD_KEY, Integer.MAX_VALUE);
+				}
+				if (formatId < 0) {
+					buffer.put(RECORD_MESSAGE_EVENT);
+					putEventHeader(event, nameId);
+					putString(event.getMessage(), MAX_STRING_CHARS);
+				} else {
+					buffer.put(RECORD_FORMAT_EVENT);
+					putEventHeader(event, nameId);
+					putVarint(formatId);
+					final int count = event.getArgumentCount();
+					buffer.put((byte) count);
+					for (int i = 0; i < count; i++) {
+						putArgument(event, i);
+					}
+				}
+				buffer.put((byte) contextSize);
+				for (int i = 0; i < contextSize; i++) {
+					putVarint(keyIds[i]);
+					putString(event.getContextValue(i), MAX_CONTEXT_CHARS);
+				}
+				buffer.put((byte) fieldCount);
+				for (int i = 0; i < fieldCount; i++) {
+					putVarint(fieldIds[i]);
+					putValue(event.getFieldType(i), event.getFieldRawValue(i), event.getFieldObject(i), MAX_CONTEXT_CHARS);
+				}
+				if (index != null) {
+					blocks.event(event.getLevel(), event.getTimestamp());
+				}
+			} catch (IOException e) {
+				error(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			try {
+				writeBuffer();
+			} catch (IOException e) {
+				error(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			closed = true;
+			flusher.interrupt();
+			try {
+				if (index != null) {
+					final BinaryLogIndex.Block block = blocks.finish(position + buffer.position());
+					if (block != null) { index.block(block); }
+				}
+				writeBuffer();
+			} catch (IOException e) {
+				error(e);
+			} finally {
+				try {
+					channel.close();
+					if (index != null) { index.close(); }
+				} catch (IOException e) {
+					error(e);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check if this appender has been closed.
+	 *
+	 * @return true if close() has been called.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Get the id for a name or format, writing a definition record the first
+	 * time it is seen.
+	 *
+	 * @param ids Ids already given out.
+	 * @param value Name or format.
+	 * @param recordType Type of definition record.
+	 * @param max Maximum number of ids to give out.
+	 * @return The id, or -1 if there are too many already.
+	 * @throws IOException If there is a problem writing to the index.
+	 */
+	private int getId(final Map<String, Integer> ids, final String value, final byte recordType, final int max) throws IOException {
+		final Integer id = ids.get(value);
+		if (id != null) { return id; }
+		if (ids.size() >= max) { return -1; }
+		final int newId = ids.size();
+		final int maxChars = (recordType == RECORD_KEY) ? MAX_CONTEXT_CHARS : MAX_STRING_CHARS;
+		ids.put(value, newId);
+		buffer.put(recordType);
+		putVarint(newId);
+		putString(value, maxChars);
+		if (index != null) {
+			index.define(recordType, newId, (value.length() > maxChars) ? value.substring(0, maxChars) : value);
+		}
+		return newId;
+	}
+
+	/**
+	 * Write the level, time and logger name of an event.
+	 *
+	 * @param event Event being written.
+	 * @param nameId Id of the logger name.
+	 */
+	private void putEventHeader(final LogEvent event, final int nameId) {
+		buffer.put((byte) event.getLevel().getLevel());
+		buffer.putLong(event.getTimestamp());
+		putVarint(nameId);
+	}
+
+	/**
+	 * Write an argument.
+	 *
+	 * @param event Event being written.
+	 * @param index Argument to write.
+	 */
+	private void putArgument(final LogEvent event, final int index) {
+		putValue(event.getArgumentType(index), event.getArgumentValue(index), event.getArgumentObject(index), MAX_STRING_CHARS);
+	}
+
+	/**
+	 * Write an argument or field value.
+	 *
+	 * @param type LogEvent.ARG_OBJECT, ARG_INT, ARG_LONG or ARG_DOUBLE.
+	 * @param value Value of an int, long or double (as raw bits).
+	 * @param arg Value of an object.
+	 * @param maxChars Maximum number of chars of a string to write.
+	 */
+	private void putValue(final byte type, final long value, final Object arg, final int maxChars) {
+		switch (type) {
+			case LogEvent.ARG_INT:
+				buffer.put(ARG_INT).putInt((int) value);
+				break;
+			case LogEvent.ARG_LONG:
+				buffer.put(ARG_LONG).putLong(value);
+				break;
+			case LogEvent.ARG_DOUBLE:
+				buffer.put(ARG_DOUBLE).putLong(value);
+				break;
+			default:
+				if (arg == null) {
+					buffer.put(ARG_NULL);
+				} else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+					buffer.put(ARG_INT).putInt(((Number) arg).intValue());
+				} else if (arg instanceof Long) {
+					buffer.put(ARG_LONG).putLong((Long) arg);
+				} else if (arg instanceof Double || arg instanceof Float) {
+					buffer.put(ARG_DOUBLE).putDouble(((Number) arg).doubleValue());
+				} else if (arg instanceof CharSequence) {
+					buffer.put(ARG_STRING);
+					putString((CharSequence) arg, maxChars);
+				} else {
+					buffer.put(ARG_STRING);
+					putString(arg.toString(), maxChars);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Write an unsigned LEB128 int.
+	 *
+	 * @param value Value to write.
+	 */
+	private void putVarint(final int value) {
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	/**
+	 * Write a string as a varint length followed by UTF-8.
+	 *
+	 * @param value String to write.
+	 * @param maxChars Maximum number of chars to write.
+	 */
+	private void putString(final CharSequence value, final int maxChars) {
+		final int length = Math.min(value.length(), maxChars);
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				bytes += 1;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else {
+				bytes += 3;
+			}
+		}
+		putVarint(bytes);
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (cp & 0x3F)));
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Open a channel to the file.
+	 *
+	 * @return The channel.
+	 * @throws IOException If the file can not be opened.
+	 */
+	private FileChannel openChannel() throws IOException {
+		final File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) { dir.mkdirs(); }
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Write out anything in the buffer, then anything waiting for the index.
+	 * Interrupting a thread blocked in a FileChannel closes the channel, so if
+	 * that happens the file is reopened and the write carried on, with the
+	 * thread's interrupt status put back afterwards.
+	 *
+	 * @throws IOException If there is a problem writing.
+	 */
+	private void writeBuffer() throws IOException {
+		if (buffer.position() == 0) { return; }
+		buffer.flip();
+		boolean interrupted = false;
+		try {
+			while (buffer.hasRemaining()) {
+				try {
+					position += channel.write(buffer);
+				} catch (ClosedByInterruptException e) {
+					interrupted |= Thread.interrupted();
+					channel = openChannel();
+				}
+			}
+		} finally {
+			buffer.clear();
+			if (interrupted) { Thread.currentThread().interrupt(); }
+		}
+		if (index != null) { index.flush(); }
+	}
+
+	/**
+	 * Report an error writing to the file.
+	 * This can't be logged, as that could just cause the same error again.
+	 *
+	 * @param e The error.
+	 */
+	private void error(final IOException e) {
+		System.err.println("BinaryFileAppender: Error writing to "+file+": "+e.getMessage());
+	}
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import uk.org.dataforce.libs.cliparser.BooleanParam;
+import uk.org.dataforce.libs.cliparser.CLIParser;
+import uk.org.dataforce.libs.cliparser.StringParam;
+
+/**
+ * Reads files written by BinaryFileAppender back as text.
+ * This can be used from code, calling next() for each event, or from the
+ * command line:
+ * <pre>
+ * java uk.org.dataforce.libs.logger.BinaryLogDecoder [options] file [file...]
+ * </pre>
+ */
+public class BinaryLogDecoder {
+	/** Stream being read. */
+	private final DataInputStream in;
+	/** Logger names, by id, for the current session. */
+	private List<String> names = new ArrayList<String>();
+	/** Formats, by id, for the current session. */
+	private List<String> formats = new ArrayList<String>();
+	/** MDC keys, by id, for the current session. */
+	private List<String> keys = new ArrayList<String>();
+	/** MDC keys of the last event read. */
+	private final List<String> contextKeys = new ArrayList<String>();
+	/** MDC values of the last event read. */
+	private final List<String> contextValues = new ArrayList<String>();
+	/** Structured field names of the last event read. */
+	private final List<String> fieldKeys = new ArrayList<String>();
+	/** Structured field values of the last event read. */
+	private final List<Object> fieldValues = new ArrayList<Object>();
+	/** Version of the current session. */
+	private int version;
+	/** Number of session headers read. */
+	private int sessions = 0;
+	/** Level of the last event read. */
+	private LogLevel level;
+	/** Time of the last event read. */
+	private long timestamp;
+	/** Logger name of the last event read. */
+	private String name;
+	/** Message of the last event read. */
+	private String message;
+
+	/**
+	 * Create a new BinaryLogDecoder.
+	 *
+	 * @param in Stream to read from.
+	 */
+	public BinaryLogDecoder(final InputStream in) {
+		this(in, true);
+	}
+
+	/**
+	 * Create a new BinaryLogDecoder.
+	 *
+	 * @param in Stream to read from.
+	 * @param buffered Should reads be buffered? Unbuffered decoders never
+	 *                 read past the end of the event returned by next(), so
+	 *                 the stream's position can be used as a record offset.
+	 */
+	BinaryLogDecoder(final InputStream in, final boolean buffered) {
+		this.in = new DataInputStream(buffered ? new BufferedInputStream(in) : in);
+	}
+
+	/**
+	 * Read the next event.
+	 * A record cut short at the end of the file (eg, by a crash) is treated as
+	 * the end of the file.
+	 *
+	 * @return true if an event was read, false at the end of the file.
+	 * @throws IOException If the file can't be read or is not valid.
+	 */
+	public boolean next() throws IOException {
+		try {
+			while (true) {
+				final int type = in.read();
+				if (type < 0) { return false; }
+				switch (type) {
+					case BinaryFileAppender.RECORD_HEADER:
+						readHeader();
+						break;
+					case BinaryFileAppender.RECORD_NAME:
+						define(names, readVarint(), readString());
+						break;
+					case BinaryFileAppender.RECORD_FORMAT:
+						define(formats, readVarint(), readString());
+						break;
+					case BinaryFileAppender.RECORD_KEY:
+						define(keys, readVarint(), readString());
+						break;
+					case BinaryFileAppender.RECORD_FORMAT_EVENT:
+						readEventHeader();
+						final String format = lookup(formats, readVarint());
+						final Object[] args = new Object[in.readUnsignedByte()];
+						for (int i = 0; i < args.length; i++) {
+							args[i] = readArgument();
+						}
+						final StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+						MessageFormatter.format(sb, format, args);
+						message = sb.toString();
+						readContext();
+						return true;
+					case BinaryFileAppender.RECORD_MESSAGE_EVENT:
+						readEventHeader();
+						message = readString();
+						readContext();
+						return true;
+					default:
+						throw new IOException("Unknown record type: "+type);
+				}
+			}
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the level of the last event read.
+	 *
+	 * @return Level of the event.
+	 */
+	public LogLevel getLevel() { return level; }
+
+	/**
+	 * Get the time of the last event read.
+	 *
+	 * @return Time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() { return timestamp; }
+
+	/**
+	 * Get the logger name of the last event read.
+	 *
+	 * @return Name of the logger, "" for the root logger.
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Get the message of the last event read.
+	 *
+	 * @return The expanded message.
+	 */
+	public String getMessage() { return message; }
+
+	/**
+	 * Get the number of MDC pairs of the last event read.
+	 *
+	 * @return Number of pairs.
+	 */
+	public int getContextSize() { return contextKeys.size(); }
+
+	/**
+	 * Get an MDC key of the last event read.
+	 *
+	 * @param index Pair to get.
+	 * @return Key of the pair.
+	 */
+	public String getContextKey(final int index) { return contextKeys.get(index); }
+
+	/**
+	 * Get an MDC value of the last event read.
+	 *
+	 * @param index Pair to get.
+	 * @return Value of the pair.
+	 */
+	public String getContextValue(final int index) { return contextValues.get(index); }
+
+	/**
+	 * Get the number of structured fields of the last event read.
+	 *
+	 * @return Number of fields.
+	 */
+	public int getFieldCount() { return fieldKeys.size(); }
+
+	/**
+	 * Get the name of a structured field of the last event read.
+	 *
+	 * @param index Field to get.
+	 * @return Name of the field.
+	 */
+	public String getFieldKey(final int index) { return fieldKeys.get(index); }
+
+	/**
+	 * Get the value of a structured field of the last event read.
+	 *
+	 * @param index Field to get.
+	 * @return Integer, Long, Double, String or null.
+	 */
+	public Object getFieldValue(final int index) { return fieldValues.get(index); }
+
+	/**
+	 * Get the number of session headers read so far.
+	 *
+	 * @return Number of sessions.
+	 */
+	int getSessions() { return sessions; }
+
+	/**
+	 * Get the version of the current session.
+	 *
+	 * @return Format version.
+	 */
+	int getVersion() { return version; }
+
+	/**
+	 * Get the logger names of the current session.
+	 * This is the list the decoder adds to as names are defined.
+	 *
+	 * @return Names by id.
+	 */
+	List<String> getNames() { return names; }
+
+	/**
+	 * Get the formats of the current session.
+	 * This is the list the decoder adds to as formats are defined.
+	 *
+	 * @return Formats by id.
+	 */
+	List<String> getFormats() { return formats; }
+
+	/**
+	 * Get the MDC keys of the current session.
+	 * This is the list the decoder adds to as keys are defined.
+	 *
+	 * @return Keys by id.
+	 */
+	List<String> getKeys() { return keys; }
+
+	/**
+	 * Carry on decoding part way through a session, with ids defined earlier
+	 * in the file. The lists are used as they are, not copied.
+	 *
+	 * @param newVersion Version of the session.
+	 * @param newNames Logger names by id.
+	 * @param newFormats Formats by id.
+	 * @param newKeys MDC keys by id.
+	 */
+	void resume(final int newVersion, final List<String> newNames, final List<String> newFormats, final List<String> newKeys) {
+		version = newVersion;
+		names = newNames;
+		formats = newFormats;
+		keys = newKeys;
+	}
+
+	/**
+	 * Close the stream being read.
+	 *
+	 * @throws IOException If there is a problem closing the stream.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Read the rest of a session header, and forget the ids from the last one.
+	 *
+	 * @throws IOException If the header is not valid.
+	 */
+	private void readHeader() throws IOException {
+		final byte[] magic = new byte[BinaryFileAppender.MAGIC.length];
+		magic[0] = BinaryFileAppender.RECORD_HEADER;
+		in.readFully(magic, 1, magic.length - 1);
+		if (!Arrays.equals(magic, BinaryFileAppender.MAGIC)) {
+			throw new IOException("Not a binary log file");
+		}
+		version = in.readUnsignedByte();
+		if (version < 1 || version > BinaryFileAppender.VERSION) {
+			throw new IOException("Unsupported binary log version: "+version);
+		}
+		// New lists rather than clear(), as the old ones may be held by an index.
+		names = new ArrayList<String>();
+		formats = new ArrayList<String>();
+		keys = new ArrayList<String>();
+		sessions++;
+	}
+
+	/**
+	 * Read the level, time and logger name of an event.
+	 *
+	 * @throws IOException If there is a problem reading.
+	 */
+	private void readEventHeader() throws IOException {
+		final int number = in.readUnsignedByte();
+		level = null;
+		for (LogLevel l : LogLevel.values()) {
+			if (l.getLevel() == number) { level = l; }
+		}
+		if (level == null) {
+			throw new IOException("Unknown level: "+number);
+		}
+		timestamp = in.readLong();
+		name = lookup(names, readVarint());
+	}
+
+	/**
+	 * Read the MDC pairs and structured fields at the end of an event.
+	 *
+	 * @throws IOException If there is a problem reading.
+	 */
+	private void readContext() throws IOException {
+		contextKeys.clear();
+		contextValues.clear();
+		fieldKeys.clear();
+		fieldValues.clear();
+		if (version < 2) { return; }
+		final int count = in.readUnsignedByte();
+		for (int i = 0; i < count; i++) {
+			contextKeys.add(lookup(keys, readVarint()));
+			contextValues.add(readString());
+		}
+		if (version < 3) { return; }
+		final int fieldCount = in.readUnsignedByte();
+		for (int i = 0; i < fieldCount; i++) {
+			fieldKeys.add(lookup(keys, readVarint()));
+			fieldValues.add(readArgument());
+		}
+	}
+
+	/**
+	 * Read an argument.
+	 *
+	 * @return Value of the argument.
+	 * @throws IOException If there is a problem reading.
+	 */
+	private Object readArgument() throws IOException {
+		final int type = in.readUnsignedByte();
+		switch (type) {
+			case BinaryFileAppender.ARG_NULL:
+				return null;
+			case BinaryFileAppender.ARG_INT:
+				return in.readInt();
+			case BinaryFileAppender.ARG_LONG:
+				return in.readLong();
+			case BinaryFileAppender.ARG_DOUBLE:
+				return in.readDouble();
+			case BinaryFileAppender.ARG_STRING:
+				return readString();
+			default:
+				throw new IOException("Unknown argument type: "+type);
+		}
+	}
+
+	/**
+	 * Read an unsigned LEB128 int.
+	 *
+	 * @return The value.
+	 * @throws IOException If there is a problem reading.
+	 */
+	private int readVarint() throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			final int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) { return result; }
+		}
+		throw new IOException("Invalid varint");
+	}
+
+	/**
+	 * Read a varint length followed by UTF-8.
+	 *
+	 * @return The string.
+	 * @throws IOException If there is a problem reading.
+	 */
+	private String readString() throws IOException {
+		final byte[] bytes = new byte[readVarint()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Store a definition.
+	 * Ids already known are skipped, as they will have been loaded from an
+	 * index when decoding starts part way through a session.
+	 *
+	 * @param list List of definitions.
+	 * @param id Id being defined.
+	 * @param value Value for the id.
+	 * @throws IOException If the id is not the next one expected.
+	 */
+	private static void define(final List<String> list, final int id, final String value) throws IOException {
+		if (id < list.size()) { return; }
+		if (id != list.size()) {
+			throw new IOException("Unexpected id: "+id);
+		}
+		list.add(value);
+	}
+
+	/**
+	 * Look up a definition.
+	 *
+	 * @param list List of definitions.
+	 * @param id Id to look up.
+	 * @return The value for the id.
+	 * @throws IOException If the id has not been defined.
+	 */
+	private static String lookup(final List<String> list, final int id) throws IOException {
+		if (id < 0 || id >= list.size()) {
+			throw new IOException("Undefined id: "+id);
+		}
+		return list.get(id);
+	}
+
+	/**
+	 * Write the last event read as a line of text.
+	 *
+	 * @param writer Writer to write to.
+	 * @param dateFormat Format for the time of the event, or null for none.
+	 * @throws IOException If there is a problem writing.
+	 */
+	void write(final Writer writer, final SimpleDateFormat dateFormat) throws IOException {
+		if (dateFormat != null) {
+			writer.write(dateFormat.format(new Date(timestamp)));
+		}
+		writer.write("[" + level + "] ");
+		if (!name.isEmpty()) {
+			writer.write(name + ": ");
+		}
+		if (!contextKeys.isEmpty()) {
+			writer.write("[");
+			for (int i = 0; i < contextKeys.size(); i++) {
+				if (i > 0) { writer.write(", "); }
+				writer.write(contextKeys.get(i) + "=" + contextValues.get(i));
+			}
+			writer.write("] ");
+		}
+		writer.write(message);
+		for (int i = 0; i < fieldKeys.size(); i++) {
+			writer.write(" " + fieldKeys.get(i) + "=" + fieldValues.get(i));
+		}
+		writer.write(System.getProperty("line.separator", "\n"));
+	}
+
+	/**
+	 * Decode binary log files to text.
+	 *
+	 * @param args Command line arguments.
+	 */
+	public static void main(final String[] args) {
+		// Keep the parser's debug output out of the events written to stdout.
+		Logger.get("uk.org.dataforce.libs.cliparser").setLevel(LogLevel.WARNING);
+		final CLIParser cli = CLIParser.getCLIParser();
+		final BooleanParam help = new BooleanParam('h', "help", "Show this help");
+		final BooleanParam times = new BooleanParam('t', "timestamps", "Show the time of each event");
+		final StringParam levelParam = new StringParam('l', "level", "Only show events at this level or more important");
+		final StringParam output = new StringParam('o', "output", "File to write to instead of standard output");
+		cli.add(help);
+		cli.add(times);
+		cli.add(levelParam);
+		cli.add(output);
+		cli.setHelp(help);
+		cli.parseArgs(args, true);
+		if (cli.wantsHelp(args) || cli.getRedundant().isEmpty()) {
+			cli.showHelp("Binary Log Decoder", "BinaryLogDecoder [options] <file> [file...]");
+			return;
+		}
+
+		LogLevel maxLevel = LogLevel.DEBUG9;
+		if (levelParam.getNumber() > 0) {
+			maxLevel = LogLevel.fromString(levelParam.getValue());
+			if (maxLevel == null) {
+				System.err.println("Unknown level: "+levelParam.getValue());
+				System.exit(1);
+			}
+		}
+
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS ");
+		try {
+			final OutputStream out = (output.getNumber() > 0) ? new FileOutputStream(output.getValue()) : System.out;
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+			for (String filename : cli.getRedundant()) {
+				final BinaryLogDecoder decoder = new BinaryLogDecoder(new FileInputStream(filename));
+				try {
+					while (decoder.next()) {
+						if (!decoder.getLevel().isLoggable(maxLevel)) { continue; }
+						decoder.write(writer, (times.getNumber() > 0) ? dateFormat : null);
+					}
+				} finally {
+					decoder.close();
+				}
+			}
+			writer.flush();
+		} catch (IOException e) {
+			System.err.println("Error decoding: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+}
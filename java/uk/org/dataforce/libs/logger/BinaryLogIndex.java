@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse index of a file written by BinaryFileAppender, kept beside it as
+ * "file.idx".
+ *
+ * The log is split into blocks of about BLOCK_SIZE bytes, each starting at a
+ * record boundary, and the index holds the byte range, earliest and latest
+ * time and the levels present for each. It also holds the ids defined in
+ * each session, so decoding can start at any block without reading the file
+ * from the start. Blocks that cannot hold a wanted event are never read.
+ *
+ * The index is a series of records, each starting with a type byte, after
+ * a header of 'D' 'F' 'I' 'D' 'X' version. Numbers are big-endian and strings
+ * are as for DataOutput.writeUTF().
+ * <pre>
+ * SESSION  offset:long version:byte          (ids after this are for this session)
+ * NAME     id:int name:string
+ * FORMAT   id:int format:string
+ * KEY      id:int key:string
+ * BLOCK    start:long end:long minTime:long maxTime:long levels:int
+ * </pre>
+ * Definition records use the same type bytes as BinaryFileAppender. Levels
+ * are a bit mask of LogLevel ordinals.
+ *
+ * An index can fall behind its log (eg, the log is still being written, or
+ * the appender crashed), so only the blocks covering the log contiguously
+ * from the start are trusted, and the rest of the log is indexed by scanning.
+ */
+final class BinaryLogIndex {
+	/** Magic bytes at the start of the index. */
+	static final byte[] MAGIC = {'D', 'F', 'I', 'D', 'X'};
+	/** Version of the format. */
+	static final byte VERSION = 1;
+	/** Record type: start of a session. */
+	static final byte RECORD_SESSION = 'S';
+	/** Record type: block. */
+	static final byte RECORD_BLOCK = 'B';
+	/** Size of the log covered by each block, blocks end at the first record after this. */
+	static final int BLOCK_SIZE = 64 * 1024;
+	/** Suffix added to the log file name to get the index file name. */
+	static final String SUFFIX = ".idx";
+
+	/** Sessions, in order. */
+	private final List<Session> sessions = new ArrayList<Session>();
+	/** Blocks, in order. */
+	private final List<Block> blocks = new ArrayList<Block>();
+
+	/** Ids defined in a session of the log. */
+	static final class Session {
+		/** Offset in the log of the session header. */
+		final long offset;
+		/** Version of the session. */
+		final int version;
+		/** Logger names by id. */
+		final List<String> names;
+		/** Formats by id. */
+		final List<String> formats;
+		/** MDC keys by id. */
+		final List<String> keys;
+
+		/**
+		 * Create a new Session.
+		 *
+		 * @param offset Offset in the log of the session header.
+		 * @param version Version of the session.
+		 * @param names Logger names by id.
+		 * @param formats Formats by id.
+		 * @param keys MDC keys by id.
+		 */
+		Session(final long offset, final int version, final List<String> names, final List<String> formats, final List<String> keys) {
+			this.offset = offset;
+			this.version = version;
+			this.names = names;
+			this.formats = formats;
+			this.keys = keys;
+		}
+	}
+
+	/** Range of the log and what is in it. */
+	static final class Block {
+		/** Offset in the log of the first record. */
+		final long start;
+		/** Offset in the log after the last record. */
+		long end;
+		/** Earliest time of an event in the block. */
+		long minTime = Long.MAX_VALUE;
+		/** Latest time of an event in the block. */
+		long maxTime = Long.MIN_VALUE;
+		/** Bit mask of the levels of events in the block. */
+		int levels = 0;
+
+		/**
+		 * Create a new Block.
+		 *
+		 * @param start Offset in the log of the first record.
+		 */
+		Block(final long start) {
+			this.start = start;
+			this.end = start;
+		}
+	}
+
+	/**
+	 * Splits a log into blocks as it is written or read.
+	 * Call boundary() before each event (and the definitions that go with
+	 * it), event() after it, and finish() at the end.
+	 */
+	static final class Builder {
+		/** Block being built. */
+		private Block current;
+
+		/**
+		 * Create a new Builder.
+		 *
+		 * @param start Offset in the log of the first record.
+		 */
+		Builder(final long start) {
+			current = new Block(start);
+		}
+
+		/**
+		 * Note a record boundary, which ends the block if it is big enough.
+		 *
+		 * @param offset Offset in the log of the next record.
+		 * @return The block ended, or null if it carries on.
+		 */
+		Block boundary(final long offset) {
+			if (current.levels == 0 || offset - current.start < BLOCK_SIZE) { return null; }
+			return finish(offset);
+		}
+
+		/**
+		 * Note an event in the current block.
+		 *
+		 * @param level Level of the event.
+		 * @param time Time of the event.
+		 */
+		void event(final LogLevel level, final long time) {
+			current.levels |= levelBit(level);
+			if (time < current.minTime) { current.minTime = time; }
+			if (time > current.maxTime) { current.maxTime = time; }
+		}
+
+		/**
+		 * End the current block.
+		 *
+		 * @param end Offset in the log after the last record.
+		 * @return The block ended, or null if it is empty.
+		 */
+		Block finish(final long end) {
+			final Block done = current;
+			current = new Block(end);
+			if (end <= done.start) { return null; }
+			done.end = end;
+			return done;
+		}
+	}
+
+	/**
+	 * Appends to an index file as a log is written.
+	 * Records are buffered until flush() is called, which should be done after
+	 * the log itself has been written so the index never refers to bytes
+	 * that are not there yet.
+	 */
+	static final class Writer {
+		/** Records not yet written. */
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		/** Stream writing into bytes. */
+		private final DataOutputStream data = new DataOutputStream(bytes);
+		/** Index file. */
+		private final OutputStream out;
+
+		/**
+		 * Create a new Writer.
+		 *
+		 * @param file Index file.
+		 * @param append Should an existing index be added to rather than replaced?
+		 * @throws IOException If the file can not be opened.
+		 */
+		Writer(final File file, final boolean append) throws IOException {
+			final boolean header = !append || file.length() == 0;
+			out = new FileOutputStream(file, append);
+			if (header) {
+				data.write(MAGIC);
+				data.writeByte(VERSION);
+			}
+		}
+
+		/**
+		 * Write the start of a session.
+		 *
+		 * @param offset Offset in the log of the session header.
+		 * @param version Version of the session.
+		 * @throws IOException If there is a problem writing.
+		 */
+		void session(final long offset, final int version) throws IOException {
+			data.writeByte(RECORD_SESSION);
+			data.writeLong(offset);
+			data.writeByte(version);
+		}
+
+		/**
+		 * Write a definition.
+		 *
+		 * @param type Type of definition record, as BinaryFileAppender.
+		 * @param id Id being defined.
+		 * @param value Value for the id, as written to the log.
+		 * @throws IOException If there is a problem writing.
+		 */
+		void define(final byte type, final int id, final String value) throws IOException {
+			data.writeByte(type);
+			data.writeInt(id);
+			data.writeUTF(value);
+		}
+
+		/**
+		 * Write a block.
+		 *
+		 * @param block Block to write.
+		 * @throws IOException If there is a problem writing.
+		 */
+		void block(final Block block) throws IOException {
+			data.writeByte(RECORD_BLOCK);
+			data.writeLong(block.start);
+			data.writeLong(block.end);
+			data.writeLong(block.minTime);
+			data.writeLong(block.maxTime);
+			data.writeInt(block.levels);
+		}
+
+		/**
+		 * Write out the buffered records.
+		 *
+		 * @throws IOException If there is a problem writing.
+		 */
+		void flush() throws IOException {
+			if (bytes.size() == 0) { return; }
+			bytes.writeTo(out);
+			bytes.reset();
+		}
+
+		/**
+		 * Write out the buffered records and close the file.
+		 *
+		 * @throws IOException If there is a problem writing.
+		 */
+		void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Get the index file for a log file.
+	 *
+	 * @param file Log file.
+	 * @return Index file.
+	 */
+	static File getFile(final File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Get the bit for a level in a block's level mask.
+	 *
+	 * @param level Level to get the bit for.
+	 * @return The bit.
+	 */
+	static int levelBit(final LogLevel level) {
+		return 1 << level.ordinal();
+	}
+
+	/**
+	 * Read an index file.
+	 * A record cut short at the end of the file is ignored.
+	 *
+	 * @param file Index file.
+	 * @return The index.
+	 * @throws IOException If the file can't be read or is not valid.
+	 */
+	static BinaryLogIndex read(final File file) throws IOException {
+		final BinaryLogIndex index = new BinaryLogIndex();
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			final byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION) {
+				throw new IOException("Not a binary log index: "+file);
+			}
+			Session session = null;
+			while (true) {
+				final int type = in.read();
+				if (type < 0) { break; }
+				if (type == RECORD_SESSION) {
+					final long offset = in.readLong();
+					final int version = in.readUnsignedByte();
+					session = new Session(offset, version, new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+					index.addSession(session);
+				} else if (type == RECORD_BLOCK) {
+					final Block block = new Block(in.readLong());
+					block.end = in.readLong();
+					block.minTime = in.readLong();
+					block.maxTime = in.readLong();
+					block.levels = in.readInt();
+					index.blocks.add(block);
+				} else if (session != null && type == BinaryFileAppender.RECORD_NAME) {
+					define(session.names, in.readInt(), in.readUTF());
+				} else if (session != null && type == BinaryFileAppender.RECORD_FORMAT) {
+					define(session.formats, in.readInt(), in.readUTF());
+				} else if (session != null && type == BinaryFileAppender.RECORD_KEY) {
+					define(session.keys, in.readInt(), in.readUTF());
+				} else {
+					throw new IOException("Unknown index record type: "+type);
+				}
+			}
+		} catch (EOFException e) {
+			// Cut short, use what there is.
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Store a definition read from an index.
+	 *
+	 * @param list List of definitions.
+	 * @param id Id being defined.
+	 * @param value Value for the id.
+	 * @throws IOException If the id is not the next one expected.
+	 */
+	private static void define(final List<String> list, final int id, final String value) throws IOException {
+		if (id != list.size()) {
+			throw new IOException("Unexpected id in index: "+id);
+		}
+		list.add(value);
+	}
+
+	/**
+	 * Write this index to a file, replacing anything there.
+	 *
+	 * @param file Index file.
+	 * @throws IOException If there is a problem writing.
+	 */
+	void write(final File file) throws IOException {
+		final Writer writer = new Writer(file, false);
+		try {
+			int next = 0;
+			for (int i = 0; i < sessions.size(); i++) {
+				final Session session = sessions.get(i);
+				writer.session(session.offset, session.version);
+				for (int id = 0; id < session.names.size(); id++) {
+					writer.define(BinaryFileAppender.RECORD_NAME, id, session.names.get(id));
+				}
+				for (int id = 0; id < session.formats.size(); id++) {
+					writer.define(BinaryFileAppender.RECORD_FORMAT, id, session.formats.get(id));
+				}
+				for (int id = 0; id < session.keys.size(); id++) {
+					writer.define(BinaryFileAppender.RECORD_KEY, id, session.keys.get(id));
+				}
+				final long sessionEnd = (i + 1 < sessions.size()) ? sessions.get(i + 1).offset : Long.MAX_VALUE;
+				while (next < blocks.size() && blocks.get(next).start < sessionEnd) {
+					writer.block(blocks.get(next++));
+				}
+				writer.flush();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Drop any blocks that do not follow on from the ones before, or that
+	 * go past the end of the log, along with everything after them.
+	 *
+	 * @param size Size of the log.
+	 * @return Offset in the log up to which the index can be trusted.
+	 */
+	long validate(final long size) {
+		long end = 0;
+		int valid = 0;
+		while (valid < blocks.size()) {
+			final Block block = blocks.get(valid);
+			if (block.start != end || block.end > size || getSession(block.start) == null) { break; }
+			end = block.end;
+			valid++;
+		}
+		blocks.subList(valid, blocks.size()).clear();
+		while (!sessions.isEmpty() && sessions.get(sessions.size() - 1).offset > end) {
+			sessions.remove(sessions.size() - 1);
+		}
+		return end;
+	}
+
+	/**
+	 * Add a session, replacing any already known at the same offset.
+	 * Sessions must be added in order.
+	 *
+	 * @param session Session to add.
+	 */
+	void addSession(final Session session) {
+		if (!sessions.isEmpty() && sessions.get(sessions.size() - 1).offset >= session.offset) {
+			sessions.remove(sessions.size() - 1);
+		}
+		sessions.add(session);
+	}
+
+	/**
+	 * Add a block. Blocks must be added in order.
+	 *
+	 * @param block Block to add.
+	 */
+	void addBlock(final Block block) {
+		blocks.add(block);
+	}
+
+	/**
+	 * Get the session in force at an offset in the log.
+	 *
+	 * @param offset Offset in the log.
+	 * @return The last session starting at or before the offset, or null.
+	 */
+	Session getSession(final long offset) {
+		for (int i = sessions.size() - 1; i >= 0; i--) {
+			if (sessions.get(i).offset <= offset) { return sessions.get(i); }
+		}
+		return null;
+	}
+
+	/**
+	 * Get the blocks.
+	 *
+	 * @return Blocks, in order.
+	 */
+	List<Block> getBlocks() {
+		return blocks;
+	}
+}
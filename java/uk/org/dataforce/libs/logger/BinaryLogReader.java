@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import uk.org.dataforce.libs.cliparser.BooleanParam;
+import uk.org.dataforce.libs.cliparser.CLIParser;
+import uk.org.dataforce.libs.cliparser.StringParam;
+
+/**
+ * Reads files written by BinaryFileAppender, using a sparse index of the file
+ * (see BinaryLogIndex) to jump to a time, or to skip parts of the file with
+ * nothing at the wanted levels, without reading the whole file.
+ *
+ * The file is memory mapped. If it has no index, one is built by reading it
+ * through once and saved beside it for next time. If the index doesn't cover
+ * all of the file (eg, it is still being written), the rest is indexed in
+ * memory when the reader is opened. The reader sees the file as it was when
+ * opened.
+ *
+ * This can be used from code, calling next() for each event, or from the
+ * command line:
+ * <pre>
+ * java uk.org.dataforce.libs.logger.BinaryLogReader [options] file [file...]
+ * </pre>
+ */
+public class BinaryLogReader implements Closeable {
+	/** Formats accepted for times on the command line. */
+	private static final String[] TIME_FORMATS = {"yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+
+	/** Stream reading the file. */
+	private final MappedInputStream in;
+	/** Decoder reading from the stream. */
+	private final BinaryLogDecoder decoder;
+	/** Index of the file. */
+	private final BinaryLogIndex index;
+	/** Blocks of the index. */
+	private final List<BinaryLogIndex.Block> blocks;
+	/** Only events at this level or more important are returned. */
+	private LogLevel level = LogLevel.DEBUG9;
+	/** Level mask of blocks worth reading. */
+	private int levels = ~0;
+	/** Only events at or after this time are returned. */
+	private long from = Long.MIN_VALUE;
+	/** Block being read, -1 before the first. */
+	private int block = -1;
+
+	/**
+	 * Create a new BinaryLogReader, building or updating the index if needed.
+	 *
+	 * @param file File to read.
+	 * @throws IOException If the file can't be read or is not valid.
+	 */
+	public BinaryLogReader(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		in = new MappedInputStream(channel, channel.size());
+		decoder = new BinaryLogDecoder(in, false);
+		try {
+			index = loadIndex(BinaryLogIndex.getFile(file));
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		blocks = index.getBlocks();
+	}
+
+	/**
+	 * Load the index for the file, and index anything it doesn't cover.
+	 * An index that can't be read is ignored (but left alone, in case an
+	 * appender is writing it).
+	 *
+	 * @param indexFile Index file.
+	 * @return The index.
+	 * @throws IOException If the log can't be read or is not valid.
+	 */
+	private BinaryLogIndex loadIndex(final File indexFile) throws IOException {
+		final boolean exists = indexFile.exists();
+		BinaryLogIndex result = null;
+		if (exists) {
+			try {
+				result = BinaryLogIndex.read(indexFile);
+			} catch (IOException e) {
+				result = null;
+			}
+		}
+		if (result == null) { result = new BinaryLogIndex(); }
+		scan(result, result.validate(in.size()));
+		if (!exists) {
+			try {
+				result.write(indexFile);
+			} catch (IOException e) {
+				// Not somewhere we can write, so it will be indexed again next time.
+				indexFile.delete();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Index the file from an offset to the end.
+	 *
+	 * @param target Index to add to.
+	 * @param start Offset in the file to start at, which must be a record
+	 *              boundary covered by a session in the index.
+	 * @throws IOException If the file can't be read or is not valid.
+	 */
+	private void scan(final BinaryLogIndex target, final long start) throws IOException {
+		in.seek(start);
+		if (start > 0) {
+			resume(target.getSession(start));
+		}
+		final BinaryLogIndex.Builder builder = new BinaryLogIndex.Builder(start);
+		int sessions = decoder.getSessions();
+		long end = start;
+		while (true) {
+			final long offset = in.position();
+			final BinaryLogIndex.Block done = builder.boundary(offset);
+			if (done != null) { target.addBlock(done); }
+			if (!decoder.next()) { break; }
+			if (decoder.getSessions() != sessions) {
+				// A group of records starting with a header starts with the header.
+				sessions = decoder.getSessions();
+				target.addSession(new BinaryLogIndex.Session(offset, decoder.getVersion(), decoder.getNames(), decoder.getFormats(), decoder.getKeys()));
+			}
+			builder.event(decoder.getLevel(), decoder.getTimestamp());
+			end = in.position();
+		}
+		final BinaryLogIndex.Block done = builder.finish(end);
+		if (done != null) { target.addBlock(done); }
+	}
+
+	/**
+	 * Set the decoder up to carry on part way through a session.
+	 *
+	 * @param session Session to carry on.
+	 */
+	private void resume(final BinaryLogIndex.Session session) {
+		decoder.resume(session.version, session.names, session.formats, session.keys);
+	}
+
+	/**
+	 * Only return events at a level or more important, from the next event.
+	 *
+	 * @param newLevel Least important level to return.
+	 */
+	public void setLevel(final LogLevel newLevel) {
+		level = newLevel;
+		int mask = 0;
+		for (LogLevel l : LogLevel.values()) {
+			if (l.isLoggable(newLevel)) { mask |= BinaryLogIndex.levelBit(l); }
+		}
+		levels = mask;
+	}
+
+	/**
+	 * Go back to the first event at or after a time.
+	 * Events are in the order they were written, which (with many threads
+	 * logging) is not quite the order of their times, so events after this
+	 * with earlier times are skipped.
+	 *
+	 * @param time Time in milliseconds since the epoch, or Long.MIN_VALUE for
+	 *             the start of the file.
+	 */
+	public void seek(final long time) {
+		from = time;
+		block = -1;
+	}
+
+	/**
+	 * Read the next event at the wanted levels and times.
+	 *
+	 * @return true if an event was read, false at the end of the file.
+	 * @throws IOException If the file is not valid.
+	 */
+	public boolean next() throws IOException {
+		while (block < blocks.size()) {
+			if (block < 0 || in.position() >= blocks.get(block).end) {
+				if (!nextBlock()) { return false; }
+			}
+			if (!decoder.next()) {
+				block = blocks.size();
+				return false;
+			}
+			if (decoder.getTimestamp() >= from && decoder.getLevel().isLoggable(level)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the next block that could have a wanted event.
+	 *
+	 * @return false if there are no more.
+	 */
+	private boolean nextBlock() {
+		int next = block + 1;
+		while (next < blocks.size() && !isWanted(blocks.get(next))) { next++; }
+		if (next >= blocks.size()) {
+			block = blocks.size();
+			return false;
+		}
+		final BinaryLogIndex.Block nextBlock = blocks.get(next);
+		if (block < 0 || blocks.get(block).end != nextBlock.start) {
+			in.seek(nextBlock.start);
+			resume(index.getSession(nextBlock.start));
+		}
+		block = next;
+		return true;
+	}
+
+	/**
+	 * Check if a block could have a wanted event.
+	 *
+	 * @param candidate Block to check.
+	 * @return true if the block should be read.
+	 */
+	private boolean isWanted(final BinaryLogIndex.Block candidate) {
+		return (candidate.levels & levels) != 0 && candidate.maxTime >= from;
+	}
+
+	/**
+	 * Get the level of the last event read.
+	 *
+	 * @return Level of the event.
+	 */
+	public LogLevel getLevel() { return decoder.getLevel(); }
+
+	/**
+	 * Get the time of the last event read.
+	 *
+	 * @return Time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() { return decoder.getTimestamp(); }
+
+	/**
+	 * Get the logger name of the last event read.
+	 *
+	 * @return Name of the logger, "" for the root logger.
+	 */
+	public String getName() { return decoder.getName(); }
+
+	/**
+	 * Get the message of the last event read.
+	 *
+	 * @return The expanded message.
+	 */
+	public String getMessage() { return decoder.getMessage(); }
+
+	/**
+	 * Get the number of MDC pairs of the last event read.
+	 *
+	 * @return Number of pairs.
+	 */
+	public int getContextSize() { return decoder.getContextSize(); }
+
+	/**
+	 * Get an MDC key of the last event read.
+	 *
+	 * @param index Pair to get.
+	 * @return Key of the pair.
+	 */
+	public String getContextKey(final int index) { return decoder.getContextKey(index); }
+
+	/**
+	 * Get an MDC value of the last event read.
+	 *
+	 * @param index Pair to get.
+	 * @return Value of the pair.
+	 */
+	public String getContextValue(final int index) { return decoder.getContextValue(index); }
+
+	/**
+	 * Get the number of structured fields of the last event read.
+	 *
+	 * @return Number of fields.
+	 */
+	public int getFieldCount() { return decoder.getFieldCount(); }
+
+	/**
+	 * Get the name of a structured field of the last event read.
+	 *
+	 * @param index Field to get.
+	 * @return Name of the field.
+	 */
+	public String getFieldKey(final int index) { return decoder.getFieldKey(index); }
+
+	/**
+	 * Get the value of a structured field of the last event read.
+	 *
+	 * @param index Field to get.
+	 * @return Integer, Long, Double, String or null.
+	 */
+	public Object getFieldValue(final int index) { return decoder.getFieldValue(index); }
+
+	/**
+	 * Close the file.
+	 *
+	 * @throws IOException If there is a problem closing the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		decoder.close();
+	}
+
+	/**
+	 * Parse a time given on the command line.
+	 *
+	 * @param value Time as one of TIME_FORMATS, or milliseconds since the epoch.
+	 * @return Time in milliseconds since the epoch.
+	 * @throws ParseException If the time is not valid.
+	 */
+	private static long parseTime(final String value) throws ParseException {
+		for (String format : TIME_FORMATS) {
+			final SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+			dateFormat.setLenient(false);
+			try {
+				return dateFormat.parse(value).getTime();
+			} catch (ParseException e) {
+				// Try the next format.
+			}
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new ParseException("Invalid time: "+value, 0);
+		}
+	}
+
+	/**
+	 * Search binary log files.
+	 *
+	 * @param args Command line arguments.
+	 */
+	public static void main(final String[] args) {
+		// Keep the parser's debug output out of the events written to stdout.
+		Logger.get("uk.org.dataforce.libs.cliparser").setLevel(LogLevel.WARNING);
+		final CLIParser cli = CLIParser.getCLIParser();
+		final BooleanParam help = new BooleanParam('h', "help", "Show this help");
+		final BooleanParam times = new BooleanParam('t', "timestamps", "Show the time of each event");
+		final StringParam levelParam = new StringParam('l', "level", "Only show events at this level or more important");
+		final StringParam fromParam = new StringParam('f', "from", "Only show events at or after this time (yyyy-MM-dd HH:mm:ss)");
+		final StringParam output = new StringParam('o', "output", "File to write to instead of standard output");
+		final BooleanParam reindex = new BooleanParam('i', "index", "Rebuild the index of each file instead of showing events");
+		cli.add(help);
+		cli.add(times);
+		cli.add(levelParam);
+		cli.add(fromParam);
+		cli.add(output);
+		cli.add(reindex);
+		cli.setHelp(help);
+		cli.parseArgs(args, true);
+		if (cli.wantsHelp(args) || cli.getRedundant().isEmpty()) {
+			cli.showHelp("Binary Log Reader", "BinaryLogReader [options] <file> [file...]");
+			return;
+		}
+
+		LogLevel maxLevel = LogLevel.DEBUG9;
+		if (levelParam.getNumber() > 0) {
+			maxLevel = LogLevel.fromString(levelParam.getValue());
+			if (maxLevel == null) {
+				System.err.println("Unknown level: "+levelParam.getValue());
+				System.exit(1);
+			}
+		}
+		long fromTime = Long.MIN_VALUE;
+		if (fromParam.getNumber() > 0) {
+			try {
+				fromTime = parseTime(fromParam.getValue());
+			} catch (ParseException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS ");
+		try {
+			final OutputStream out = (output.getNumber() > 0) ? new FileOutputStream(output.getValue()) : System.out;
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+			for (String filename : cli.getRedundant()) {
+				final File file = new File(filename);
+				if (reindex.getNumber() > 0) {
+					BinaryLogIndex.getFile(file).delete();
+				}
+				final BinaryLogReader reader = new BinaryLogReader(file);
+				try {
+					if (reindex.getNumber() > 0) {
+						writer.write(filename + ": " + reader.blocks.size() + " blocks");
+						writer.write(System.getProperty("line.separator", "\n"));
+						continue;
+					}
+					reader.setLevel(maxLevel);
+					reader.seek(fromTime);
+					while (reader.next()) {
+						reader.decoder.write(writer, (times.getNumber() > 0) ? dateFormat : null);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			writer.flush();
+		} catch (IOException e) {
+			System.err.println("Error reading: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Appender that writes "[Level] name: message" lines to standard output.
+ * This writes to the standard output file descriptor directly rather than
+ * through System.out, which would need the line building into a String and
+ * re-encoding on every call.
+ * Lines can be written as JSON instead with setFormat().
+ */
+public class ConsoleAppender implements Appender {
+	/** Standard output. */
+	private static final FileOutputStream STDOUT = new FileOutputStream(FileDescriptor.out);
+
+	/** Format of the lines. */
+	private volatile LineFormat format = LineFormat.TEXT;
+
+	/**
+	 * Get how events are written.
+	 *
+	 * @return Format of the lines.
+	 */
+	public LineFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Set how events are written, from the next event.
+	 *
+	 * @param newFormat Format of the lines.
+	 */
+	public void setFormat(final LineFormat newFormat) {
+		format = newFormat;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void append(final LogEvent event) {
+		final ByteBuffer bytes = TextEncoder.get(format).encode(event);
+		try {
+			STDOUT.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		} catch (IOException e) {
+			// Nowhere left to report this.
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void flush() {
+		// Nothing is buffered.
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		// Standard output is never closed.
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recent log events in memory, whatever level is being
+ * written, so that the detail leading up to a problem can be written out
+ * when it happens.
+ *
+ * Events at or above the record level (by default everything, including
+ * DEBUG9) are copied into a fixed set of preallocated events. When an event
+ * at or above the trigger level (by default ERROR) is logged, or when dump()
+ * is called, the recorded events are written out in order, between a pair of
+ * marker lines, and the recorder is cleared. When dumping to the Logger's own
+ * appenders, events that were written when logged are not written again.
+ *
+ * To avoid every thread contending on one buffer, the events are split into
+ * stripes, each with its own small lock, and threads are spread over the
+ * stripes. Each stripe keeps capacity / stripes events, so a single very busy
+ * thread may see less than the full capacity of history. Once every slot has
+ * been used, recording an event does not allocate (unless an argument is not
+ * known to be immutable, in which case its String value is taken).
+ */
+public final class FlightRecorder {
+	/** Default number of events to keep. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** Stripes of recorded events. */
+	private final Stripe[] stripes;
+	/** Mask used to turn a thread hash into a stripe index. */
+	private final int mask;
+	/** Least important level recorded. */
+	private final LogLevel recordLevel;
+	/** Least important level that triggers a dump, or null for none. */
+	private final LogLevel triggerLevel;
+	/** Appender to dump to, or null for the Logger's appenders. */
+	private final Appender target;
+	/** Events being dumped. */
+	private final LogEvent[] dumpEvents;
+	/** Time each event being dumped was recorded. */
+	private final long[] dumpTimes;
+	/** Whether each event being dumped was already written when logged. */
+	private final boolean[] dumpWritten;
+	/** Event used for the marker lines. */
+	private final LogEvent marker = new LogEvent();
+	/** Lock held while dumping, a ReentrantLock so virtual threads do not pin. */
+	private final ReentrantLock dumpLock = new ReentrantLock();
+
+	/**
+	 * Create a new FlightRecorder that keeps every level and dumps to the
+	 * Logger's appenders on ERROR.
+	 *
+	 * @param capacity Number of events to keep.
+	 */
+	public FlightRecorder(final int capacity) {
+		this(capacity, LogLevel.DEBUG9, LogLevel.ERROR, null);
+	}
+
+	/**
+	 * Create a new FlightRecorder.
+	 *
+	 * @param capacity Number of events to keep.
+	 * @param recordLevel Least important level to record.
+	 * @param triggerLevel Events at this level or more important dump the
+	 *                     recorder, or null to only dump when asked.
+	 * @param target Appender to dump to, or null for the Logger's appenders.
+	 */
+	public FlightRecorder(final int capacity, final LogLevel recordLevel, final LogLevel triggerLevel, final Appender target) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: "+capacity);
+		}
+		int count = 1;
+		while (count < Runtime.getRuntime().availableProcessors() * 2 && count * 2 <= capacity) {
+			count <<= 1;
+		}
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe((capacity + count - 1) / count);
+		}
+		mask = count - 1;
+		this.recordLevel = recordLevel;
+		this.triggerLevel = triggerLevel;
+		this.target = target;
+
+		final int total = stripes[0].events.length * count;
+		dumpEvents = new LogEvent[total];
+		dumpTimes = new long[total];
+		dumpWritten = new boolean[total];
+		for (int i = 0; i < total; i++) {
+			dumpEvents[i] = new LogEvent();
+		}
+	}
+
+	/**
+	 * Get the least important level recorded.
+	 *
+	 * @return The record level.
+	 */
+	public LogLevel getRecordLevel() {
+		return recordLevel;
+	}
+
+	/**
+	 * Get the level that triggers a dump.
+	 *
+	 * @return The trigger level, or null if dumps only happen when asked.
+	 */
+	public LogLevel getTriggerLevel() {
+		return triggerLevel;
+	}
+
+	/**
+	 * Check if events at a level are recorded.
+	 *
+	 * @param level Level to check.
+	 * @return true if events at this level are recorded.
+	 */
+	public boolean isRecorded(final LogLevel level) {
+		return level.isLoggable(recordLevel) && level != LogLevel.SILENT;
+	}
+
+	/**
+	 * Record an event, dumping the history first if this is a trigger event.
+	 *
+	 * @param event Event to record, copied before this returns.
+	 * @param written true if the event is also being written to the Logger's
+	 *                appenders, so a dump to them should not repeat it.
+	 */
+	void record(final LogEvent event, final boolean written) {
+		final LogLevel level = event.getLevel();
+		if (triggerLevel != null && level.isLoggable(triggerLevel)) {
+			dump();
+		}
+		if (isRecorded(level)) {
+			final int hash = System.identityHashCode(Thread.currentThread());
+			stripes[(hash ^ (hash >>> 16)) & mask].put(event, written);
+		}
+	}
+
+	/**
+	 * Write out everything recorded, oldest first, and clear the recorder.
+	 */
+	public void dump() {
+		dumpLock.lock();
+		try {
+			// An appender logging an error while dumping must not start another.
+			if (dumpLock.getHoldCount() > 1) { return; }
+			dumpEvents();
+		} finally {
+			dumpLock.unlock();
+		}
+	}
+
+	/**
+	 * Write out everything recorded.
+	 * Events that were written when logged are only written again if dumping
+	 * to a separate target, as the Logger's appenders already have them.
+	 * This must be called holding dumpLock.
+	 */
+	private void dumpEvents() {
+		// Copy each stripe out, holding its lock as briefly as possible.
+		final int[] starts = new int[stripes.length + 1];
+		int total = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			starts[i] = total;
+			total += stripes[i].drainTo(dumpEvents, dumpTimes, dumpWritten, total);
+		}
+		starts[stripes.length] = total;
+		int unwritten = total;
+		if (target == null) {
+			for (int i = 0; i < total; i++) {
+				if (dumpWritten[i]) { unwritten--; }
+			}
+		}
+		if (unwritten == 0) {
+			for (int i = 0; i < total; i++) { dumpEvents[i].clear(); }
+			return;
+		}
+
+		writeMarker("Begin flight recorder ("+unwritten+" events)");
+		// Each stripe is in order, so merge them.
+		final int[] positions = starts.clone();
+		for (int written = 0; written < total; written++) {
+			int next = -1;
+			for (int i = 0; i < stripes.length; i++) {
+				if (positions[i] < starts[i + 1] && (next < 0 || dumpTimes[positions[i]] - dumpTimes[positions[next]] < 0)) {
+					next = i;
+				}
+			}
+			final int index = positions[next]++;
+			final LogEvent event = dumpEvents[index];
+			if (target != null || !dumpWritten[index]) { write(event); }
+			event.clear();
+		}
+		writeMarker("End flight recorder");
+	}
+
+	/**
+	 * Write a marker line.
+	 *
+	 * @param message Text of the marker.
+	 */
+	private void writeMarker(final String message) {
+		marker.set("", triggerLevel == null ? LogLevel.INFO : triggerLevel, System.currentTimeMillis(), message);
+		write(marker);
+		marker.clear();
+	}
+
+	/**
+	 * Write an event to the target.
+	 *
+	 * @param event Event to write.
+	 */
+	private void write(final LogEvent event) {
+		if (target == null) {
+			Logger.dispatch(event);
+		} else {
+			target.append(event);
+		}
+	}
+
+	/**
+	 * A ring of recorded events with its own lock.
+	 */
+	private static final class Stripe {
+		/** Recorded events. */
+		private final LogEvent[] events;
+		/** Whether each event was written when logged. */
+		private final boolean[] written;
+		/** Time each event was recorded, from System.nanoTime(). */
+		private final long[] times;
+		/** Thread holding the lock for this stripe, or null. */
+		private final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+		/** Index the next event is recorded at. */
+		private int next = 0;
+		/** Number of events recorded. */
+		private int count = 0;
+
+		/**
+		 * Create a new Stripe.
+		 *
+		 * @param size Number of events to keep.
+		 */
+		Stripe(final int size) {
+			events = new LogEvent[size];
+			times = new long[size];
+			written = new boolean[size];
+			for (int i = 0; i < size; i++) {
+				events[i] = new LogEvent();
+			}
+		}
+
+		/**
+		 * Take the lock for this stripe.
+		 *
+		 * @return false if this thread already holds it (eg, the toString() of
+		 *         an argument being copied logged something).
+		 */
+		private boolean lock() {
+			final Thread current = Thread.currentThread();
+			if (owner.get() == current) { return false; }
+			while (!owner.compareAndSet(null, current)) {
+				Thread.onSpinWait();
+			}
+			return true;
+		}
+
+		/** Release the lock for this stripe. */
+		private void unlock() {
+			owner.set(null);
+		}
+
+		/**
+		 * Record an event, replacing the oldest if full.
+		 *
+		 * @param event Event to copy.
+		 * @param isWritten true if the event was written when logged.
+		 */
+		void put(final LogEvent event, final boolean isWritten) {
+			if (!lock()) { return; }
+			try {
+				events[next].copyFrom(event);
+				times[next] = System.nanoTime();
+				written[next] = isWritten;
+				next = (next + 1 == events.length) ? 0 : next + 1;
+				if (count < events.length) { count++; }
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Copy the recorded events out, oldest first, and clear this stripe.
+		 *
+		 * @param to Events to copy into.
+		 * @param toTimes Times to copy into.
+		 * @param toWritten Written flags to copy into.
+		 * @param offset Index to start copying at.
+		 * @return Number of events copied.
+		 */
+		int drainTo(final LogEvent[] to, final long[] toTimes, final boolean[] toWritten, final int offset) {
+			if (!lock()) { return 0; }
+			try {
+				int index = next - count;
+				if (index < 0) { index += events.length; }
+				for (int i = 0; i < count; i++) {
+					to[offset + i].copyFrom(events[index]);
+					toTimes[offset + i] = times[index];
+					toWritten[offset + i] = written[index];
+					events[index].clear();
+					index = (index + 1 == events.length) ? 0 : index + 1;
+				}
+				final int result = count;
+				count = 0;
+				return result;
+			} finally {
+				unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for the Logger, so logging shows up in the same
+ * recordings as everything else.
+ * <pre>
+ * uk.org.dataforce.libs.logger.Log       Each event written (off by default)
+ * uk.org.dataforce.libs.logger.Append    Appender writes slower than 10 ms
+ * uk.org.dataforce.libs.logger.Overflow  Events that found the async buffer full
+ * </pre>
+ * These are turned on and off with the usual recording settings, eg:
+ * <pre>
+ * -XX:StartFlightRecording:uk.org.dataforce.libs.logger.Log#enabled=true
+ * </pre>
+ * Each event is only built if its type is enabled in a running recording, so
+ * when it isn't the cost is a single check. If the runtime has no Flight
+ * Recorder, nothing is recorded.
+ */
+final class JfrEvents {
+	/** Is the Flight Recorder in this runtime? */
+	private static final boolean AVAILABLE = isAvailable();
+	/** Type of Log events, or null if not available. */
+	private static final EventType LOG_TYPE = AVAILABLE ? EventType.getEventType(Log.class) : null;
+	/** Type of Append events, or null if not available. */
+	private static final EventType APPEND_TYPE = AVAILABLE ? EventType.getEventType(Append.class) : null;
+	/** Type of Overflow events, or null if not available. */
+	private static final EventType OVERFLOW_TYPE = AVAILABLE ? EventType.getEventType(Overflow.class) : null;
+
+	/** An event written by the Logger. */
+	@Name("uk.org.dataforce.libs.logger.Log")
+	@Label("Log Event")
+	@Category("Logger")
+	@Description("An event written by the Logger")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class Log extends Event {
+		/** Level of the event. */
+		@Label("Level")
+		String level;
+		/** Name of the logger. */
+		@Label("Logger")
+		String logger;
+		/** Message of the event. */
+		@Label("Message")
+		String message;
+	}
+
+	/** A slow write by an Appender. */
+	@Name("uk.org.dataforce.libs.logger.Append")
+	@Label("Slow Appender Write")
+	@Category("Logger")
+	@Description("An Appender taking a long time to write an event")
+	@Threshold("10 ms")
+	static final class Append extends Event {
+		/** Class of the appender. */
+		@Label("Appender")
+		String appender;
+		/** Level of the event. */
+		@Label("Level")
+		String level;
+		/** Name of the logger. */
+		@Label("Logger")
+		String logger;
+	}
+
+	/** An event that found the async buffer full. */
+	@Name("uk.org.dataforce.libs.logger.Overflow")
+	@Label("Async Buffer Overflow")
+	@Category("Logger")
+	@Description("An event that found the async Logger's buffer full, lasting as long as it waited")
+	static final class Overflow extends Event {
+		/** What the writer does when full. */
+		@Label("Policy")
+		String policy;
+		/** Level of the event. */
+		@Label("Level")
+		String level;
+		/** Name of the logger. */
+		@Label("Logger")
+		String logger;
+		/** Was an event thrown away? */
+		@Label("Dropped")
+		boolean dropped;
+	}
+
+	/**
+	 * Check if the Flight Recorder is in this runtime.
+	 *
+	 * @return true if events can be recorded.
+	 */
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.FlightRecorder");
+			return jdk.jfr.FlightRecorder.isAvailable();
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check if Log events are being recorded.
+	 *
+	 * @return true if log() should be called.
+	 */
+	static boolean isLogEnabled() {
+		return AVAILABLE && LOG_TYPE.isEnabled();
+	}
+
+	/**
+	 * Record an event being written.
+	 *
+	 * @param event Event written.
+	 */
+	static void log(final LogEvent event) {
+		final Log jfr = new Log();
+		if (jfr.shouldCommit()) {
+			jfr.level = event.getLevel().toString();
+			jfr.logger = event.getName();
+			jfr.message = event.getMessage().toString();
+			jfr.commit();
+		}
+	}
+
+	/**
+	 * Check if Append events are being recorded.
+	 *
+	 * @return true if beginAppend() should be called.
+	 */
+	static boolean isAppendEnabled() {
+		return AVAILABLE && APPEND_TYPE.isEnabled();
+	}
+
+	/**
+	 * Start timing an appender.
+	 *
+	 * @return Event to pass to endAppend().
+	 */
+	static Append beginAppend() {
+		final Append jfr = new Append();
+		jfr.begin();
+		return jfr;
+	}
+
+	/**
+	 * Finish timing an appender, recording it if it was slow.
+	 *
+	 * @param jfr Event from beginAppend().
+	 * @param appender Appender timed.
+	 * @param event Event written.
+	 */
+	static void endAppend(final Append jfr, final Appender appender, final LogEvent event) {
+		jfr.end();
+		if (jfr.shouldCommit()) {
+			jfr.appender = appender.getClass().getName();
+			jfr.level = event.getLevel().toString();
+			jfr.logger = event.getName();
+			jfr.commit();
+		}
+	}
+
+	/**
+	 * Check if Overflow events are being recorded.
+	 *
+	 * @return true if beginOverflow() should be called.
+	 */
+	static boolean isOverflowEnabled() {
+		return AVAILABLE && OVERFLOW_TYPE.isEnabled();
+	}
+
+	/**
+	 * Note that an event found the async buffer full.
+	 *
+	 * @return Event to pass to endOverflow().
+	 */
+	static Overflow beginOverflow() {
+		final Overflow jfr = new Overflow();
+		jfr.begin();
+		return jfr;
+	}
+
+	/**
+	 * Record an event that found the async buffer full, once it has been
+	 * queued or dropped.
+	 *
+	 * @param jfr Event from beginOverflow().
+	 * @param policy What the writer does when full.
+	 * @param event Event being queued.
+	 * @param dropped Was an event thrown away?
+	 */
+	static void endOverflow(final Overflow jfr, final OverflowPolicy policy, final LogEvent event, final boolean dropped) {
+		jfr.end();
+		if (jfr.shouldCommit()) {
+			jfr.policy = policy.name();
+			jfr.level = event.getLevel().toString();
+			jfr.logger = event.getName();
+			jfr.dropped = dropped;
+			jfr.commit();
+		}
+	}
+
+	/** Prevent instances of JfrEvents. */
+	private JfrEvents() { }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, with a bucket for each power of 2.
+ * Recording is a couple of LongAdder increments, so it can be shared by many
+ * threads without becoming a point of contention.
+ */
+public final class LatencyHistogram {
+	/** Number of buckets, one for each possible bit length of a long. */
+	private static final int BUCKETS = 64;
+
+	/** Count for each bucket, bucket n holding values below 2^n. */
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	/** Total of all values recorded. */
+	private final LongAdder total = new LongAdder();
+
+	/** Create a new LatencyHistogram. */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		total.add(value);
+	}
+
+	/**
+	 * Get the number of durations recorded.
+	 *
+	 * @return Number of durations.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the mean duration.
+	 *
+	 * @return Mean in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return (count == 0) ? 0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * Get an upper bound for a percentile.
+	 *
+	 * @param percentile Percentile to get, between 0 and 100.
+	 * @return The top of the bucket containing the percentile, in nanoseconds,
+	 *         or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(final double percentile) {
+		final long[] counts = getBuckets();
+		long count = 0;
+		for (long c : counts) { count += c; }
+		if (count == 0) { return 0; }
+		final long wanted = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= wanted && seen > 0) {
+				return (i == BUCKETS - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Get the count in each bucket.
+	 * Bucket 0 holds durations of 0, and bucket n holds durations from
+	 * 2^(n-1) to 2^n - 1.
+	 *
+	 * @return Counts for each bucket.
+	 */
+	public long[] getBuckets() {
+		final long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = buckets[i].sum();
+		}
+		return result;
+	}
+
+	/** Clear all recorded durations. */
+	public void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		total.reset();
+	}
+}
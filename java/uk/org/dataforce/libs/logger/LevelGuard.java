@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Switches for each log level that the JIT can treat as constants.
+ *
+ * Each level has a MutableCallSite returning a constant boolean, which is
+ * false when nothing at that level can be logged by any logger (or kept by
+ * the flight recorder). The call sites are reached through static final
+ * MethodHandles, so once compiled a call such as debug9() folds into the
+ * constant and a disabled Logger.debug9() call becomes dead code. When the
+ * levels change the call sites are retargeted and synced, which deoptimises
+ * any code that relied on the old value.
+ *
+ * A guard being true only means the normal level check must be made.
+ * Enabling metrics opens every guard, so that filtered events are counted.
+ */
+final class LevelGuard {
+	/** Call site for each level, by ordinal. */
+	private static final MutableCallSite[] SITES;
+	/** Current value of each call site, by ordinal. Guarded by Logger.HIERARCHY_LOCK. */
+	private static final boolean[] VALUES;
+
+	static {
+		final LogLevel[] levels = LogLevel.values();
+		SITES = new MutableCallSite[levels.length];
+		VALUES = new boolean[levels.length];
+		for (LogLevel level : levels) {
+			SITES[level.ordinal()] = new MutableCallSite(MethodHandles.constant(boolean.class, true));
+			VALUES[level.ordinal()] = true;
+		}
+	}
+
+	/** Guard for Error. */
+	private static final MethodHandle ERROR = SITES[LogLevel.ERROR.ordinal()].dynamicInvoker();
+	/** Guard for Warning. */
+	private static final MethodHandle WARNING = SITES[LogLevel.WARNING.ordinal()].dynamicInvoker();
+	/** Guard for Info. */
+	private static final MethodHandle INFO = SITES[LogLevel.INFO.ordinal()].dynamicInvoker();
+	/** Guard for Debug. */
+	private static final MethodHandle DEBUG = SITES[LogLevel.DEBUG.ordinal()].dynamicInvoker();
+	/** Guard for Debug2. */
+	private static final MethodHandle DEBUG2 = SITES[LogLevel.DEBUG2.ordinal()].dynamicInvoker();
+	/** Guard for Debug3. */
+	private static final MethodHandle DEBUG3 = SITES[LogLevel.DEBUG3.ordinal()].dynamicInvoker();
+	/** Guard for Debug4. */
+	private static final MethodHandle DEBUG4 = SITES[LogLevel.DEBUG4.ordinal()].dynamicInvoker();
+	/** Guard for Debug5. */
+	private static final MethodHandle DEBUG5 = SITES[LogLevel.DEBUG5.ordinal()].dynamicInvoker();
+	/** Guard for Debug6. */
+	private static final MethodHandle DEBUG6 = SITES[LogLevel.DEBUG6.ordinal()].dynamicInvoker();
+	/** Guard for Debug7. */
+	private static final MethodHandle DEBUG7 = SITES[LogLevel.DEBUG7.ordinal()].dynamicInvoker();
+	/** Guard for Debug8. */
+	private static final MethodHandle DEBUG8 = SITES[LogLevel.DEBUG8.ordinal()].dynamicInvoker();
+	/** Guard for Debug9. */
+	private static final MethodHandle DEBUG9 = SITES[LogLevel.DEBUG9.ordinal()].dynamicInvoker();
+
+	/** Prevent instances of LevelGuard. */
+	private LevelGuard() { }
+
+	/**
+	 * Check if Error might be logged anywhere.
+	 *
+	 * @return false if nothing at Error can be logged.
+	 */
+	static boolean error() {
+		return test(ERROR);
+	}
+
+	/**
+	 * Check if Warning might be logged anywhere.
+	 *
+	 * @return false if nothing at Warning can be logged.
+	 */
+	static boolean warning() {
+		return test(WARNING);
+	}
+
+	/**
+	 * Check if Info might be logged anywhere.
+	 *
+	 * @return false if nothing at Info can be logged.
+	 */
+	static boolean info() {
+		return test(INFO);
+	}
+
+	/**
+	 * Check if Debug might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug can be logged.
+	 */
+	static boolean debug() {
+		return test(DEBUG);
+	}
+
+	/**
+	 * Check if Debug2 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug2 can be logged.
+	 */
+	static boolean debug2() {
+		return test(DEBUG2);
+	}
+
+	/**
+	 * Check if Debug3 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug3 can be logged.
+	 */
+	static boolean debug3() {
+		return test(DEBUG3);
+	}
+
+	/**
+	 * Check if Debug4 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug4 can be logged.
+	 */
+	static boolean debug4() {
+		return test(DEBUG4);
+	}
+
+	/**
+	 * Check if Debug5 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug5 can be logged.
+	 */
+	static boolean debug5() {
+		return test(DEBUG5);
+	}
+
+	/**
+	 * Check if Debug6 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug6 can be logged.
+	 */
+	static boolean debug6() {
+		return test(DEBUG6);
+	}
+
+	/**
+	 * Check if Debug7 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug7 can be logged.
+	 */
+	static boolean debug7() {
+		return test(DEBUG7);
+	}
+
+	/**
+	 * Check if Debug8 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug8 can be logged.
+	 */
+	static boolean debug8() {
+		return test(DEBUG8);
+	}
+
+	/**
+	 * Check if Debug9 might be logged anywhere.
+	 *
+	 * @return false if nothing at Debug9 can be logged.
+	 */
+	static boolean debug9() {
+		return test(DEBUG9);
+	}
+
+	/**
+	 * Invoke a guard.
+	 *
+	 * @param guard Guard to invoke.
+	 * @return Value of the guard.
+	 */
+	private static boolean test(final MethodHandle guard) {
+		try {
+			return (boolean) guard.invokeExact();
+		} catch (Throwable t) {
+			throw new AssertionError(t);
+		}
+	}
+
+	/**
+	 * Set the guards for the current configuration.
+	 * This must be called holding Logger.HIERARCHY_LOCK.
+	 *
+	 * @param mostVerbose Most verbose effective level of any logger.
+	 * @param recorder Flight recorder in use, or null.
+	 * @param all true if every guard should be open (eg, for metrics).
+	 */
+	static void update(final LogLevel mostVerbose, final FlightRecorder recorder, final boolean all) {
+		final List<MutableCallSite> changed = new ArrayList<MutableCallSite>();
+		for (LogLevel level : LogLevel.values()) {
+			final boolean value = all || (level != LogLevel.SILENT && level.isLoggable(mostVerbose))
+			                      || (recorder != null && recorder.isRecorded(level));
+			if (value != VALUES[level.ordinal()]) {
+				VALUES[level.ordinal()] = value;
+				SITES[level.ordinal()].setTarget(MethodHandles.constant(boolean.class, value));
+				changed.add(SITES[level.ordinal()]);
+			}
+		}
+		if (!changed.isEmpty()) {
+			MutableCallSite.syncAll(changed.toArray(new MutableCallSite[changed.size()]));
+		}
+	}
+}
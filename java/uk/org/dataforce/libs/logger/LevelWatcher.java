@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import uk.org.dataforce.libs.util.TypedProperties;
+
+/**
+ * Keeps Logger levels in step with a properties file, so verbosity can be
+ * changed on a running process by editing the file.
+ *
+ * The file sets the root level with "level" and named loggers with
+ * "level.name", using LogLevel names in any case:
+ * <pre>
+ * level=Info
+ * level.uk.org.dataforce.libs.cliparser=Debug2
+ * </pre>
+ * A WatchService on the file's directory triggers a reload whenever the file
+ * is changed, ignoring changes to other files. Each reload applies all the
+ * levels at once with Logger.setLevels(). Loggers that have been removed from
+ * the file go back to using their parent's level, and the root logger goes
+ * back to the level it had when the watcher was created.
+ */
+public final class LevelWatcher implements Closeable {
+	/** Key for the root level. */
+	public static final String ROOT_KEY = "level";
+	/** Prefix for named logger levels. */
+	public static final String LOGGER_PREFIX = "level.";
+
+	/** Logger for problems with the file. */
+	private static final NamedLogger LOGGER = Logger.get("uk.org.dataforce.libs.logger");
+
+	/** File being watched. */
+	private final File file;
+	/** Watch service for the file's directory. */
+	private final WatchService watchService;
+	/** Thread waiting for changes. */
+	private final Thread thread;
+	/** Root level when this watcher was created. */
+	private final LogLevel originalLevel;
+	/** Named loggers given a level by the last reload. */
+	private Set<String> configured = new HashSet<String>();
+
+	/**
+	 * Create a new LevelWatcher, applying the file straight away.
+	 *
+	 * @param filename Properties file to watch.
+	 * @throws IOException If the directory can not be watched.
+	 */
+	public LevelWatcher(final String filename) throws IOException {
+		file = new File(filename).getAbsoluteFile();
+		originalLevel = Logger.getLevel();
+		final Path dir = file.getParentFile().toPath();
+		watchService = FileSystems.getDefault().newWatchService();
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		reload();
+
+		thread = new Thread("Logger LevelWatcher: "+file.getName()) {
+			@Override
+			public void run() {
+				watch();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Get the file being watched.
+	 *
+	 * @return The properties file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/** Wait for changes to the file until closed. */
+	private void watch() {
+		try {
+			while (true) {
+				final WatchKey key = watchService.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					    || file.getName().equals(String.valueOf(event.context()))) {
+						changed = true;
+					}
+				}
+				if (changed) { reload(); }
+				if (!key.reset()) {
+					LOGGER.warning("Stopped watching {}, the directory is no longer available", file);
+					return;
+				}
+			}
+		} catch (InterruptedException ie) {
+			// Closed.
+		} catch (ClosedWatchServiceException cwse) {
+			// Closed.
+		}
+	}
+
+	/**
+	 * Read the file and apply the levels in it.
+	 * Unknown level names are reported and ignored. If the file can't be
+	 * read, the current levels are left alone.
+	 */
+	public synchronized void reload() {
+		if (!file.exists()) { return; }
+		final TypedProperties properties = new TypedProperties();
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(LogLevel.WARNING, "Unable to read {}: {}", file, e.getMessage());
+			return;
+		}
+
+		final Map<String, LogLevel> levels = new HashMap<String, LogLevel>();
+		final Set<String> names = new HashSet<String>();
+		levels.put("", originalLevel);
+		for (String key : properties.stringPropertyNames()) {
+			final String name;
+			if (key.equals(ROOT_KEY)) {
+				name = "";
+			} else if (key.startsWith(LOGGER_PREFIX) && key.length() > LOGGER_PREFIX.length()) {
+				name = key.substring(LOGGER_PREFIX.length());
+			} else {
+				continue;
+			}
+			final String value = properties.getProperty(key).trim();
+			final LogLevel level = LogLevel.fromString(value);
+			if (level == null) {
+				LOGGER.log(LogLevel.WARNING, "Unknown level \"{}\" for {} in {}", value, key, file);
+			} else {
+				levels.put(name, level);
+				if (!name.isEmpty()) { names.add(name); }
+			}
+		}
+		for (String name : configured) {
+			if (!names.contains(name)) { levels.put(name, null); }
+		}
+		configured = names;
+		Logger.setLevels(levels);
+		LOGGER.info("Log levels loaded from {}", file);
+	}
+
+	/** Stop watching the file. The levels are left as they are. */
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOGGER.warning("Unable to close watch service: {}", e.getMessage());
+		}
+		thread.interrupt();
+	}
+}
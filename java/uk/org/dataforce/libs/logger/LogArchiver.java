@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses and prunes the files rolled by a RollingFileAppender, on a low
+ * priority background thread so the logging threads never wait for it.
+ *
+ * Rolled files ("name.yyyyMMdd-HHmmss", see RollingFileAppender) are gzipped
+ * to "name.yyyyMMdd-HHmmss.gz" through a fixed size buffer, so memory use does
+ * not depend on the size of the files. Then, oldest first, rolled files older
+ * than the maximum age are deleted, followed by as many as needed to bring
+ * the total size of the rolled files under the maximum. The file currently
+ * being written is never touched.
+ *
+ * The directory is checked when the archiver starts, whenever the appender
+ * rolls (see RollingFileAppender.setArchiver()), and every SCAN_INTERVAL.
+ */
+public final class LogArchiver {
+	/** How often the directory is checked without being woken, in milliseconds. */
+	public static final long SCAN_INTERVAL = 60000;
+	/** Size of the buffers used when compressing. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Suffix of compressed files. */
+	private static final String SUFFIX = ".gz";
+	/** Suffix of files being compressed. */
+	private static final String TEMP_SUFFIX = ".gz.tmp";
+
+	/** Logger for problems archiving. */
+	private static final NamedLogger LOGGER = Logger.get("uk.org.dataforce.libs.logger");
+
+	/** File being written by the appender. */
+	private final File file;
+	/** Pattern matching rolled files, compressed or not. */
+	private final Pattern rolled;
+	/** Maximum age of a rolled file in milliseconds, 0 for no limit. */
+	private final long maxAge;
+	/** Maximum total size of rolled files in bytes, 0 for no limit. */
+	private final long maxTotalSize;
+	/** Compression level, as for Deflater. */
+	private final int level;
+	/** Background thread. */
+	private final Thread thread;
+	/** Buffer used when compressing. */
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	/** Number of files compressed. */
+	private final AtomicLong filesCompressed = new AtomicLong(0);
+	/** Bytes read from files before compression. */
+	private final AtomicLong bytesIn = new AtomicLong(0);
+	/** Bytes written to compressed files. */
+	private final AtomicLong bytesOut = new AtomicLong(0);
+	/** Time spent compressing in nanoseconds. */
+	private final AtomicLong compressionNanos = new AtomicLong(0);
+	/** Number of files deleted. */
+	private final AtomicLong filesDeleted = new AtomicLong(0);
+	/** Bytes in deleted files. */
+	private final AtomicLong bytesDeleted = new AtomicLong(0);
+	/** Has this archiver been closed? */
+	private volatile boolean closed = false;
+
+	/**
+	 * Create and start a new LogArchiver, compressing with the default level.
+	 *
+	 * @param file File written by the RollingFileAppender.
+	 * @param maxAge Maximum age of a rolled file in milliseconds, or 0 for
+	 *               no limit.
+	 * @param maxTotalSize Maximum total size of all rolled files in bytes, or
+	 *                     0 for no limit.
+	 */
+	public LogArchiver(final File file, final long maxAge, final long maxTotalSize) {
+		this(file, maxAge, maxTotalSize, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Create and start a new LogArchiver.
+	 *
+	 * @param file File written by the RollingFileAppender.
+	 * @param maxAge Maximum age of a rolled file in milliseconds, or 0 for
+	 *               no limit.
+	 * @param maxTotalSize Maximum total size of all rolled files in bytes, or
+	 *                     0 for no limit.
+	 * @param level Compression level, 1 (fastest) to 9 (smallest), or
+	 *              Deflater.DEFAULT_COMPRESSION.
+	 */
+	public LogArchiver(final File file, final long maxAge, final long maxTotalSize, final int level) {
+		this.file = file.getAbsoluteFile();
+		this.rolled = Pattern.compile(Pattern.quote(this.file.getName()) + "\\.\\d{8}-\\d{6}(-\\d+)?(\\.gz)?");
+		this.maxAge = maxAge;
+		this.maxTotalSize = maxTotalSize;
+		this.level = level;
+
+		thread = new Thread("LogArchiver: "+this.file.getName()) {
+			@Override
+			public void run() {
+				while (!closed) {
+					archive();
+					LockSupport.parkNanos(this, SCAN_INTERVAL * 1000000L);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/** Check the directory now, eg because the file has just been rolled. */
+	public void wake() {
+		LockSupport.unpark(thread);
+	}
+
+	/** Stop the background thread once it has finished the current file. */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+	}
+
+	/** Compress any rolled files, then apply the retention limits. */
+	private void archive() {
+		for (File rolledFile : listRolled()) {
+			if (closed) { return; }
+			if (!rolledFile.getName().endsWith(SUFFIX)) {
+				compress(rolledFile);
+			}
+		}
+		prune();
+	}
+
+	/**
+	 * Get the rolled files, oldest first.
+	 *
+	 * @return Rolled files, compressed or not.
+	 */
+	private List<File> listRolled() {
+		final List<File> result = new ArrayList<File>();
+		final File[] files = file.getParentFile().listFiles();
+		if (files == null) { return result; }
+		for (File candidate : files) {
+			if (rolled.matcher(candidate.getName()).matches()) {
+				result.add(candidate);
+			}
+		}
+		result.sort(new Comparator<File>() {
+			@Override
+			public int compare(final File a, final File b) {
+				final int result = Long.compare(a.lastModified(), b.lastModified());
+				return (result == 0) ? a.getName().compareTo(b.getName()) : result;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Compress a rolled file, keeping its modification time.
+	 *
+	 * @param source File to compress.
+	 */
+	private void compress(final File source) {
+		final long start = System.nanoTime();
+		final File temp = new File(source.getPath() + TEMP_SUFFIX);
+		final File target = new File(source.getPath() + SUFFIX);
+		final long modified = source.lastModified();
+		long read = 0;
+		try {
+			final InputStream in = new FileInputStream(source);
+			try {
+				final OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), BUFFER_SIZE) {
+					{
+						def.setLevel(level);
+					}
+				};
+				try {
+					int count;
+					while ((count = in.read(buffer)) > 0) {
+						out.write(buffer, 0, count);
+						read += count;
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			temp.setLastModified(modified);
+			if (!temp.renameTo(target)) {
+				throw new IOException("Unable to rename "+temp+" to "+target);
+			}
+			if (!source.delete()) {
+				throw new IOException("Unable to delete "+source);
+			}
+		} catch (IOException e) {
+			LOGGER.log(LogLevel.WARNING, "Unable to compress {}: {}", source, e.getMessage());
+			temp.delete();
+			return;
+		}
+		final long time = System.nanoTime() - start;
+		filesCompressed.incrementAndGet();
+		bytesIn.addAndGet(read);
+		bytesOut.addAndGet(target.length());
+		compressionNanos.addAndGet(time);
+		LOGGER.log(LogLevel.DEBUG, "Compressed {} from {} to {} bytes in {}ms",
+		           source.getName(), read, target.length(), time / 1000000);
+	}
+
+	/** Delete rolled files that are too old, or too many. */
+	private void prune() {
+		if (maxAge <= 0 && maxTotalSize <= 0) { return; }
+		final List<File> files = listRolled();
+		long total = 0;
+		for (File rolledFile : files) {
+			total += rolledFile.length();
+		}
+		final long oldest = System.currentTimeMillis() - maxAge;
+		for (File rolledFile : files) {
+			final boolean tooOld = maxAge > 0 && rolledFile.lastModified() < oldest;
+			final boolean tooBig = maxTotalSize > 0 && total > maxTotalSize;
+			if (!tooOld && !tooBig) { break; }
+			final long length = rolledFile.length();
+			if (rolledFile.delete()) {
+				total -= length;
+				filesDeleted.incrementAndGet();
+				bytesDeleted.addAndGet(length);
+			} else {
+				LOGGER.log(LogLevel.WARNING, "Unable to delete {}", rolledFile);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of files compressed.
+	 *
+	 * @return Number of files.
+	 */
+	public long getFilesCompressed() {
+		return filesCompressed.get();
+	}
+
+	/**
+	 * Get the number of bytes saved by compression.
+	 *
+	 * @return Size of the files before compression minus their size after.
+	 */
+	public long getBytesSaved() {
+		return bytesIn.get() - bytesOut.get();
+	}
+
+	/**
+	 * Get the time spent compressing.
+	 *
+	 * @return Time in milliseconds.
+	 */
+	public long getCompressionTime() {
+		return compressionNanos.get() / 1000000;
+	}
+
+	/**
+	 * Get the number of files deleted by the retention limits.
+	 *
+	 * @return Number of files.
+	 */
+	public long getFilesDeleted() {
+		return filesDeleted.get();
+	}
+
+	/**
+	 * Get the number of bytes freed by the retention limits.
+	 *
+	 * @return Size of the deleted files.
+	 */
+	public long getBytesDeleted() {
+		return bytesDeleted.get();
+	}
+}
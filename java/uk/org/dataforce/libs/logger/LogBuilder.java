@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+/**
+ * Builds a log event with structured fields, eg:
+ * <pre>
+ * logger.atInfo().with("port", 6667).with("latencyNs", time).log("Connected");
+ * </pre>
+ * Fields are kept raw on the event, and appenders render them as text after
+ * the message or as JSON (see LineFormat).
+ *
+ * Builders are taken from a small per-thread pool by NamedLogger.at() and
+ * given back by log(), so log() must always be called. Numbers are not boxed,
+ * so once warm building an event does not allocate anything. If the level is
+ * not being logged, at() returns a builder that ignores everything.
+ *
+ * Builders are only for use by the thread that got them, and must not be kept
+ * after log() is called.
+ */
+public final class LogBuilder {
+	/** Builder returned when the level is not being logged. */
+	static final LogBuilder DISABLED = new LogBuilder();
+	/** Number of builders kept per thread, for events built inside others. */
+	private static final int POOL_SIZE = 4;
+	/** Per-thread builders. */
+	private static final ThreadLocal<LogBuilder[]> POOLS = new ThreadLocal<LogBuilder[]>() {
+		@Override
+		protected LogBuilder[] initialValue() {
+			final LogBuilder[] pool = new LogBuilder[POOL_SIZE];
+			for (int i = 0; i < POOL_SIZE; i++) { pool[i] = new LogBuilder(); }
+			return pool;
+		}
+	};
+
+	/** Event being built. */
+	private final LogEvent event = new LogEvent();
+	/** Logger used, or null if this builder ignores everything. */
+	private NamedLogger logger;
+	/** Level of the event. */
+	private LogLevel level;
+	/** Is this builder in use? */
+	private boolean inUse = false;
+
+	/** Create a new LogBuilder. */
+	private LogBuilder() { }
+
+	/**
+	 * Get a builder for an event.
+	 * If all of the calling thread's builders are in use, a new one is created.
+	 *
+	 * @param logger Logger to log to.
+	 * @param level Level of the event.
+	 * @return Builder to fill.
+	 */
+	static LogBuilder acquire(final NamedLogger logger, final LogLevel level) {
+		LogBuilder builder = null;
+		for (LogBuilder candidate : POOLS.get()) {
+			if (!candidate.inUse) {
+				builder = candidate;
+				break;
+			}
+		}
+		if (builder == null) { builder = new LogBuilder(); }
+		builder.inUse = true;
+		builder.logger = logger;
+		builder.level = level;
+		return builder;
+	}
+
+	/**
+	 * Add a field.
+	 * Fields after the first LogEvent.MAX_FIELDS are ignored.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 * @return This builder.
+	 */
+	public LogBuilder with(final String key, final Object value) {
+		if (logger != null) { event.addField(key, value); }
+		return this;
+	}
+
+	/**
+	 * Add a field.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 * @return This builder.
+	 */
+	public LogBuilder with(final String key, final int value) {
+		if (logger != null) { event.addField(key, LogEvent.ARG_INT, value); }
+		return this;
+	}
+
+	/**
+	 * Add a field.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 * @return This builder.
+	 */
+	public LogBuilder with(final String key, final long value) {
+		if (logger != null) { event.addField(key, LogEvent.ARG_LONG, value); }
+		return this;
+	}
+
+	/**
+	 * Add a field.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 * @return This builder.
+	 */
+	public LogBuilder with(final String key, final double value) {
+		if (logger != null) { event.addField(key, LogEvent.ARG_DOUBLE, Double.doubleToRawLongBits(value)); }
+		return this;
+	}
+
+	/**
+	 * Add a field.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 * @return This builder.
+	 */
+	public LogBuilder with(final String key, final boolean value) {
+		if (logger != null) { event.addField(key, Boolean.valueOf(value)); }
+		return this;
+	}
+
+	/**
+	 * Log the event, and give this builder back.
+	 *
+	 * @param message Information to log.
+	 */
+	public void log(final String message) {
+		if (logger == null) { return; }
+		try {
+			event.set(logger.getName(), level, System.currentTimeMillis(), message);
+			logger.log(event, message);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Log the event, and give this builder back.
+	 * The first "{}" in the format is replaced by the argument.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void log(final String format, final Object arg) {
+		if (logger == null) { return; }
+		try {
+			event.setFormat(logger.getName(), level, System.currentTimeMillis(), format);
+			event.addArgument(arg);
+			logger.log(event, format);
+		} finally {
+			release();
+		}
+	}
+
+	/** Clear this builder and give it back to the pool. */
+	private void release() {
+		event.clear();
+		logger = null;
+		level = null;
+		inUse = false;
+	}
+}
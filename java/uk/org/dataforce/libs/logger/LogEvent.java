@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+/**
+ * A single log event, as passed to Appenders.
+ * Events are reused: an Appender must copy anything it wants to keep before
+ * append() returns.
+ *
+ * Events logged with a "{}" format keep the format and the raw arguments, and
+ * the message is only expanded the first time getMessage() is called, so
+ * appenders that don't need the text (such as BinaryFileAppender) never pay
+ * for formatting.
+ *
+ * Events logged through a LogBuilder also carry structured fields, kept raw
+ * in the same way as the arguments.
+ */
+public final class LogEvent {
+	/** Maximum number of arguments kept raw, any more are formatted straight away. */
+	static final int MAX_ARGS = 8;
+	/** Maximum number of structured fields, any more are ignored. */
+	public static final int MAX_FIELDS = 16;
+	/** Argument type for objects. */
+	static final byte ARG_OBJECT = 0;
+	/** Argument type for ints. */
+	static final byte ARG_INT = 1;
+	/** Argument type for longs. */
+	static final byte ARG_LONG = 2;
+	/** Argument type for doubles. */
+	static final byte ARG_DOUBLE = 3;
+	/** Builders bigger than this are replaced rather than kept. */
+	private static final int MAX_KEPT_CAPACITY = 65536;
+	/** Per-thread event used when logging synchronously. */
+	private static final ThreadLocal<LogEvent> EVENTS = new ThreadLocal<LogEvent>() {
+		@Override
+		protected LogEvent initialValue() {
+			return new LogEvent();
+		}
+	};
+
+	/** Name of the logger used, "" for the root logger. */
+	private String name;
+	/** Level of this event. */
+	private LogLevel level;
+	/** Time this event was logged, in milliseconds since the epoch. */
+	private long timestamp;
+	/** Information logged, null if it has not been expanded from the format yet. */
+	private CharSequence message;
+	/** Format for the message, or null if the message was given directly. */
+	private String format;
+	/** Number of arguments for the format. */
+	private int argCount;
+	/** Type of each argument. */
+	private final byte[] argTypes = new byte[MAX_ARGS];
+	/** Value of each int, long or double argument (doubles as raw bits). */
+	private final long[] argValues = new long[MAX_ARGS];
+	/** Value of each object argument. */
+	private final Object[] argObjects = new Object[MAX_ARGS];
+	/** MDC keys for this event. */
+	private final String[] contextKeys = new String[MDC.MAX_ENTRIES];
+	/** MDC values for this event. */
+	private final String[] contextValues = new String[MDC.MAX_ENTRIES];
+	/** Number of MDC pairs. */
+	private int contextSize;
+	/** Structured field names. */
+	private final String[] fieldKeys = new String[MAX_FIELDS];
+	/** Type of each field, as for arguments. */
+	private final byte[] fieldTypes = new byte[MAX_FIELDS];
+	/** Value of each int, long or double field (doubles as raw bits). */
+	private final long[] fieldValues = new long[MAX_FIELDS];
+	/** Value of each object field. */
+	private final Object[] fieldObjects = new Object[MAX_FIELDS];
+	/** Number of structured fields. */
+	private int fieldCount;
+	/** Builder owned by this event, for copied or expanded messages. */
+	private StringBuilder buffer = new StringBuilder(128);
+	/** Is this event currently in use? */
+	private boolean inUse = false;
+
+	/** Create a new LogEvent. */
+	LogEvent() { }
+
+	/**
+	 * Get the calling thread's reusable event.
+	 * If that is already in use (eg, an Appender logs something) a new event
+	 * is created. Every event must be given back with release().
+	 *
+	 * @return Event to fill.
+	 */
+	static LogEvent acquire() {
+		final LogEvent event = EVENTS.get();
+		if (event.inUse) { return new LogEvent(); }
+		event.inUse = true;
+		return event;
+	}
+
+	/**
+	 * Give back an event from acquire().
+	 *
+	 * @param event Event to give back.
+	 */
+	static void release(final LogEvent event) {
+		event.clear();
+		event.inUse = false;
+	}
+
+	/**
+	 * Fill this event, keeping a reference to the message.
+	 *
+	 * @param name Name of the logger used.
+	 * @param level Level of this event.
+	 * @param timestamp Time this event was logged.
+	 * @param message Information logged.
+	 */
+	void set(final String name, final LogLevel level, final long timestamp, final CharSequence message) {
+		this.name = name;
+		this.level = level;
+		this.timestamp = timestamp;
+		this.message = message;
+		this.format = null;
+		this.argCount = 0;
+	}
+
+	/**
+	 * Fill this event with a format. Arguments are then added with the
+	 * addArgument methods.
+	 *
+	 * @param name Name of the logger used.
+	 * @param level Level of this event.
+	 * @param timestamp Time this event was logged.
+	 * @param format Format for the message.
+	 */
+	void setFormat(final String name, final LogLevel level, final long timestamp, final String format) {
+		this.name = name;
+		this.level = level;
+		this.timestamp = timestamp;
+		this.message = null;
+		this.format = format;
+		this.argCount = 0;
+	}
+
+	/**
+	 * Fill this event with a format and any number of arguments.
+	 * If there are too many arguments to keep, the message is expanded now.
+	 *
+	 * @param name Name of the logger used.
+	 * @param level Level of this event.
+	 * @param timestamp Time this event was logged.
+	 * @param format Format for the message.
+	 * @param args Arguments for the format.
+	 */
+	void setFormat(final String name, final LogLevel level, final long timestamp, final String format, final Object[] args) {
+		if (args.length > MAX_ARGS) {
+			buffer.setLength(0);
+			MessageFormatter.format(buffer, format, args);
+			set(name, level, timestamp, buffer);
+		} else {
+			setFormat(name, level, timestamp, format);
+			for (Object arg : args) { addArgument(arg); }
+		}
+	}
+
+	/**
+	 * Add an object argument.
+	 *
+	 * @param arg Argument to add.
+	 */
+	void addArgument(final Object arg) {
+		argTypes[argCount] = ARG_OBJECT;
+		argObjects[argCount++] = arg;
+	}
+
+	/**
+	 * Add an int argument.
+	 *
+	 * @param arg Argument to add.
+	 */
+	void addArgument(final int arg) {
+		argTypes[argCount] = ARG_INT;
+		argValues[argCount++] = arg;
+	}
+
+	/**
+	 * Add a long argument.
+	 *
+	 * @param arg Argument to add.
+	 */
+	void addArgument(final long arg) {
+		argTypes[argCount] = ARG_LONG;
+		argValues[argCount++] = arg;
+	}
+
+	/**
+	 * Add a double argument.
+	 *
+	 * @param arg Argument to add.
+	 */
+	void addArgument(final double arg) {
+		argTypes[argCount] = ARG_DOUBLE;
+		argValues[argCount++] = Double.doubleToRawLongBits(arg);
+	}
+
+	/**
+	 * Add an object field.
+	 *
+	 * @param key Name of the field.
+	 * @param value Value of the field.
+	 */
+	void addField(final String key, final Object value) {
+		if (fieldCount == MAX_FIELDS) { return; }
+		fieldKeys[fieldCount] = key;
+		fieldTypes[fieldCount] = ARG_OBJECT;
+		fieldObjects[fieldCount++] = value;
+	}
+
+	/**
+	 * Add an int, long or double field.
+	 *
+	 * @param key Name of the field.
+	 * @param type ARG_INT, ARG_LONG or ARG_DOUBLE.
+	 * @param value Value of the field (doubles as raw bits).
+	 */
+	void addField(final String key, final byte type, final long value) {
+		if (fieldCount == MAX_FIELDS) { return; }
+		fieldKeys[fieldCount] = key;
+		fieldTypes[fieldCount] = type;
+		fieldValues[fieldCount++] = value;
+	}
+
+	/**
+	 * Copy the calling thread's MDC into this event.
+	 */
+	void captureContext() {
+		final MDC.Context context = MDC.current();
+		contextSize = context.size();
+		for (int i = 0; i < contextSize; i++) {
+			contextKeys[i] = context.getKey(i);
+			contextValues[i] = context.getValue(i);
+		}
+	}
+	
+	/**
+	 * Fill this event with a copy of another, so that it can be handed to
+	 * another thread.
+	 * Object arguments that are not known to be immutable are turned into
+	 * Strings now, so later changes to them are not seen.
+	 *
+	 * @param source Event to copy.
+	 */
+	void copyFrom(final LogEvent source) {
+		name = source.name;
+		level = source.level;
+		timestamp = source.timestamp;
+		format = source.format;
+		argCount = source.argCount;
+		contextSize = source.contextSize;
+		System.arraycopy(source.contextKeys, 0, contextKeys, 0, contextSize);
+		System.arraycopy(source.contextValues, 0, contextValues, 0, contextSize);
+		fieldCount = source.fieldCount;
+		for (int i = 0; i < fieldCount; i++) {
+			fieldKeys[i] = source.fieldKeys[i];
+			fieldTypes[i] = source.fieldTypes[i];
+			fieldValues[i] = source.fieldValues[i];
+			fieldObjects[i] = (fieldTypes[i] == ARG_OBJECT) ? snapshot(source.fieldObjects[i]) : null;
+		}
+		if (format == null) {
+			buffer.setLength(0);
+			buffer.append(source.message);
+			message = buffer;
+		} else {
+			message = null;
+			for (int i = 0; i < argCount; i++) {
+				argTypes[i] = source.argTypes[i];
+				argValues[i] = source.argValues[i];
+				argObjects[i] = (argTypes[i] == ARG_OBJECT) ? snapshot(source.argObjects[i]) : null;
+			}
+		}
+	}
+
+	/**
+	 * Get a value for an object argument that is safe to keep.
+	 * If its toString() throws, a placeholder naming the exception is used
+	 * instead, so a broken argument can't stop the event being handed over.
+	 *
+	 * @param arg Argument.
+	 * @return The argument if it is immutable, else its String value.
+	 */
+	private static Object snapshot(final Object arg) {
+		if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+		    || arg instanceof Double || arg instanceof Float || arg instanceof Short
+		    || arg instanceof Byte || arg instanceof Character || arg instanceof Boolean
+		    || arg instanceof Enum) {
+			return arg;
+		}
+		try {
+			return String.valueOf(arg);
+		} catch (RuntimeException e) {
+			return "["+arg.getClass().getName()+".toString() threw "+e+"]";
+		}
+	}
+
+	/** Clear this event, dropping the builder if it has grown too large. */
+	void clear() {
+		name = null;
+		level = null;
+		message = null;
+		format = null;
+		for (int i = 0; i < argCount; i++) { argObjects[i] = null; }
+		argCount = 0;
+		for (int i = 0; i < contextSize; i++) {
+			contextKeys[i] = null;
+			contextValues[i] = null;
+		}
+		contextSize = 0;
+		for (int i = 0; i < fieldCount; i++) {
+			fieldKeys[i] = null;
+			fieldObjects[i] = null;
+		}
+		fieldCount = 0;
+		if (buffer.capacity() > MAX_KEPT_CAPACITY) {
+			buffer = new StringBuilder(128);
+		} else {
+			buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Get the name of the logger used.
+	 *
+	 * @return Name of the logger, "" for the root logger.
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Get the level of this event.
+	 *
+	 * @return Level of this event.
+	 */
+	public LogLevel getLevel() { return level; }
+
+	/**
+	 * Get the time this event was logged.
+	 *
+	 * @return Time in milliseconds since the epoch.
+	 */
+	public long getTimestamp() { return timestamp; }
+
+	/**
+	 * Get the information logged, expanding the format if needed.
+	 * This is only valid until append() returns.
+	 *
+	 * @return The message.
+	 */
+	public CharSequence getMessage() {
+		if (message == null) {
+			buffer.setLength(0);
+			int pos = 0;
+			for (int i = 0; i < argCount && pos >= 0; i++) {
+				pos = MessageFormatter.appendUntilPlaceholder(buffer, format, pos);
+				if (pos >= 0) { appendArgument(buffer, i); }
+			}
+			MessageFormatter.appendRest(buffer, format, pos);
+			message = buffer;
+		}
+		return message;
+	}
+
+	/**
+	 * Get the format for the message.
+	 *
+	 * @return The format, or null if the message was logged directly.
+	 */
+	public String getFormat() { return format; }
+
+	/**
+	 * Get the number of MDC pairs logged with this event.
+	 *
+	 * @return Number of pairs.
+	 */
+	public int getContextSize() { return contextSize; }
+
+	/**
+	 * Get an MDC key.
+	 *
+	 * @param index Pair to get.
+	 * @return Key of the pair.
+	 */
+	public String getContextKey(final int index) { return contextKeys[index]; }
+
+	/**
+	 * Get an MDC value.
+	 *
+	 * @param index Pair to get.
+	 * @return Value of the pair.
+	 */
+	public String getContextValue(final int index) { return contextValues[index]; }
+
+	/**
+	 * Get the number of structured fields logged with this event.
+	 *
+	 * @return Number of fields.
+	 */
+	public int getFieldCount() { return fieldCount; }
+
+	/**
+	 * Get the name of a structured field.
+	 *
+	 * @param index Field to get.
+	 * @return Name of the field.
+	 */
+	public String getFieldKey(final int index) { return fieldKeys[index]; }
+
+	/**
+	 * Get the value of a structured field.
+	 * Numbers are boxed, so appenders that care about garbage should use
+	 * appendFieldValue() instead.
+	 *
+	 * @param index Field to get.
+	 * @return Value of the field.
+	 */
+	public Object getFieldValue(final int index) {
+		switch (fieldTypes[index]) {
+			case ARG_INT:
+				return (int) fieldValues[index];
+			case ARG_LONG:
+				return fieldValues[index];
+			case ARG_DOUBLE:
+				return Double.longBitsToDouble(fieldValues[index]);
+			default:
+				return fieldObjects[index];
+		}
+	}
+
+	/**
+	 * Append the text of a structured field's value.
+	 *
+	 * @param sb Builder to append to.
+	 * @param index Field to append.
+	 */
+	public void appendFieldValue(final StringBuilder sb, final int index) {
+		append(sb, fieldTypes[index], fieldValues[index], fieldObjects[index]);
+	}
+
+	/**
+	 * Get the type of a structured field.
+	 *
+	 * @param index Field to get.
+	 * @return ARG_OBJECT, ARG_INT, ARG_LONG or ARG_DOUBLE.
+	 */
+	byte getFieldType(final int index) { return fieldTypes[index]; }
+
+	/**
+	 * Get the value of an int, long or double (as raw bits) field.
+	 *
+	 * @param index Field to get.
+	 * @return Value of the field.
+	 */
+	long getFieldRawValue(final int index) { return fieldValues[index]; }
+
+	/**
+	 * Get the value of an object field.
+	 *
+	 * @param index Field to get.
+	 * @return Value of the field.
+	 */
+	Object getFieldObject(final int index) { return fieldObjects[index]; }
+
+	/**
+	 * Get the number of arguments for the format.
+	 *
+	 * @return Number of arguments.
+	 */
+	int getArgumentCount() { return argCount; }
+
+	/**
+	 * Get the type of an argument.
+	 *
+	 * @param index Argument to get.
+	 * @return ARG_OBJECT, ARG_INT, ARG_LONG or ARG_DOUBLE.
+	 */
+	byte getArgumentType(final int index) { return argTypes[index]; }
+
+	/**
+	 * Get the value of an int, long or double (as raw bits) argument.
+	 *
+	 * @param index Argument to get.
+	 * @return Value of the argument.
+	 */
+	long getArgumentValue(final int index) { return argValues[index]; }
+
+	/**
+	 * Get the value of an object argument.
+	 *
+	 * @param index Argument to get.
+	 * @return Value of the argument.
+	 */
+	Object getArgumentObject(final int index) { return argObjects[index]; }
+
+	/**
+	 * Append the text of an argument.
+	 *
+	 * @param sb Builder to append to.
+	 * @param index Argument to append.
+	 */
+	private void appendArgument(final StringBuilder sb, final int index) {
+		append(sb, argTypes[index], argValues[index], argObjects[index]);
+	}
+
+	/**
+	 * Append the text of an argument or field.
+	 *
+	 * @param sb Builder to append to.
+	 * @param type ARG_OBJECT, ARG_INT, ARG_LONG or ARG_DOUBLE.
+	 * @param value Value of an int, long or double (as raw bits).
+	 * @param object Value of an object.
+	 */
+	private static void append(final StringBuilder sb, final byte type, final long value, final Object object) {
+		switch (type) {
+			case ARG_INT:
+				sb.append((int) value);
+				break;
+			case ARG_LONG:
+				sb.append(value);
+				break;
+			case ARG_DOUBLE:
+				sb.append(Double.longBitsToDouble(value));
+				break;
+			default:
+				sb.append(object);
+				break;
+		}
+	}
+}
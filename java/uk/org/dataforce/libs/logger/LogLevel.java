@@ -56,9 +56,9 @@ public enum LogLevel {
 	DEBUG9 (120, "Debug9");
 	
 	/** Number for this log level. */
-	private int myLevel;
+	private final int myLevel;
 	/** Name for this log level. */
-	private String myName;
+	private final String myName;
 	
 	/**
 	 * Create a new LogLevel.
@@ -86,6 +86,19 @@ public enum LogLevel {
 	@Override
 	public String toString() { return myName; }
 	
+	/**
+	 * Get the log level with the given name.
+	 *
+	 * @param name Name of the level, in any case (eg "debug2").
+	 * @return The LogLevel, or null if there is no level with that name.
+	 */
+	public static LogLevel fromString(final String name) {
+		for (LogLevel level : values()) {
+			if (level.myName.equalsIgnoreCase(name)) { return level; }
+		}
+		return null;
+	}
+	
 	/**
 	 * Check if this level is displayable at the given log level.
 	 *
@@ -94,6 +107,6 @@ public enum LogLevel {
 	 *         log level.
 	 */
 	public boolean isLoggable(final LogLevel o) {
-		return (this.getLevel() - o.getLevel()) <= 0;
+		return myLevel <= o.myLevel;
 	}
 }
\ No newline at end of file
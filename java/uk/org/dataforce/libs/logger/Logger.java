@@ -24,12 +24,68 @@
 
 package uk.org.dataforce.libs.logger;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 /**
  * JISG Logger class.
  */
 public class Logger {
-	/** Current log level. */
-	private static LogLevel logLevel = LogLevel.DEBUG2;
+	/** Lock guarding the structure and levels of the named logger hierarchy. */
+	static final Object HIERARCHY_LOCK = new Object();
+	
+	/** Root of the named logger hierarchy, used by the static log methods. */
+	private static final NamedLogger ROOT = new NamedLogger("", null, LogLevel.DEBUG2);
+	
+	/** Named loggers by name. */
+	private static final Map<String, NamedLogger> LOGGERS = new ConcurrentHashMap<String, NamedLogger>();
+	
+	/** Limiters for message templates, by template. */
+	private static final Map<String, RateLimiter> TEMPLATE_LIMITS = new ConcurrentHashMap<String, RateLimiter>();
+	
+	/** Are any message templates limited? */
+	private static volatile boolean templatesLimited = false;
+	
+	/** Flight recorder keeping recent events, or null for none. */
+	private static volatile FlightRecorder flightRecorder = null;
+	
+	/** Metrics being counted, or null if disabled. */
+	private static volatile LoggerMetrics metrics = null;
+	
+	/** Default number of events buffered when logging asynchronously. */
+	public static final int DEFAULT_ASYNC_CAPACITY = 8192;
+	
+	/** Default time in milliseconds to wait for the async buffer to flush. */
+	public static final long DEFAULT_FLUSH_TIMEOUT = 5000;
+	
+	/** Writer used for asynchronous logging, or null if logging synchronously. */
+	private static volatile AsyncWriter asyncWriter = null;
+	
+	/** Number of events dropped by previous async writers. */
+	private static long previousDropped = 0;
+	
+	/** Has the shutdown hook been added? */
+	private static boolean shutdownHookAdded = false;
+	
+	/**
+	 * Appenders to write to.
+	 * This array is never modified, it is replaced when appenders are added or
+	 * removed so that writing does not need any locking.
+	 */
+	private static volatile Appender[] appenders = { new ConsoleAppender() };
+	
+	static {
+		updateGuards();
+	}
 	
 	/**
 	 * Log data at a customiseable log level.
@@ -38,120 +94,1429 @@ public class Logger {
 	 * @param data Information to log.
 	 */
 	public static void log(final LogLevel level, final String data) {
-		if (level.isLoggable(logLevel) && level != LogLevel.SILENT) {
-			System.out.println("["+level+"] "+data);
-			// Optionally add logging to a file here.
+		ROOT.log(level, data);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The supplier is only called if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param data Supplier for the information to log.
+	 */
+	public static void log(final LogLevel level, final Supplier<String> data) {
+		ROOT.log(level, data);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final Object arg) {
+		ROOT.log(level, format, arg);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first two "{}"s in the format are replaced by the arguments, this is
+	 * only done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg1 First argument for the format.
+	 * @param arg2 Second argument for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final Object arg1, final Object arg2) {
+		ROOT.log(level, format, arg1, arg2);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * Each "{}" in the format is replaced by the next argument, this is only
+	 * done if the level is being logged.
+	 * Note that the argument array is allocated by the caller even when the
+	 * level is not logged, so prefer the fixed argument versions.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param args Arguments for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final Object... args) {
+		ROOT.log(level, format, args);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final int arg) {
+		ROOT.log(level, format, arg);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final long arg) {
+		ROOT.log(level, format, arg);
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void log(final LogLevel level, final String format, final double arg) {
+		ROOT.log(level, format, arg);
+	}
+	
+	/**
+	 * Check if data at the given level will be logged.
+	 *
+	 * @param level Level to check.
+	 * @return true if data at this level is currently logged.
+	 */
+	public static boolean isLoggable(final LogLevel level) {
+		return ROOT.isLoggable(level);
+	}
+	
+	/**
+	 * Get the logger with the given name, creating it (and any missing
+	 * parents) if needed.
+	 * Names are dot separated, eg "uk.org.dataforce.libs.cliparser".
+	 *
+	 * @param name Name of the logger, or "" for the root logger.
+	 * @return The named logger.
+	 */
+	public static NamedLogger get(final String name) {
+		if (name.isEmpty()) { return ROOT; }
+		final NamedLogger logger = LOGGERS.get(name);
+		if (logger != null) { return logger; }
+		synchronized (HIERARCHY_LOCK) {
+			final int dot = name.lastIndexOf('.');
+			final NamedLogger parent = get(dot < 0 ? "" : name.substring(0, dot));
+			NamedLogger result = LOGGERS.get(name);
+			if (result == null) {
+				result = new NamedLogger(name, parent, null);
+				LOGGERS.put(name, result);
+			}
+			return result;
 		}
 	}
 	
 	/**
-	 * Log data at the error level.
+	 * Get the metrics being counted.
 	 *
-	 * @param data Information to log.
+	 * @return The LoggerMetrics, or null if metrics are not enabled.
 	 */
-	public static void error(final String data) {
-		log(LogLevel.ERROR, data);
+	public static LoggerMetrics getMetrics() {
+		return metrics;
 	}
 	
 	/**
-	 * Log data at the warning level.
+	 * Start or stop counting metrics.
+	 * When enabled the metrics are also registered with the platform MBean
+	 * server as LoggerMetrics.OBJECT_NAME. Enabling metrics when they are
+	 * already enabled keeps the existing counts.
 	 *
-	 * @param data Information to log.
+	 * @param enabled true to count metrics, false to stop.
 	 */
-	public static void warning(final String data) {
-		log(LogLevel.WARNING, data);
+	public static synchronized void setMetricsEnabled(final boolean enabled) {
+		if (enabled == (metrics != null)) { return; }
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(LoggerMetrics.OBJECT_NAME);
+			if (server.isRegistered(name)) { server.unregisterMBean(name); }
+			if (enabled) {
+				final LoggerMetrics newMetrics = new LoggerMetrics();
+				server.registerMBean(newMetrics, name);
+				metrics = newMetrics;
+			} else {
+				metrics = null;
+			}
+		} catch (JMException e) {
+			System.err.println("Unable to register logger metrics: "+e.getMessage());
+			metrics = enabled ? new LoggerMetrics() : null;
+		}
+		updateGuards();
 	}
 	
 	/**
-	 * Log data at the info level.
+	 * Get the number of events waiting in the async buffer.
 	 *
-	 * @param data Information to log.
+	 * @return Number of events, 0 if not logging asynchronously.
 	 */
-	public static void info(final String data) {
-		log(LogLevel.INFO, data);
+	public static long getAsyncQueueDepth() {
+		final AsyncWriter writer = asyncWriter;
+		return (writer == null) ? 0 : writer.getDepth();
 	}
 	
 	/**
-	 * Log data at the debug level.
+	 * Set the levels of several loggers at once.
+	 * All the levels are changed holding HIERARCHY_LOCK, so no other level
+	 * change can be mixed in, and the LevelGuards are updated once at the end.
 	 *
-	 * @param data Information to log.
+	 * @param levels New level for each logger name ("" for the root logger),
+	 *               null to use the parent's level.
 	 */
-	public static void debug(final String data) {
-		log(LogLevel.DEBUG, data);
+	public static void setLevels(final Map<String, LogLevel> levels) {
+		if (levels.containsKey("") && levels.get("") == null) {
+			throw new IllegalArgumentException("The root logger must have a level");
+		}
+		synchronized (HIERARCHY_LOCK) {
+			for (Map.Entry<String, LogLevel> entry : levels.entrySet()) {
+				if (!entry.getKey().isEmpty()) {
+					get(entry.getKey()).applyLevel(entry.getValue());
+				}
+			}
+			if (levels.containsKey("")) {
+				ROOT.applyLevel(levels.get(""));
+			}
+			updateGuards();
+		}
 	}
 	
 	/**
-	 * Log data at the debug2 level.
+	 * Work out which levels can be logged anywhere, and set the LevelGuards
+	 * to match.
+	 */
+	static void updateGuards() {
+		synchronized (HIERARCHY_LOCK) {
+			LogLevel mostVerbose = ROOT.getEffectiveLevel();
+			for (NamedLogger logger : LOGGERS.values()) {
+				if (!logger.getEffectiveLevel().isLoggable(mostVerbose)) {
+					mostVerbose = logger.getEffectiveLevel();
+				}
+			}
+			LevelGuard.update(mostVerbose, flightRecorder, metrics != null);
+		}
+	}
+	
+	/**
+	 * Get the flight recorder in use.
 	 *
-	 * @param data Information to log.
+	 * @return The FlightRecorder, or null if none is in use.
 	 */
-	public static void debug2(final String data) {
-		log(LogLevel.DEBUG2, data);
+	public static FlightRecorder getFlightRecorder() {
+		return flightRecorder;
 	}
 	
 	/**
-	 * Log data at the debug3 level.
+	 * Keep recent events in memory, whatever level is being logged, so they
+	 * can be written out when something goes wrong.
+	 * Note that while a recorder is in use, events at levels it records are
+	 * built (and their suppliers called) even if they are not written.
+	 *
+	 * @param recorder The FlightRecorder to use, or null to stop recording.
+	 */
+	public static void setFlightRecorder(final FlightRecorder recorder) {
+		flightRecorder = recorder;
+		updateGuards();
+	}
+	
+	/**
+	 * Check if events at a level are kept by the flight recorder.
+	 *
+	 * @param level Level to check.
+	 * @return true if events at this level are recorded.
+	 */
+	static boolean isRecorded(final LogLevel level) {
+		final FlightRecorder recorder = flightRecorder;
+		return recorder != null && recorder.isRecorded(level);
+	}
+	
+	/**
+	 * Limit how often a message template is written.
+	 * This applies to every use of the exact format (for the "{}" methods) or
+	 * message (for the others), from any logger. Named loggers can also be
+	 * limited as a whole with NamedLogger.setRateLimit(). Any summary still
+	 * pending on the old limiter is logged.
+	 *
+	 * @param template Format or message to limit.
+	 * @param limiter The RateLimiter to use, or null to remove the limit.
+	 */
+	public static void setRateLimit(final String template, final RateLimiter limiter) {
+		final RateLimiter old;
+		synchronized (TEMPLATE_LIMITS) {
+			if (limiter == null) {
+				old = TEMPLATE_LIMITS.remove(template);
+			} else {
+				old = TEMPLATE_LIMITS.put(template, limiter);
+			}
+			templatesLimited = !TEMPLATE_LIMITS.isEmpty();
+		}
+		if (old != null && old != limiter) { old.flush(); }
+		if (limiter != null) { addShutdownHook(); }
+	}
+	
+	/**
+	 * Get the limiter for a message template.
+	 *
+	 * @param template Format or message to check.
+	 * @return The RateLimiter, or null if the template is not limited.
+	 */
+	public static RateLimiter getRateLimit(final String template) {
+		if (!templatesLimited || template == null) { return null; }
+		return TEMPLATE_LIMITS.get(template);
+	}
+	
+	/**
+	 * Pass an event that has passed the log level check to the writer.
+	 *
+	 * @param event Event to write. This is not kept after this returns.
+	 */
+	static void dispatch(final LogEvent event) {
+		final LoggerMetrics m = metrics;
+		if (m != null) { m.emitted(event.getLevel()); }
+		if (JfrEvents.isLogEnabled()) { JfrEvents.log(event); }
+		final AsyncWriter writer = asyncWriter;
+		if (writer == null || !writer.publish(event)) {
+			write(event);
+		}
+	}
+	
+	/**
+	 * Actually write an event that has passed the log level check.
+	 *
+	 * @param event Event to write.
+	 */
+	static void write(final LogEvent event) {
+		final LoggerMetrics m = metrics;
+		final boolean jfr = JfrEvents.isAppendEnabled();
+		for (Appender appender : appenders) {
+			if (m == null && !jfr) {
+				appender.append(event);
+			} else {
+				final JfrEvents.Append jfrEvent = jfr ? JfrEvents.beginAppend() : null;
+				final long start = System.nanoTime();
+				appender.append(event);
+				if (m != null) { m.written(appender, System.nanoTime() - start); }
+				if (jfrEvent != null) { JfrEvents.endAppend(jfrEvent, appender, event); }
+			}
+		}
+	}
+	
+	/**
+	 * Flush all the appenders.
+	 */
+	static void flushAppenders() {
+		for (Appender appender : appenders) {
+			appender.flush();
+		}
+	}
+	
+	/**
+	 * Log summaries of messages suppressed by every rate limit in use.
+	 */
+	static void flushSuppressed() {
+		for (RateLimiter limiter : TEMPLATE_LIMITS.values()) {
+			limiter.flush();
+		}
+		RateLimiter limiter = ROOT.getRateLimit();
+		if (limiter != null) { limiter.flush(); }
+		for (NamedLogger logger : LOGGERS.values()) {
+			limiter = logger.getRateLimit();
+			if (limiter != null) { limiter.flush(); }
+		}
+	}
+	
+	/**
+	 * Log summaries of messages suppressed by rate limits, then flush anything
+	 * buffered by the appenders.
+	 * Events still queued when logging asynchronously are not waited for.
+	 */
+	public static void flush() {
+		flushSuppressed();
+		flushAppenders();
+	}
+	
+	/**
+	 * Add an appender to write events to.
+	 * By default there is a single ConsoleAppender.
+	 *
+	 * @param appender Appender to add.
+	 */
+	public static synchronized void addAppender(final Appender appender) {
+		final Appender[] newAppenders = Arrays.copyOf(appenders, appenders.length + 1);
+		newAppenders[appenders.length] = appender;
+		appenders = newAppenders;
+		addShutdownHook();
+	}
+	
+	/**
+	 * Stop writing events to an appender.
+	 * The appender is flushed, but not closed.
+	 *
+	 * @param appender Appender to remove.
+	 * @return true if the appender was removed, false if it was not in use.
+	 */
+	public static synchronized boolean removeAppender(final Appender appender) {
+		final List<Appender> list = new ArrayList<Appender>(Arrays.asList(appenders));
+		if (!list.remove(appender)) { return false; }
+		appenders = list.toArray(new Appender[list.size()]);
+		appender.flush();
+		return true;
+	}
+	
+	/**
+	 * Get the appenders currently in use.
+	 *
+	 * @return List of appenders.
+	 */
+	public static List<Appender> getAppenders() {
+		return new ArrayList<Appender>(Arrays.asList(appenders));
+	}
+	
+	/**
+	 * Make sure anything buffered is written out when the JVM exits.
+	 * Pending summaries of suppressed messages are logged, async events are
+	 * flushed (with a bounded wait), then appenders are closed.
+	 */
+	static synchronized void addShutdownHook() {
+		if (shutdownHookAdded) { return; }
+		shutdownHookAdded = true;
+		Runtime.getRuntime().addShutdownHook(new Thread("Logger Shutdown") {
+			@Override
+			public void run() {
+				flushSuppressed();
+				disableAsync(DEFAULT_FLUSH_TIMEOUT);
+				for (Appender appender : appenders) {
+					appender.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Start logging asynchronously.
+	 * Log calls will queue events in a fixed size buffer, and a background
+	 * thread will write them out. If already logging asynchronously, the old
+	 * buffer is flushed first.
+	 *
+	 * @param capacity Number of events to buffer (rounded up to a power of 2).
+	 * @param policy What to do when the buffer is full.
+	 */
+	public static synchronized void enableAsync(final int capacity, final OverflowPolicy policy) {
+		disableAsync(DEFAULT_FLUSH_TIMEOUT);
+		asyncWriter = new AsyncWriter(capacity, policy);
+		addShutdownHook();
+	}
+	
+	/**
+	 * Stop logging asynchronously, flushing anything still buffered.
+	 *
+	 * @param timeout Maximum time in milliseconds to wait for the flush.
+	 * @return true if all buffered events were written (or if not logging
+	 *         asynchronously), false if the timeout expired first.
+	 */
+	public static synchronized boolean disableAsync(final long timeout) {
+		final AsyncWriter writer = asyncWriter;
+		if (writer == null) { return true; }
+		asyncWriter = null;
+		final boolean result = writer.shutdown(timeout);
+		previousDropped += writer.getDropped();
+		return result;
+	}
+	
+	/**
+	 * Check if logging is currently asynchronous.
+	 *
+	 * @return true if log calls are being buffered for a background thread.
+	 */
+	public static boolean isAsync() {
+		return asyncWriter != null;
+	}
+	
+	/**
+	 * Get the number of events that were thrown away by the async buffer,
+	 * either because of the OverflowPolicy or because they were not flushed
+	 * in time when stopping.
+	 *
+	 * @return Total number of dropped events.
+	 */
+	public static synchronized long getDroppedCount() {
+		final AsyncWriter writer = asyncWriter;
+		return previousDropped + (writer == null ? 0 : writer.getDropped());
+	}
+	
+	/**
+	 * Log data at the error level.
 	 *
 	 * @param data Information to log.
 	 */
-	public static void debug3(final String data) {
-		log(LogLevel.DEBUG3, data);
+	public static void error(final String data) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, data);
+		}
 	}
 
 	/**
-	 * Log data at the debug4 level.
+	 * Log data at the error level.
 	 *
-	 * @param data Information to log.
+	 * @param data Supplier for the information to log.
 	 */
-	public static void debug4(final String data) {
-		log(LogLevel.DEBUG4, data);
+	public static void error(final Supplier<String> data) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, data);
+		}
 	}
 
 	/**
-	 * Log data at the debug5 level.
+	 * Log data at the error level.
 	 *
-	 * @param data Information to log.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
 	 */
-	public static void debug5(final String data) {
-		log(LogLevel.DEBUG5, data);
+	public static void error(final String format, final Object arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
 	}
 
 	/**
-	 * Log data at the debug6 level.
+	 * Log data at the error level.
 	 *
-	 * @param data Information to log.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
 	 */
-	public static void debug6(final String data) {
-		log(LogLevel.DEBUG6, data);
+	public static void error(final String format, final int arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
 	}
 
 	/**
-	 * Log data at the debug7 level.
+	 * Log data at the error level.
 	 *
-	 * @param data Information to log.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
 	 */
-	public static void debug7(final String data) {
-		log(LogLevel.DEBUG7, data);
+	public static void error(final String format, final long arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
 	}
 
 	/**
-	 * Log data at the debug8 level.
+	 * Log data at the error level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void error(final String format, final double arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the warning level.
 	 *
 	 * @param data Information to log.
 	 */
-	public static void debug8(final String data) {
-		log(LogLevel.DEBUG8, data);
+	public static void warning(final String data) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, data);
+		}
 	}
 
 	/**
-	 * Log data at the debug9 level.
+	 * Log data at the warning level.
 	 *
-	 * @param data Information to log.
+	 * @param data Supplier for the information to log.
 	 */
-	public static void debug9(final String data) {
-		log(LogLevel.DEBUG9, data);
+	public static void warning(final Supplier<String> data) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, data);
+		}
 	}
-	
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void warning(final String format, final Object arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void warning(final String format, final int arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void warning(final String format, final long arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void warning(final String format, final double arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void info(final String data) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, data);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void info(final Supplier<String> data) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, data);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void info(final String format, final Object arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void info(final String format, final int arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void info(final String format, final long arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void info(final String format, final double arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug(final String data) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug(final Supplier<String> data) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug(final String format, final Object arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug(final String format, final int arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug(final String format, final long arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug(final String format, final double arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug2(final String data) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug2(final Supplier<String> data) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug2(final String format, final Object arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug2(final String format, final int arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug2(final String format, final long arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug2(final String format, final double arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug3(final String data) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug3(final Supplier<String> data) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug3(final String format, final Object arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug3(final String format, final int arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug3(final String format, final long arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug3(final String format, final double arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug4(final String data) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug4(final Supplier<String> data) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug4(final String format, final Object arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug4(final String format, final int arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug4(final String format, final long arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug4(final String format, final double arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug5(final String data) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug5(final Supplier<String> data) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug5(final String format, final Object arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug5(final String format, final int arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug5(final String format, final long arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug5(final String format, final double arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug6(final String data) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug6(final Supplier<String> data) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug6(final String format, final Object arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug6(final String format, final int arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug6(final String format, final long arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug6(final String format, final double arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug7(final String data) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug7(final Supplier<String> data) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug7(final String format, final Object arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug7(final String format, final int arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug7(final String format, final long arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug7(final String format, final double arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug8(final String data) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug8(final Supplier<String> data) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug8(final String format, final Object arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug8(final String format, final int arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug8(final String format, final long arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug8(final String format, final double arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public static void debug9(final String data) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public static void debug9(final Supplier<String> data) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug9(final String format, final Object arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug9(final String format, final int arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug9(final String format, final long arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public static void debug9(final String format, final double arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+	
+	/**
+	 * Start building an event with structured fields.
+	 * Nothing is built if the level is not being logged.
+	 *
+	 * @param level Level of the event.
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder at(final LogLevel level) {
+		return ROOT.at(level);
+	}
+
+	/**
+	 * Start building an event with structured fields at the error level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atError() {
+		return ROOT.atError();
+	}
+
+	/**
+	 * Start building an event with structured fields at the warning level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atWarning() {
+		return ROOT.atWarning();
+	}
+
+	/**
+	 * Start building an event with structured fields at the info level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atInfo() {
+		return ROOT.atInfo();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug() {
+		return ROOT.atDebug();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug2 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug2() {
+		return ROOT.atDebug2();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug3 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug3() {
+		return ROOT.atDebug3();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug4 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug4() {
+		return ROOT.atDebug4();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug5 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug5() {
+		return ROOT.atDebug5();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug6 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug6() {
+		return ROOT.atDebug6();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug7 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug7() {
+		return ROOT.atDebug7();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug8 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug8() {
+		return ROOT.atDebug8();
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug9 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public static LogBuilder atDebug9() {
+		return ROOT.atDebug9();
+	}
+
 	/**
 	 * Get the current log level.
 	 * Any data above the current log level will not be logged.
@@ -159,7 +1524,7 @@ public class Logger {
 	 * @return The current LogLevel.
 	 */
 	public static LogLevel getLevel() {
-		return logLevel;
+		return ROOT.getEffectiveLevel();
 	}
 	
 	/**
@@ -169,8 +1534,8 @@ public class Logger {
 	 * @param level The new LogLevel.
 	 */
 	public static void setLevel(final LogLevel level) {
-		logLevel = level;
-		debug2("LogLevel changed to: "+level);
+		ROOT.setLevel(level);
+		debug2("LogLevel changed to: {}", level);
 	}
 
 	/** Prevent instances of Logger */
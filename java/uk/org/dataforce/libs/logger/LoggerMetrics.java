@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the Logger is doing, as returned by Logger.getMetrics() once
+ * enabled with Logger.setMetricsEnabled().
+ *
+ * For each level this counts events emitted (passed the level check and
+ * rate limits, and handed to the appenders or async buffer), filtered (not
+ * logged because of their level) and dropped (thrown away by a rate limit or
+ * a full async buffer). The time taken by each appender to write an event is
+ * kept in a LatencyHistogram.
+ *
+ * All the counts are LongAdders, so updating them from many threads does not
+ * add contention to the logging path. The same figures are available over JMX
+ * as uk.org.dataforce.libs.logger:type=LoggerMetrics.
+ */
+public final class LoggerMetrics implements LoggerMetricsMXBean {
+	/** Name the metrics are registered with JMX under. */
+	public static final String OBJECT_NAME = "uk.org.dataforce.libs.logger:type=LoggerMetrics";
+
+	/** Emitted counts, by level ordinal. */
+	private final LongAdder[] emitted;
+	/** Filtered counts, by level ordinal. */
+	private final LongAdder[] filtered;
+	/** Dropped counts, by level ordinal. */
+	private final LongAdder[] dropped;
+	/** Write times for each appender. */
+	private final ConcurrentHashMap<Appender, LatencyHistogram> writeTimes = new ConcurrentHashMap<Appender, LatencyHistogram>();
+
+	/** Create a new LoggerMetrics. */
+	LoggerMetrics() {
+		final int levels = LogLevel.values().length;
+		emitted = new LongAdder[levels];
+		filtered = new LongAdder[levels];
+		dropped = new LongAdder[levels];
+		for (int i = 0; i < levels; i++) {
+			emitted[i] = new LongAdder();
+			filtered[i] = new LongAdder();
+			dropped[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Count an emitted event.
+	 *
+	 * @param level Level of the event.
+	 */
+	void emitted(final LogLevel level) {
+		emitted[level.ordinal()].increment();
+	}
+
+	/**
+	 * Count a filtered event.
+	 *
+	 * @param level Level of the event.
+	 */
+	void filtered(final LogLevel level) {
+		filtered[level.ordinal()].increment();
+	}
+
+	/**
+	 * Count a dropped event.
+	 *
+	 * @param level Level of the event.
+	 */
+	void dropped(final LogLevel level) {
+		dropped[level.ordinal()].increment();
+	}
+
+	/**
+	 * Record the time taken to write an event to an appender.
+	 *
+	 * @param appender Appender written to.
+	 * @param nanos Time taken in nanoseconds.
+	 */
+	void written(final Appender appender, final long nanos) {
+		LatencyHistogram histogram = writeTimes.get(appender);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			final LatencyHistogram existing = writeTimes.putIfAbsent(appender, histogram);
+			if (existing != null) { histogram = existing; }
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Get the number of events emitted at a level.
+	 *
+	 * @param level Level to get.
+	 * @return Number of events.
+	 */
+	public long getEmitted(final LogLevel level) {
+		return emitted[level.ordinal()].sum();
+	}
+
+	/**
+	 * Get the number of events filtered at a level.
+	 *
+	 * @param level Level to get.
+	 * @return Number of events.
+	 */
+	public long getFiltered(final LogLevel level) {
+		return filtered[level.ordinal()].sum();
+	}
+
+	/**
+	 * Get the number of events dropped at a level.
+	 * Events left unwritten when an async flush times out are not included,
+	 * see Logger.getDroppedCount() for those.
+	 *
+	 * @param level Level to get.
+	 * @return Number of events.
+	 */
+	public long getDropped(final LogLevel level) {
+		return dropped[level.ordinal()].sum();
+	}
+
+	/**
+	 * Get the write times for an appender.
+	 *
+	 * @param appender Appender to get.
+	 * @return Histogram of write times, or null if nothing has been written to
+	 *         the appender.
+	 */
+	public LatencyHistogram getWriteTimes(final Appender appender) {
+		return writeTimes.get(appender);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getEmitted() {
+		return byLevel(emitted);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getFiltered() {
+		return byLevel(filtered);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getDropped() {
+		return byLevel(dropped);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getAsyncQueueDepth() {
+		return Logger.getAsyncQueueDepth();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getAppenderWrites() {
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Appender, LatencyHistogram> entry : writeTimes.entrySet()) {
+			result.put(String.valueOf(entry.getKey()), entry.getValue().getCount());
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Double> getAppenderMeanNanos() {
+		final Map<String, Double> result = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Appender, LatencyHistogram> entry : writeTimes.entrySet()) {
+			result.put(String.valueOf(entry.getKey()), entry.getValue().getMean());
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getAppender99thPercentileNanos() {
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Appender, LatencyHistogram> entry : writeTimes.entrySet()) {
+			result.put(String.valueOf(entry.getKey()), entry.getValue().getPercentile(99));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() {
+		for (int i = 0; i < emitted.length; i++) {
+			emitted[i].reset();
+			filtered[i].reset();
+			dropped[i].reset();
+		}
+		writeTimes.clear();
+	}
+
+	/**
+	 * Turn per level counts into a map.
+	 *
+	 * @param counts Counts by level ordinal.
+	 * @return Counts by level name.
+	 */
+	private static Map<String, Long> byLevel(final LongAdder[] counts) {
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (LogLevel level : LogLevel.values()) {
+			result.put(level.toString(), counts[level.ordinal()].sum());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.Map;
+
+/**
+ * JMX view of LoggerMetrics.
+ * Counts are keyed by level name, and appender figures by appender.
+ */
+public interface LoggerMetricsMXBean {
+	/**
+	 * Get the number of events written (or queued to be written) per level.
+	 *
+	 * @return Emitted counts by level.
+	 */
+	Map<String, Long> getEmitted();
+
+	/**
+	 * Get the number of events not logged because of their level, per level.
+	 *
+	 * @return Filtered counts by level.
+	 */
+	Map<String, Long> getFiltered();
+
+	/**
+	 * Get the number of events thrown away by rate limits or a full async
+	 * buffer, per level.
+	 *
+	 * @return Dropped counts by level.
+	 */
+	Map<String, Long> getDropped();
+
+	/**
+	 * Get the number of events waiting in the async buffer.
+	 *
+	 * @return Queue depth, 0 if not logging asynchronously.
+	 */
+	long getAsyncQueueDepth();
+
+	/**
+	 * Get the number of writes to each appender.
+	 *
+	 * @return Write counts by appender.
+	 */
+	Map<String, Long> getAppenderWrites();
+
+	/**
+	 * Get the mean time taken to write to each appender.
+	 *
+	 * @return Mean write time in nanoseconds by appender.
+	 */
+	Map<String, Double> getAppenderMeanNanos();
+
+	/**
+	 * Get an upper bound of the 99th percentile time taken to write to each
+	 * appender.
+	 *
+	 * @return 99th percentile write time in nanoseconds by appender.
+	 */
+	Map<String, Long> getAppender99thPercentileNanos();
+
+	/** Clear all the counts. */
+	void reset();
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Mapped diagnostic context: key/value pairs (eg, a request id) attached to
+ * everything a thread logs, without adding them to each message.
+ *
+ * Each thread has a small fixed size array of pairs rather than a map, so
+ * logging copies at most MAX_ENTRIES references into the event and nothing
+ * is allocated. The pairs are rendered by the text appenders as
+ * "[key=value, key=value] " before the message, and kept by
+ * BinaryFileAppender.
+ *
+ * New threads, including virtual threads, start with a copy of the context
+ * of the thread that created them. Tasks handed to a thread pool do not, so
+ * wrap them (or the executor) with wrap() to carry the context over.
+ */
+public final class MDC {
+	/** Maximum number of pairs in a context. */
+	public static final int MAX_ENTRIES = 8;
+
+	/** Context for each thread. */
+	private static final InheritableThreadLocal<Context> CONTEXTS = new InheritableThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return new Context();
+		}
+
+		@Override
+		protected Context childValue(final Context parent) {
+			return parent.copy();
+		}
+	};
+
+	/** Prevent instances of MDC. */
+	private MDC() { }
+
+	/**
+	 * Set a value in the calling thread's context.
+	 *
+	 * @param key Key to set.
+	 * @param value Value to set, or null to remove the key.
+	 * @throws IllegalStateException If there are already MAX_ENTRIES keys.
+	 */
+	public static void put(final String key, final String value) {
+		if (value == null) {
+			remove(key);
+		} else {
+			CONTEXTS.get().put(key, value);
+		}
+	}
+
+	/**
+	 * Get a value from the calling thread's context.
+	 *
+	 * @param key Key to get.
+	 * @return The value, or null if not set.
+	 */
+	public static String get(final String key) {
+		return CONTEXTS.get().get(key);
+	}
+
+	/**
+	 * Remove a value from the calling thread's context.
+	 *
+	 * @param key Key to remove.
+	 */
+	public static void remove(final String key) {
+		CONTEXTS.get().remove(key);
+	}
+
+	/** Remove everything from the calling thread's context. */
+	public static void clear() {
+		CONTEXTS.get().clear();
+	}
+
+	/**
+	 * Get a copy of the calling thread's context.
+	 *
+	 * @return Copy of the context.
+	 */
+	public static Context capture() {
+		return CONTEXTS.get().copy();
+	}
+
+	/**
+	 * Get the calling thread's context.
+	 *
+	 * @return The live context.
+	 */
+	static Context current() {
+		return CONTEXTS.get();
+	}
+
+	/**
+	 * Wrap a task so that it runs with the calling thread's current context,
+	 * whichever thread runs it.
+	 *
+	 * @param task Task to wrap.
+	 * @return Wrapped task.
+	 */
+	public static Runnable wrap(final Runnable task) {
+		final Context captured = capture();
+		return new Runnable() {
+			@Override
+			public void run() {
+				final Context previous = CONTEXTS.get();
+				CONTEXTS.set(captured.copy());
+				try {
+					task.run();
+				} finally {
+					CONTEXTS.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a task so that it runs with the calling thread's current context,
+	 * whichever thread runs it.
+	 *
+	 * @param <T> Type of result.
+	 * @param task Task to wrap.
+	 * @return Wrapped task.
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+		final Context captured = capture();
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				final Context previous = CONTEXTS.get();
+				CONTEXTS.set(captured.copy());
+				try {
+					return task.call();
+				} finally {
+					CONTEXTS.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap an executor so that each task runs with the context of the thread
+	 * that submitted it.
+	 *
+	 * @param executor Executor to wrap.
+	 * @return Wrapped executor.
+	 */
+	public static Executor wrap(final Executor executor) {
+		return new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				executor.execute(wrap(command));
+			}
+		};
+	}
+
+	/**
+	 * A set of context pairs.
+	 */
+	public static final class Context {
+		/** Keys, the first size are in use. */
+		private final String[] keys = new String[MAX_ENTRIES];
+		/** Values for each key. */
+		private final String[] values = new String[MAX_ENTRIES];
+		/** Number of pairs. */
+		private int size = 0;
+
+		/** Create a new, empty, Context. */
+		Context() { }
+
+		/**
+		 * Get the number of pairs.
+		 *
+		 * @return Number of pairs.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Get a key.
+		 *
+		 * @param index Pair to get.
+		 * @return Key of the pair.
+		 */
+		public String getKey(final int index) {
+			return keys[index];
+		}
+
+		/**
+		 * Get a value.
+		 *
+		 * @param index Pair to get.
+		 * @return Value of the pair.
+		 */
+		public String getValue(final int index) {
+			return values[index];
+		}
+
+		/**
+		 * Get the value for a key.
+		 *
+		 * @param key Key to get.
+		 * @return The value, or null if not set.
+		 */
+		public String get(final String key) {
+			final int index = indexOf(key);
+			return (index < 0) ? null : values[index];
+		}
+
+		/**
+		 * Set the value for a key.
+		 *
+		 * @param key Key to set.
+		 * @param value Value to set.
+		 */
+		void put(final String key, final String value) {
+			final int index = indexOf(key);
+			if (index >= 0) {
+				values[index] = value;
+			} else if (size == MAX_ENTRIES) {
+				throw new IllegalStateException("MDC already has "+MAX_ENTRIES+" entries");
+			} else {
+				keys[size] = key;
+				values[size++] = value;
+			}
+		}
+
+		/**
+		 * Remove a key, keeping the others in order.
+		 *
+		 * @param key Key to remove.
+		 */
+		void remove(final String key) {
+			final int index = indexOf(key);
+			if (index < 0) { return; }
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			size--;
+			keys[size] = null;
+			values[size] = null;
+		}
+
+		/** Remove every key. */
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				keys[i] = null;
+				values[i] = null;
+			}
+			size = 0;
+		}
+
+		/**
+		 * Copy this context.
+		 *
+		 * @return A new context with the same pairs.
+		 */
+		Context copy() {
+			final Context result = new Context();
+			System.arraycopy(keys, 0, result.keys, 0, size);
+			System.arraycopy(values, 0, result.values, 0, size);
+			result.size = size;
+			return result;
+		}
+
+		/**
+		 * Find a key.
+		 *
+		 * @param key Key to find.
+		 * @return Index of the key, or -1 if not set.
+		 */
+		private int indexOf(final String key) {
+			for (int i = 0; i < size; i++) {
+				if (keys[i].equals(key)) { return i; }
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appender that writes "[Level] name: message" lines into memory mapped files.
+ *
+ * Output goes to a series of fixed size segment files named "name.000001",
+ * "name.000002" and so on. Writers reserve space in the current segment by
+ * bumping an atomic tail and copy their line straight into the mapping, so
+ * there are no locks or system calls when logging. The writer whose line does
+ * not fit seals the segment and switches everyone to the next one, which a
+ * background thread has already created and mapped. The same thread waits for
+ * writers to finish with the old segment, trims the file to the data written
+ * and unmaps it.
+ *
+ * Written lines are in the operating system's page cache as soon as they are
+ * copied, so they survive the JVM crashing (but not the machine). Space that
+ * was reserved but not yet written at the time of a crash reads as zero bytes.
+ * Lines can be written as JSON instead with setFormat().
+ */
+public class MappedFileAppender implements Appender {
+	/** Default size of each segment. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	/** How long to wait for writers to finish when closing, in milliseconds. */
+	private static final long CLOSE_TIMEOUT = 5000;
+	/** How long the background thread parks for when there is nothing to do. */
+	private static final long IDLE_PARK_NANOS = 1000000L;
+	/** Updater for current, to install a spare when there is none. */
+	private static final AtomicReferenceFieldUpdater<MappedFileAppender, Segment> CURRENT = AtomicReferenceFieldUpdater.newUpdater(MappedFileAppender.class, Segment.class, "current");
+	/** Unsafe instance used to unmap buffers, or null if unavailable. */
+	private static final Object UNSAFE;
+	/** Unsafe.invokeCleaner(ByteBuffer), or null if unavailable. */
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			// Mappings will be released by the garbage collector instead.
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	/**
+	 * A single mapped segment file.
+	 */
+	private static final class Segment {
+		/** The file. */
+		final File file;
+		/** Channel for the file. */
+		final FileChannel channel;
+		/** The mapping. */
+		final MappedByteBuffer buffer;
+		/** Size of the mapping. */
+		final int size;
+		/** Next free offset. This goes past size once the segment is sealed. */
+		final AtomicLong tail = new AtomicLong(0);
+		/** Number of bytes written, or given up, by writers. */
+		final AtomicLong committed = new AtomicLong(0);
+		/** Offset of the end of the data, set when sealed. */
+		volatile long end = -1;
+
+		/**
+		 * Create and map a new segment file.
+		 *
+		 * @param file File to create.
+		 * @param size Size of the segment.
+		 * @throws IOException If the file can not be created or mapped.
+		 */
+		Segment(final File file, final int size) throws IOException {
+			this.file = file;
+			this.size = size;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		/**
+		 * Check if every writer has finished with this segment.
+		 *
+		 * @return true if the segment is sealed and nothing is still writing.
+		 */
+		boolean isComplete() {
+			return end >= 0 && committed.get() == size;
+		}
+	}
+
+	/** Base name of the segment files. */
+	private final File file;
+	/** Size of each segment. */
+	private final int segmentSize;
+	/**
+	 * Segment being written, or null if closed or a new segment could not be
+	 * created (until the background thread gets a spare ready).
+	 */
+	private volatile Segment current;
+	/** Next segment, created in advance by the background thread. */
+	private final AtomicReference<Segment> spare = new AtomicReference<Segment>();
+	/** Sealed segments waiting to be finished off. */
+	private final Queue<Segment> retired = new ConcurrentLinkedQueue<Segment>();
+	/** Number of the last segment file created. */
+	private final AtomicLong lastIndex;
+	/** Number of lines that could not be written. */
+	private final AtomicLong dropped = new AtomicLong(0);
+	/** Background thread. */
+	private final Thread background;
+	/** Has this appender been closed? */
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	/** Format of the lines. */
+	private volatile LineFormat format = LineFormat.TEXT;
+
+	/**
+	 * Create a new MappedFileAppender with DEFAULT_SEGMENT_SIZE segments.
+	 *
+	 * @param filename Base name of the segment files.
+	 * @throws IOException If the first segment can not be created.
+	 */
+	public MappedFileAppender(final String filename) throws IOException {
+		this(filename, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Create a new MappedFileAppender.
+	 *
+	 * @param filename Base name of the segment files.
+	 * @param segmentSize Size of each segment in bytes.
+	 * @throws IOException If the first segment can not be created.
+	 */
+	public MappedFileAppender(final String filename, final int segmentSize) throws IOException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("Segment size must be positive: "+segmentSize);
+		}
+		this.file = new File(filename).getAbsoluteFile();
+		this.segmentSize = segmentSize;
+
+		final File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) { dir.mkdirs(); }
+		lastIndex = new AtomicLong(findLastIndex());
+		current = newSegment();
+
+		background = new Thread("MappedFileAppender: "+file.getName()) {
+			@Override
+			public void run() {
+				runBackground();
+			}
+		};
+		background.setDaemon(true);
+		background.start();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void append(final LogEvent event) {
+		final ByteBuffer bytes = TextEncoder.get(format).encode(event);
+		final int length = bytes.remaining();
+		if (length > segmentSize) {
+			dropped.incrementAndGet();
+			return;
+		}
+		while (true) {
+			final Segment segment = current;
+			if (segment == null) {
+				if (!installSpare()) {
+					dropped.incrementAndGet();
+					return;
+				}
+				continue;
+			}
+			final long offset = segment.tail.getAndAdd(length);
+			if (offset + length <= segment.size) {
+				segment.buffer.put((int) offset, bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+				segment.committed.addAndGet(length);
+				return;
+			} else if (offset <= segment.size) {
+				// This line sealed the segment, so move everyone on to the next.
+				seal(segment, offset);
+				rotate(segment);
+			} else {
+				// Someone else sealed it, wait for them to move us on.
+				while (current == segment) {
+					Thread.onSpinWait();
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Lines are in the page cache as soon as they are written, so there is
+	 * nothing to do.
+	 */
+	@Override
+	public void flush() {
+		// Nothing is buffered.
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true)) { return; }
+		retireCurrent();
+		LockSupport.unpark(background);
+		try {
+			background.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get how events are written.
+	 *
+	 * @return Format of the lines.
+	 */
+	public LineFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Set how events are written, from the next event.
+	 *
+	 * @param newFormat Format of the lines.
+	 */
+	public void setFormat(final LineFormat newFormat) {
+		format = newFormat;
+	}
+
+	/**
+	 * Get the number of lines that could not be written, because they were
+	 * too long or a new segment could not be created.
+	 *
+	 * @return Number of dropped lines.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Seal a segment so no more lines are written to it.
+	 *
+	 * @param segment Segment to seal.
+	 * @param offset Offset reserved by the sealing writer, which becomes the
+	 *               end of the data.
+	 */
+	private void seal(final Segment segment, final long offset) {
+		segment.end = offset;
+		segment.committed.addAndGet(segment.size - offset);
+	}
+
+	/**
+	 * Seal the current segment and leave none in its place, when closing.
+	 */
+	private void retireCurrent() {
+		while (true) {
+			final Segment segment = current;
+			if (segment == null) { return; }
+			final long offset = segment.tail.getAndAdd(segment.size + 1L);
+			if (offset <= segment.size) {
+				seal(segment, offset);
+				current = null;
+				retired.add(segment);
+				return;
+			}
+			while (current == segment) {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Install the spare segment if there is no current one, as happens when
+	 * a new segment could not be created at the last rotation.
+	 *
+	 * @return true if there may now be a current segment to write to, false
+	 *         if closed or there is no spare yet.
+	 */
+	private boolean installSpare() {
+		if (closed.get()) { return false; }
+		final Segment next = spare.getAndSet(null);
+		if (next == null) { return current != null; }
+		if (!CURRENT.compareAndSet(this, null, next)) {
+			// Someone else got there first, keep this one for later.
+			if (!spare.compareAndSet(null, next)) { discard(next); }
+			return true;
+		}
+		// close() may have missed it.
+		if (closed.get()) { retireCurrent(); }
+		return true;
+	}
+
+	/**
+	 * Replace the current segment with the spare one.
+	 * If the background thread has not got a spare ready yet, one is created
+	 * here. If that fails, there is no current segment until the background
+	 * thread has a spare to install.
+	 *
+	 * @param old Segment that has just been sealed.
+	 */
+	private void rotate(final Segment old) {
+		Segment next = spare.getAndSet(null);
+		if (next == null && !closed.get()) {
+			try {
+				next = newSegment();
+			} catch (IOException e) {
+				error(e);
+			}
+		}
+		current = next;
+		retired.add(old);
+		LockSupport.unpark(background);
+	}
+
+	/** Prepare spare segments and finish off retired ones until closed. */
+	private void runBackground() {
+		while (!closed.get() || current != null || !retired.isEmpty()) {
+			boolean busy = false;
+			final Segment segment = retired.peek();
+			if (segment != null && segment.isComplete()) {
+				retired.poll();
+				finish(segment);
+				busy = true;
+			}
+			if (!closed.get() && spare.get() == null) {
+				try {
+					final Segment next = newSegment();
+					if (!spare.compareAndSet(null, next)) {
+						discard(next);
+					}
+				} catch (IOException e) {
+					error(e);
+				}
+			}
+			if (current == null && !closed.get() && installSpare()) {
+				busy = true;
+			}
+			if (!busy) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+		final Segment unused = spare.getAndSet(null);
+		if (unused != null) { discard(unused); }
+	}
+
+	/**
+	 * Trim a completed segment to the data written, and unmap it.
+	 *
+	 * @param segment Segment to finish.
+	 */
+	private void finish(final Segment segment) {
+		try {
+			segment.buffer.force();
+			unmap(segment.buffer);
+			segment.channel.truncate(segment.end);
+			segment.channel.close();
+		} catch (IOException e) {
+			error(e);
+		}
+	}
+
+	/**
+	 * Throw away a segment that was never used.
+	 *
+	 * @param segment Segment to remove.
+	 */
+	private void discard(final Segment segment) {
+		try {
+			unmap(segment.buffer);
+			segment.channel.close();
+		} catch (IOException e) {
+			error(e);
+		}
+		segment.file.delete();
+	}
+
+	/**
+	 * Create and map the next segment file.
+	 *
+	 * @return The new segment.
+	 * @throws IOException If the file can not be created.
+	 */
+	private Segment newSegment() throws IOException {
+		return new Segment(new File(String.format("%s.%06d", file.getPath(), lastIndex.incrementAndGet())), segmentSize);
+	}
+
+	/**
+	 * Find the number of the last segment file from a previous run.
+	 *
+	 * @return Highest existing segment number, or 0 if there are none.
+	 */
+	private long findLastIndex() {
+		long result = 0;
+		final String prefix = file.getName() + ".";
+		final File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null) { return result; }
+		for (File f : files) {
+			final String name = f.getName();
+			if (name.startsWith(prefix)) {
+				try {
+					result = Math.max(result, Long.parseLong(name.substring(prefix.length())));
+				} catch (NumberFormatException nfe) {
+					// Not a segment.
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Unmap a buffer now rather than waiting for the garbage collector.
+	 * Only call this once nothing can touch the buffer again.
+	 *
+	 * @param buffer Buffer to unmap.
+	 */
+	private static void unmap(final MappedByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) { return; }
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (Exception e) {
+			// Left for the garbage collector.
+		}
+	}
+
+	/**
+	 * Report an error with a segment file.
+	 * This can't be logged, as that could just cause the same error again.
+	 *
+	 * @param e The error.
+	 */
+	private void error(final IOException e) {
+		System.err.println("MappedFileAppender: Error with "+file+": "+e.getMessage());
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * InputStream reading a file through memory mapped windows, so that files
+ * larger than a single mapping can be read and seeking is just moving a
+ * position. The stream does no buffering of its own, so position() is always
+ * the offset of the next byte to be read.
+ */
+final class MappedInputStream extends InputStream {
+	/** Size of each mapped window. */
+	static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+	/** Channel for the file. */
+	private final FileChannel channel;
+	/** Size of the file when it was opened, nothing after this is read. */
+	private final long size;
+	/** Current window, or null if nothing is mapped at the position. */
+	private MappedByteBuffer buffer;
+	/** Offset in the file of the start of the window. */
+	private long bufferStart = 0;
+
+	/**
+	 * Create a new MappedInputStream.
+	 *
+	 * @param channel Channel for the file, closed when this is.
+	 * @param size Number of bytes of the file to read.
+	 */
+	MappedInputStream(final FileChannel channel, final long size) {
+		this.channel = channel;
+		this.size = size;
+	}
+
+	/**
+	 * Get the offset of the next byte to be read.
+	 *
+	 * @return Offset in the file.
+	 */
+	long position() {
+		return (buffer == null) ? bufferStart : bufferStart + buffer.position();
+	}
+
+	/**
+	 * Get the number of bytes of the file being read.
+	 *
+	 * @return Size of the file.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Move to a new position, keeping the current window if it covers it.
+	 *
+	 * @param position Offset in the file of the next byte to read.
+	 */
+	void seek(final long position) {
+		if (buffer != null && position >= bufferStart && position <= bufferStart + buffer.limit()) {
+			buffer.position((int) (position - bufferStart));
+		} else {
+			buffer = null;
+			bufferStart = position;
+		}
+	}
+
+	/**
+	 * Make sure there is something to read in the current window.
+	 *
+	 * @return false at the end of the file.
+	 * @throws IOException If the file can not be mapped.
+	 */
+	private boolean fill() throws IOException {
+		if (buffer != null && buffer.hasRemaining()) { return true; }
+		final long position = position();
+		if (position >= size) { return false; }
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+		bufferStart = position;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read() throws IOException {
+		return fill() ? buffer.get() & 0xFF : -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+		if (length == 0) { return 0; }
+		if (!fill()) { return -1; }
+		final int count = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, count);
+		return count;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		channel.close();
+	}
+}
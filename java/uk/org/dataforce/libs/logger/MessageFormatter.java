@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+/**
+ * Substitutes arguments into "{}" placeholders in Logger messages.
+ * Each "{}" is replaced by the next argument in order. Placeholders with no
+ * matching argument are left as they are, and extra arguments are ignored.
+ */
+final class MessageFormatter {
+	/** Placeholder to replace. */
+	private static final String PLACEHOLDER = "{}";
+
+	/**
+	 * Copy the format up to the next placeholder.
+	 *
+	 * @param sb Builder to append to.
+	 * @param format Format being expanded.
+	 * @param from Position in the format to start from.
+	 * @return Position after the placeholder, or -1 if there are no more
+	 *         placeholders (in which case the rest of the format is copied).
+	 */
+	static int appendUntilPlaceholder(final StringBuilder sb, final String format, final int from) {
+		if (from < 0) { return -1; }
+		final int index = format.indexOf(PLACEHOLDER, from);
+		if (index < 0) {
+			sb.append(format, from, format.length());
+			return -1;
+		}
+		sb.append(format, from, index);
+		return index + PLACEHOLDER.length();
+	}
+
+	/**
+	 * Copy the remainder of the format.
+	 *
+	 * @param sb Builder to append to.
+	 * @param format Format being expanded.
+	 * @param from Position in the format to start from, or -1 for none.
+	 */
+	static void appendRest(final StringBuilder sb, final String format, final int from) {
+		if (from >= 0) { sb.append(format, from, format.length()); }
+	}
+
+	/**
+	 * Expand a format with any number of arguments.
+	 *
+	 * @param sb Builder to expand into.
+	 * @param format Format to expand.
+	 * @param args Arguments.
+	 */
+	static void format(final StringBuilder sb, final String format, final Object... args) {
+		int pos = 0;
+		for (Object arg : args) {
+			pos = appendUntilPlaceholder(sb, format, pos);
+			if (pos < 0) { break; }
+			sb.append(arg);
+		}
+		appendRest(sb, format, pos);
+	}
+
+	/** Prevent instances of MessageFormatter. */
+	private MessageFormatter() { }
+}
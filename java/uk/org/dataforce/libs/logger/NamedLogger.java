@@ -0,0 +1,1445 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A named Logger, as returned by Logger.get().
+ *
+ * Named loggers form a hierarchy using the dots in their names, with the root
+ * logger (named "") at the top, so "uk.org.dataforce.libs" is the parent of
+ * "uk.org.dataforce.libs.cliparser". A logger with no level of its own uses
+ * its parent's. The effective level is worked out whenever a level in the
+ * hierarchy changes and cached in each logger, so checking whether a level is
+ * logged is a single field read.
+ */
+public final class NamedLogger {
+	/** Name of this logger. */
+	private final String name;
+	/** Parent of this logger, or null for the root logger. */
+	private final NamedLogger parent;
+	/** Children of this logger, guarded by Logger.HIERARCHY_LOCK. */
+	private final List<NamedLogger> children = new ArrayList<NamedLogger>();
+	/** Level set on this logger, or null to use the parent's. */
+	private LogLevel level;
+	/** Level actually used by this logger. */
+	private volatile LogLevel effectiveLevel;
+	/** Limiter for everything logged by this logger, or null for none. */
+	private volatile RateLimiter limiter;
+	/** Sources for messages suppressed by this logger's limiter, by level. */
+	private final RateLimiter.Source[] limitSources = new RateLimiter.Source[LogLevel.values().length];
+	/** Sources for messages suppressed by template limiters, by template and level. */
+	private final ConcurrentHashMap<String, RateLimiter.Source[]> templateSources = new ConcurrentHashMap<String, RateLimiter.Source[]>();
+	
+	/**
+	 * Create a new NamedLogger.
+	 * This should only be called by Logger, holding HIERARCHY_LOCK.
+	 *
+	 * @param name Name of this logger.
+	 * @param parent Parent logger, or null for the root logger.
+	 * @param level Level for this logger, or null to use the parent's.
+	 */
+	NamedLogger(final String name, final NamedLogger parent, final LogLevel level) {
+		this.name = name;
+		this.parent = parent;
+		this.level = level;
+		if (parent != null) {
+			parent.children.add(this);
+			effectiveLevel = (level == null) ? parent.effectiveLevel : level;
+		} else {
+			effectiveLevel = level;
+		}
+	}
+	
+	/**
+	 * Get the name of this logger.
+	 *
+	 * @return Name of this logger ("" for the root logger).
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Get the parent of this logger.
+	 *
+	 * @return Parent logger, or null if this is the root logger.
+	 */
+	public NamedLogger getParent() {
+		return parent;
+	}
+	
+	/**
+	 * Get the level set on this logger.
+	 *
+	 * @return The level set on this logger, or null if it uses its parent's.
+	 */
+	public LogLevel getLevel() {
+		synchronized (Logger.HIERARCHY_LOCK) {
+			return level;
+		}
+	}
+	
+	/**
+	 * Get the level used by this logger.
+	 * Any data above this level will not be logged.
+	 *
+	 * @return The effective LogLevel.
+	 */
+	public LogLevel getEffectiveLevel() {
+		return effectiveLevel;
+	}
+	
+	/**
+	 * Set the level for this logger and any children without their own level.
+	 *
+	 * @param newLevel The new LogLevel, or null to use the parent's level.
+	 *                 The root logger must always have a level.
+	 */
+	public void setLevel(final LogLevel newLevel) {
+		if (newLevel == null && parent == null) {
+			throw new IllegalArgumentException("The root logger must have a level");
+		}
+		synchronized (Logger.HIERARCHY_LOCK) {
+			applyLevel(newLevel);
+			Logger.updateGuards();
+		}
+	}
+	
+	/**
+	 * Set the level for this logger without updating the LevelGuards, so
+	 * that several loggers can be changed at once.
+	 * This must be called holding HIERARCHY_LOCK.
+	 *
+	 * @param newLevel The new LogLevel, or null to use the parent's level.
+	 */
+	void applyLevel(final LogLevel newLevel) {
+		if (newLevel == null && parent == null) {
+			throw new IllegalArgumentException("The root logger must have a level");
+		}
+		level = newLevel;
+		update();
+	}
+	
+	/**
+	 * Work out the effective level of this logger and its children again.
+	 * This must be called holding HIERARCHY_LOCK.
+	 */
+	private void update() {
+		final LogLevel newLevel = (level == null) ? parent.effectiveLevel : level;
+		effectiveLevel = newLevel;
+		for (NamedLogger child : children) {
+			if (child.level == null) {
+				child.update();
+			}
+		}
+	}
+	
+	/**
+	 * Check if data at the given level will be logged.
+	 *
+	 * @param check Level to check.
+	 * @return true if data at this level is currently logged.
+	 */
+	public boolean isLoggable(final LogLevel check) {
+		return check.isLoggable(effectiveLevel) && check != LogLevel.SILENT;
+	}
+	
+	/**
+	 * Get the limiter for everything logged by this logger.
+	 *
+	 * @return The RateLimiter, or null if this logger is not limited.
+	 */
+	public RateLimiter getRateLimit() {
+		return limiter;
+	}
+	
+	/**
+	 * Limit how often this logger writes messages.
+	 * This applies to messages logged through this logger only, not its
+	 * children. Limits on message templates (see Logger.setRateLimit()) still
+	 * apply as well. Any summary still pending on the old limiter is logged.
+	 *
+	 * @param newLimiter The RateLimiter to use, or null to remove the limit.
+	 */
+	public void setRateLimit(final RateLimiter newLimiter) {
+		final RateLimiter old = limiter;
+		limiter = newLimiter;
+		if (old != null && old != newLimiter) { old.flush(); }
+		if (newLimiter != null) { Logger.addShutdownHook(); }
+	}
+	
+	/**
+	 * Get the source for messages at a level suppressed by a RateLimiter,
+	 * creating it the first time.
+	 * Sources are filled in without locking, but as they are immutable the
+	 * worst a race can do is create one twice.
+	 *
+	 * @param level Level of the messages.
+	 * @param template Template that was limited, or null if this logger was.
+	 * @return The source.
+	 */
+	RateLimiter.Source getLimitSource(final LogLevel level, final String template) {
+		RateLimiter.Source[] sources = limitSources;
+		if (template != null) {
+			sources = templateSources.get(template);
+			if (sources == null) {
+				sources = templateSources.computeIfAbsent(template, t -> new RateLimiter.Source[LogLevel.values().length]);
+			}
+		}
+		RateLimiter.Source source = sources[level.ordinal()];
+		if (source == null) {
+			source = new RateLimiter.Source(this, level, template);
+			sources[level.ordinal()] = source;
+		}
+		return source;
+	}
+	
+	/**
+	 * Check if a message should be built, because it is going to be written
+	 * or kept by the flight recorder.
+	 *
+	 * @param level Level of the message.
+	 * @param template Format (or message) being logged.
+	 * @return true if the message should be built.
+	 */
+	private boolean shouldLog(final LogLevel level, final String template) {
+		if (isLoggable(level)) { return isAllowed(level, template); }
+		final LoggerMetrics metrics = Logger.getMetrics();
+		if (metrics != null) { metrics.filtered(level); }
+		return Logger.isRecorded(level);
+	}
+	
+	/**
+	 * Check the rate limits for a message that is being logged.
+	 *
+	 * @param level Level of the message.
+	 * @param template Format (or message) being logged.
+	 * @return true if the message should be written.
+	 */
+	private boolean isAllowed(final LogLevel level, final String template) {
+		final RateLimiter own = limiter;
+		final RateLimiter shared = Logger.getRateLimit(template);
+		if ((own == null || own.allow(this, level, null)) && (shared == null || shared.allow(this, level, template))) {
+			return true;
+		}
+		final LoggerMetrics metrics = Logger.getMetrics();
+		if (metrics != null) { metrics.dropped(level); }
+		return false;
+	}
+	
+	/**
+	 * Pass an event to the flight recorder (if any), and write it if its
+	 * level is being logged.
+	 *
+	 * @param event Event to log.
+	 */
+	private void emit(final LogEvent event) {
+		event.captureContext();
+		final FlightRecorder recorder = Logger.getFlightRecorder();
+		final boolean loggable = isLoggable(event.getLevel());
+		if (recorder != null) { recorder.record(event, loggable); }
+		if (loggable) { Logger.dispatch(event); }
+	}
+	
+	/**
+	 * Log an event built by a LogBuilder, if the rate limits allow it.
+	 * The caller has already checked that the level is being logged or
+	 * recorded.
+	 *
+	 * @param event Event to log.
+	 * @param template Format (or message) being logged.
+	 */
+	void log(final LogEvent event, final String template) {
+		final LogLevel level = event.getLevel();
+		if (!isLoggable(level) || isAllowed(level, template)) { emit(event); }
+	}
+	
+	/**
+	 * Log a summary of messages suppressed by a RateLimiter.
+	 *
+	 * @param level Level of the suppressed messages.
+	 * @param count Number of messages suppressed.
+	 * @param template Template that was limited, or null if this logger was.
+	 */
+	void logSuppressed(final LogLevel level, final long count, final String template) {
+		final LogEvent event = LogEvent.acquire();
+		try {
+			if (template == null) {
+				event.setFormat(name, level, System.currentTimeMillis(), "Suppressed {} messages");
+				event.addArgument(count);
+			} else {
+				event.setFormat(name, level, System.currentTimeMillis(), "Suppressed {} similar messages: {}");
+				event.addArgument(count);
+				event.addArgument(template);
+			}
+			Logger.dispatch(event);
+		} finally {
+			LogEvent.release(event);
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 *
+	 * @param level Level of this information.
+	 * @param data Information to log.
+	 */
+	public void log(final LogLevel level, final String data) {
+		if (shouldLog(level, data)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.set(name, level, System.currentTimeMillis(), data);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The supplier is only called if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param data Supplier for the information to log.
+	 */
+	public void log(final LogLevel level, final Supplier<String> data) {
+		if (isLoggable(level) || Logger.isRecorded(level)) {
+			log(level, data.get());
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void log(final LogLevel level, final String format, final Object arg) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format);
+				event.addArgument(arg);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first two "{}"s in the format are replaced by the arguments, this is
+	 * only done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg1 First argument for the format.
+	 * @param arg2 Second argument for the format.
+	 */
+	public void log(final LogLevel level, final String format, final Object arg1, final Object arg2) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format);
+				event.addArgument(arg1);
+				event.addArgument(arg2);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * Each "{}" in the format is replaced by the next argument, this is only
+	 * done if the level is being logged.
+	 * Note that the argument array is allocated by the caller even when the
+	 * level is not logged, so prefer the fixed argument versions.
+	 * Only the first 8 arguments are kept raw, with more than that the
+	 * message is expanded straight away.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param args Arguments for the format.
+	 */
+	public void log(final LogLevel level, final String format, final Object... args) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format, args);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void log(final LogLevel level, final String format, final int arg) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format);
+				event.addArgument(arg);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void log(final LogLevel level, final String format, final long arg) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format);
+				event.addArgument(arg);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at a customiseable log level.
+	 * The first "{}" in the format is replaced by the argument, this is only
+	 * done if the level is being logged.
+	 *
+	 * @param level Level of this information.
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void log(final LogLevel level, final String format, final double arg) {
+		if (shouldLog(level, format)) {
+			final LogEvent event = LogEvent.acquire();
+			try {
+				event.setFormat(name, level, System.currentTimeMillis(), format);
+				event.addArgument(arg);
+				emit(event);
+			} finally {
+				LogEvent.release(event);
+			}
+		}
+	}
+	
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void error(final String data) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, data);
+		}
+	}
+
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void error(final Supplier<String> data) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, data);
+		}
+	}
+
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void error(final String format, final Object arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void error(final String format, final int arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void error(final String format, final long arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the error level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void error(final String format, final double arg) {
+		if (LevelGuard.error()) {
+			log(LogLevel.ERROR, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void warning(final String data) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, data);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void warning(final Supplier<String> data) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, data);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void warning(final String format, final Object arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void warning(final String format, final int arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void warning(final String format, final long arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the warning level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void warning(final String format, final double arg) {
+		if (LevelGuard.warning()) {
+			log(LogLevel.WARNING, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void info(final String data) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, data);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void info(final Supplier<String> data) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, data);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void info(final String format, final Object arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void info(final String format, final int arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void info(final String format, final long arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the info level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void info(final String format, final double arg) {
+		if (LevelGuard.info()) {
+			log(LogLevel.INFO, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug(final String data) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug(final Supplier<String> data) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug(final String format, final Object arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug(final String format, final int arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug(final String format, final long arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug(final String format, final double arg) {
+		if (LevelGuard.debug()) {
+			log(LogLevel.DEBUG, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug2(final String data) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug2(final Supplier<String> data) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug2(final String format, final Object arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug2(final String format, final int arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug2(final String format, final long arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug2 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug2(final String format, final double arg) {
+		if (LevelGuard.debug2()) {
+			log(LogLevel.DEBUG2, format, arg);
+		}
+	}
+	
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug3(final String data) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug3(final Supplier<String> data) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug3(final String format, final Object arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug3(final String format, final int arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug3(final String format, final long arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug3 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug3(final String format, final double arg) {
+		if (LevelGuard.debug3()) {
+			log(LogLevel.DEBUG3, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug4(final String data) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug4(final Supplier<String> data) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug4(final String format, final Object arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug4(final String format, final int arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug4(final String format, final long arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug4 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug4(final String format, final double arg) {
+		if (LevelGuard.debug4()) {
+			log(LogLevel.DEBUG4, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug5(final String data) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug5(final Supplier<String> data) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug5(final String format, final Object arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug5(final String format, final int arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug5(final String format, final long arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug5 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug5(final String format, final double arg) {
+		if (LevelGuard.debug5()) {
+			log(LogLevel.DEBUG5, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug6(final String data) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug6(final Supplier<String> data) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug6(final String format, final Object arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug6(final String format, final int arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug6(final String format, final long arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug6 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug6(final String format, final double arg) {
+		if (LevelGuard.debug6()) {
+			log(LogLevel.DEBUG6, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug7(final String data) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug7(final Supplier<String> data) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug7(final String format, final Object arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug7(final String format, final int arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug7(final String format, final long arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug7 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug7(final String format, final double arg) {
+		if (LevelGuard.debug7()) {
+			log(LogLevel.DEBUG7, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug8(final String data) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug8(final Supplier<String> data) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug8(final String format, final Object arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug8(final String format, final int arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug8(final String format, final long arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug8 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug8(final String format, final double arg) {
+		if (LevelGuard.debug8()) {
+			log(LogLevel.DEBUG8, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param data Information to log.
+	 */
+	public void debug9(final String data) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param data Supplier for the information to log.
+	 */
+	public void debug9(final Supplier<String> data) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, data);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug9(final String format, final Object arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug9(final String format, final int arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug9(final String format, final long arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+
+	/**
+	 * Log data at the debug9 level.
+	 *
+	 * @param format Format of the information to log.
+	 * @param arg Argument for the format.
+	 */
+	public void debug9(final String format, final double arg) {
+		if (LevelGuard.debug9()) {
+			log(LogLevel.DEBUG9, format, arg);
+		}
+	}
+	
+	/**
+	 * Start building an event with structured fields.
+	 * Nothing is built if the level is not being logged.
+	 *
+	 * @param level Level of the event.
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder at(final LogLevel level) {
+		if (isLoggable(level) || Logger.isRecorded(level)) {
+			return LogBuilder.acquire(this, level);
+		}
+		final LoggerMetrics metrics = Logger.getMetrics();
+		if (metrics != null) { metrics.filtered(level); }
+		return LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the error level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atError() {
+		return LevelGuard.error() ? at(LogLevel.ERROR) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the warning level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atWarning() {
+		return LevelGuard.warning() ? at(LogLevel.WARNING) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the info level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atInfo() {
+		return LevelGuard.info() ? at(LogLevel.INFO) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug() {
+		return LevelGuard.debug() ? at(LogLevel.DEBUG) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug2 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug2() {
+		return LevelGuard.debug2() ? at(LogLevel.DEBUG2) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug3 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug3() {
+		return LevelGuard.debug3() ? at(LogLevel.DEBUG3) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug4 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug4() {
+		return LevelGuard.debug4() ? at(LogLevel.DEBUG4) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug5 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug5() {
+		return LevelGuard.debug5() ? at(LogLevel.DEBUG5) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug6 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug6() {
+		return LevelGuard.debug6() ? at(LogLevel.DEBUG6) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug7 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug7() {
+		return LevelGuard.debug7() ? at(LogLevel.DEBUG7) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug8 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug8() {
+		return LevelGuard.debug8() ? at(LogLevel.DEBUG8) : LogBuilder.DISABLED;
+	}
+
+	/**
+	 * Start building an event with structured fields at the debug9 level.
+	 *
+	 * @return Builder for the event, log() must be called on it.
+	 */
+	public LogBuilder atDebug9() {
+		return LevelGuard.debug9() ? at(LogLevel.DEBUG9) : LogBuilder.DISABLED;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "NamedLogger["+name+"]";
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how often messages are logged, to stop a single repeated message
+ * (eg, from a broken upstream) from filling the disk.
+ *
+ * A RateLimiter can be set on a NamedLogger, limiting everything it logs, or
+ * on a message template with Logger.setRateLimit(), limiting every use of that
+ * format (or plain message) whichever logger it is logged through.
+ *
+ * Messages can be limited with a token bucket (a rate and a burst), by
+ * sampling 1 in N, or both. Suppressed messages are not written; instead a
+ * "Suppressed N similar messages" line is logged at most once per summary
+ * interval while messages are being suppressed. Summaries are logged when a
+ * later message is checked; flush() logs one still pending after the last,
+ * and Logger.flush() and the shutdown hook call it for every limiter in use.
+ *
+ * The check is designed to be cheap under contention: once the bucket is
+ * empty a suppressed message costs a few volatile reads and an increment of
+ * a striped counter, and the bucket itself is only updated (with a CAS) for
+ * messages that are actually written.
+ */
+public final class RateLimiter {
+	/** Default time between summaries, in milliseconds. */
+	public static final long DEFAULT_SUMMARY_INTERVAL = 10000;
+
+	/** Nanoseconds per token, or 0 if not rate limited. */
+	private final long interval;
+	/** How far ahead of now the bucket may be before messages are suppressed. */
+	private final long tolerance;
+	/** 1 in how many messages are kept. */
+	private final int sampleRate;
+	/** Nanoseconds between summaries. */
+	private final long summaryInterval;
+	/** Time at which the bucket will next be full ("theoretical arrival time"). */
+	private final AtomicLong full;
+	/** Time the next summary is due. */
+	private final AtomicLong nextSummary;
+	/** Messages suppressed. */
+	private final LongAdder suppressed = new LongAdder();
+	/** Messages suppressed and already included in a summary. */
+	private final AtomicLong reported = new AtomicLong(0);
+	/** Where the last message suppressed was logged, or null if none has been. */
+	private volatile Source lastSource;
+
+	/**
+	 * Where a suppressed message was logged, so flush() can log the summary
+	 * in the same place.
+	 * Each NamedLogger keeps one for each level and template it has had
+	 * messages suppressed at, so suppressing a message allocates nothing.
+	 */
+	static final class Source {
+		/** Logger the message was logged through. */
+		final NamedLogger logger;
+		/** Level of the message. */
+		final LogLevel level;
+		/** Template the limiter is set on, or null. */
+		final String template;
+
+		/**
+		 * Create a new Source.
+		 *
+		 * @param logger Logger the message was logged through.
+		 * @param level Level of the message.
+		 * @param template Template the limiter is set on, or null.
+		 */
+		Source(final NamedLogger logger, final LogLevel level, final String template) {
+			this.logger = logger;
+			this.level = level;
+			this.template = template;
+		}
+	}
+
+	/**
+	 * Create a new RateLimiter.
+	 *
+	 * @param permitsPerSecond Average number of messages allowed per second,
+	 *                         or 0 for no rate limit.
+	 * @param burst Number of messages allowed at once before the rate applies.
+	 * @param sampleRate Keep only 1 in this many messages (1 to keep all).
+	 * @param summaryInterval Minimum time between summaries, in milliseconds.
+	 */
+	public RateLimiter(final double permitsPerSecond, final int burst, final int sampleRate, final long summaryInterval) {
+		if (permitsPerSecond < 0) {
+			throw new IllegalArgumentException("Rate must not be negative: "+permitsPerSecond);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("Burst must be positive: "+burst);
+		}
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Sample rate must be positive: "+sampleRate);
+		}
+		interval = (permitsPerSecond == 0) ? 0 : Math.max(1, (long) (1000000000L / permitsPerSecond));
+		tolerance = interval * (burst - 1);
+		this.sampleRate = sampleRate;
+		this.summaryInterval = summaryInterval * 1000000L;
+		final long now = System.nanoTime();
+		full = new AtomicLong(now);
+		nextSummary = new AtomicLong(now + this.summaryInterval);
+	}
+
+	/**
+	 * Create a RateLimiter using a token bucket.
+	 *
+	 * @param permitsPerSecond Average number of messages allowed per second.
+	 * @param burst Number of messages allowed at once before the rate applies.
+	 * @return The new RateLimiter.
+	 */
+	public static RateLimiter perSecond(final double permitsPerSecond, final int burst) {
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("Rate must be positive: "+permitsPerSecond);
+		}
+		return new RateLimiter(permitsPerSecond, burst, 1, DEFAULT_SUMMARY_INTERVAL);
+	}
+
+	/**
+	 * Create a RateLimiter that keeps 1 in every sampleRate messages (chosen
+	 * at random, so this is 1 in sampleRate on average).
+	 *
+	 * @param sampleRate Keep only 1 in this many messages.
+	 * @return The new RateLimiter.
+	 */
+	public static RateLimiter sampled(final int sampleRate) {
+		return new RateLimiter(0, 1, sampleRate, DEFAULT_SUMMARY_INTERVAL);
+	}
+
+	/**
+	 * Check if a message should be logged, logging a summary of suppressed
+	 * messages first if one is due.
+	 *
+	 * @param logger Logger the message is being logged through.
+	 * @param level Level of the message.
+	 * @param template Template this limiter is set on, or null if it is set
+	 *                 on the logger.
+	 * @return true if the message should be logged.
+	 */
+	boolean allow(final NamedLogger logger, final LogLevel level, final String template) {
+		final long now = System.nanoTime();
+		final boolean allowed = sample() && acquire(now);
+		if (!allowed) {
+			final Source source = logger.getLimitSource(level, template);
+			if (lastSource != source) { lastSource = source; }
+			suppressed.increment();
+		}
+		final long due = nextSummary.get();
+		if (now - due >= 0 && nextSummary.compareAndSet(due, now + summaryInterval)) {
+			summarise(logger, level, template);
+		}
+		return allowed;
+	}
+
+	/**
+	 * Log a summary of any messages suppressed since the last one, without
+	 * waiting for another message to be checked.
+	 * The summary is logged through the logger, and at the level, of the last
+	 * message suppressed.
+	 */
+	public void flush() {
+		final Source source = lastSource;
+		if (source != null) {
+			summarise(source.logger, source.level, source.template);
+		}
+	}
+
+	/**
+	 * Log a summary of the messages suppressed since the last one, if any.
+	 * Only the thread that moves reported on logs each message's count, so
+	 * none are counted twice, and any missed by sum() are left for the next.
+	 *
+	 * @param logger Logger to log the summary through.
+	 * @param level Level to log the summary at.
+	 * @param template Template this limiter is set on, or null.
+	 */
+	private void summarise(final NamedLogger logger, final LogLevel level, final String template) {
+		while (true) {
+			final long done = reported.get();
+			final long count = suppressed.sum() - done;
+			if (count <= 0) { return; }
+			if (reported.compareAndSet(done, done + count)) {
+				logger.logSuppressed(level, count, template);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decide if this message is one of the 1 in sampleRate kept.
+	 *
+	 * @return true if the message is kept.
+	 */
+	private boolean sample() {
+		return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+	}
+
+	/**
+	 * Take a token from the bucket.
+	 *
+	 * @param now Current time from System.nanoTime().
+	 * @return true if there was a token.
+	 */
+	private boolean acquire(final long now) {
+		if (interval == 0) { return true; }
+		while (true) {
+			final long current = full.get();
+			final long base = (current - now > 0) ? current : now;
+			if (base - now > tolerance) { return false; }
+			if (full.compareAndSet(current, base + interval)) { return true; }
+		}
+	}
+
+	/**
+	 * Get the number of messages suppressed by this limiter.
+	 *
+	 * @return Total number of messages suppressed.
+	 */
+	public long getSuppressed() {
+		return suppressed.sum();
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appender that writes "[Level] name: message" lines to a file, starting a new file
+ * when the current one gets too big or too old. Lines can be written as JSON
+ * instead with setFormat().
+ *
+ * Lines are collected in a direct buffer and written in batches with
+ * positional FileChannel writes, when the buffer fills, when the async Logger
+ * goes idle, or at least once a second by a background thread.
+ *
+ * Rolled files are renamed to "name.yyyyMMdd-HHmmss" using the time they were
+ * started. If a non-empty file is already there when the appender is created
+ * it is rolled first.
+ *
+ * The buffer is guarded by a ReentrantLock rather than a monitor, so a virtual
+ * thread waiting to log is unmounted instead of pinning its carrier thread.
+ */
+public class RollingFileAppender implements Appender {
+	/** Default maximum size of a file before it is rolled. */
+	public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+	/** Size of the write buffer. */
+	public static final int BUFFER_SIZE = 256 * 1024;
+	/** How often buffered lines are written out, in milliseconds. */
+	public static final long FLUSH_INTERVAL = 1000;
+	/** How long to wait before trying to roll again after failing, in milliseconds. */
+	public static final long ROLL_RETRY_INTERVAL = 10000;
+	/** Format used for the date part of rolled file names. */
+	private static final String DATE_FORMAT = "yyyyMMdd-HHmmss";
+
+	/** File being written. */
+	private final File file;
+	/** Maximum size of a file before it is rolled. */
+	private final long maxSize;
+	/** Maximum age of a file in milliseconds before it is rolled (0 for never). */
+	private final long rollInterval;
+	/** Should files be extended to maxSize when they are started? */
+	private final boolean preallocate;
+	/** Lines not yet written. */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	/** Thread flushing the buffer. */
+	private final Thread flusher;
+	/** Channel for the current file. */
+	private FileChannel channel;
+	/** Number of bytes written to the current file. */
+	private long position;
+	/** Time the current file was started. */
+	private long started;
+	/** Time before which the file is not rolled, after a roll failed. */
+	private long rollRetry;
+	/** Lock guarding the buffer, encoder and file. */
+	private final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * Encoder for lines, only used holding the lock. Using one per appender
+	 * rather than per thread keeps large numbers of virtual threads cheap.
+	 */
+	private TextEncoder encoder = new TextEncoder(Charset.defaultCharset());
+	/** Has this appender been closed? */
+	private volatile boolean closed = false;
+	/** Archiver to wake when a file is rolled, or null. */
+	private volatile LogArchiver archiver;
+
+	/**
+	 * Create a new RollingFileAppender that rolls at DEFAULT_MAX_SIZE.
+	 *
+	 * @param filename File to write to.
+	 * @throws IOException If the file can not be opened.
+	 */
+	public RollingFileAppender(final String filename) throws IOException {
+		this(filename, DEFAULT_MAX_SIZE, 0, false);
+	}
+
+	/**
+	 * Create a new RollingFileAppender.
+	 *
+	 * @param filename File to write to.
+	 * @param maxSize Maximum size of a file in bytes before it is rolled.
+	 * @param rollInterval Maximum age of a file in milliseconds before it is
+	 *                     rolled, or 0 to only roll by size.
+	 * @param preallocate If true each file is extended to maxSize when started
+	 *                    and truncated back when rolled, so the file size does
+	 *                    not change on every write. A file left by a crash
+	 *                    will end with zero bytes.
+	 * @throws IOException If the file can not be opened.
+	 */
+	public RollingFileAppender(final String filename, final long maxSize, final long rollInterval, final boolean preallocate) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be positive: "+maxSize);
+		}
+		this.file = new File(filename).getAbsoluteFile();
+		this.maxSize = maxSize;
+		this.rollInterval = rollInterval;
+		this.preallocate = preallocate;
+
+		if (file.length() > 0) {
+			rename(file.lastModified());
+		}
+		open();
+
+		flusher = new Thread("RollingFileAppender Flusher: "+file.getName()) {
+			@Override
+			public void run() {
+				while (!isClosed()) {
+					try {
+						Thread.sleep(FLUSH_INTERVAL);
+					} catch (InterruptedException ie) {
+						return;
+					}
+					flush();
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Get the file being written to.
+	 *
+	 * @return The current log file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get how events are written.
+	 *
+	 * @return Format of the lines.
+	 */
+	public LineFormat getFormat() {
+		lock.lock();
+		try {
+			return encoder.getFormat();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Set how events are written, from the next event.
+	 *
+	 * @param newFormat Format of the lines.
+	 */
+	public void setFormat(final LineFormat newFormat) {
+		lock.lock();
+		try {
+			encoder = new TextEncoder(Charset.defaultCharset(), newFormat);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Set the archiver to wake whenever a file is rolled.
+	 *
+	 * @param newArchiver Archiver for this appender's files, or null for none.
+	 */
+	public void setArchiver(final LogArchiver newArchiver) {
+		archiver = newArchiver;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void append(final LogEvent event) {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			final ByteBuffer bytes = encoder.encode(event);
+			try {
+				final long size = position + buffer.position();
+				final boolean expired = rollInterval > 0 && event.getTimestamp() >= started + rollInterval;
+				if (size > 0 && (expired || size + bytes.remaining() > maxSize)) {
+					if (event.getTimestamp() >= rollRetry) {
+						try {
+							roll();
+						} catch (IOException e) {
+							// Still write this event, to the file that wasn't rolled.
+							error(e);
+						}
+					}
+				} else if (expired) {
+					// Nothing has been written, so just restart the clock.
+					started = event.getTimestamp();
+				}
+				if (bytes.remaining() > buffer.remaining()) {
+					writeBuffer();
+				}
+				if (bytes.remaining() > buffer.remaining()) {
+					write(bytes);
+				} else {
+					buffer.put(bytes);
+				}
+			} catch (IOException e) {
+				error(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			try {
+				writeBuffer();
+			} catch (IOException e) {
+				error(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) { return; }
+			closed = true;
+			flusher.interrupt();
+			try {
+				closeFile();
+			} catch (IOException e) {
+				error(e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check if this appender has been closed.
+	 *
+	 * @return true if close() has been called.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Close the current file and start a new one.
+	 * If the file can't be closed or renamed it is reopened and appended to,
+	 * and rolling it is tried again after ROLL_RETRY_INTERVAL.
+	 *
+	 * @throws IOException If there is a problem rolling the file.
+	 */
+	private void roll() throws IOException {
+		try {
+			closeFile();
+			rename(started);
+		} catch (IOException e) {
+			channel = openChannel();
+			rollRetry = System.currentTimeMillis() + ROLL_RETRY_INTERVAL;
+			throw e;
+		}
+		open();
+		final LogArchiver currentArchiver = archiver;
+		if (currentArchiver != null) { currentArchiver.wake(); }
+	}
+
+	/**
+	 * Start a new file.
+	 *
+	 * @throws IOException If the file can not be opened.
+	 */
+	private void open() throws IOException {
+		channel = openChannel();
+		position = 0;
+		started = System.currentTimeMillis();
+		if (preallocate) {
+			channel.write(ByteBuffer.allocate(1), maxSize - 1);
+		}
+	}
+
+	/**
+	 * Open a channel to the current file.
+	 *
+	 * @return The channel.
+	 * @throws IOException If the file can not be opened.
+	 */
+	private FileChannel openChannel() throws IOException {
+		final File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) { dir.mkdirs(); }
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Write out the buffer and close the current file.
+	 *
+	 * @throws IOException If there is a problem writing or closing the file.
+	 */
+	private void closeFile() throws IOException {
+		try {
+			writeBuffer();
+			if (preallocate) { channel.truncate(position); }
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Rename the current file out of the way.
+	 *
+	 * @param time Time the file was started.
+	 * @throws IOException If the file can not be renamed.
+	 */
+	private void rename(final long time) throws IOException {
+		final String base = file.getPath() + "." + new SimpleDateFormat(DATE_FORMAT).format(new Date(time));
+		File target = new File(base);
+		for (int i = 1; target.exists() || new File(target.getPath() + ".gz").exists(); i++) {
+			target = new File(base + "-" + i);
+		}
+		if (!file.renameTo(target)) {
+			throw new IOException("Unable to rename "+file+" to "+target);
+		}
+	}
+
+	/**
+	 * Write out anything in the buffer.
+	 * Anything that can't be written is kept, to be tried again next time.
+	 *
+	 * @throws IOException If there is a problem writing.
+	 */
+	private void writeBuffer() throws IOException {
+		if (buffer.position() == 0) { return; }
+		buffer.flip();
+		try {
+			write(buffer);
+		} finally {
+			// Empty if everything was written, else keep what wasn't.
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Write bytes to the current file at the current position.
+	 * Interrupting a thread blocked in a FileChannel closes the channel, so if
+	 * that happens the file is reopened and the write carried on, with the
+	 * thread's interrupt status put back afterwards.
+	 *
+	 * @param bytes Bytes to write.
+	 * @throws IOException If there is a problem writing.
+	 */
+	private void write(final ByteBuffer bytes) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (bytes.hasRemaining()) {
+				try {
+					position += channel.write(bytes, position);
+				} catch (ClosedByInterruptException e) {
+					interrupted |= Thread.interrupted();
+					channel = openChannel();
+				}
+			}
+		} finally {
+			if (interrupted) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+	/**
+	 * Report an error writing to the file.
+	 * This can't be logged, as that could just cause the same error again.
+	 *
+	 * @param e The error.
+	 */
+	private void error(final IOException e) {
+		System.err.println("RollingFileAppender: Error writing to "+file+": "+e.getMessage());
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2006-2008 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+
+package uk.org.dataforce.libs.logger;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Turns log lines into bytes without creating any garbage.
+ * Each thread has its own encoder for each LineFormat, holding a char buffer
+ * for the line, a cached CharsetEncoder and a byte buffer for the result. The
+ * buffers only grow, so once warm encoding a line does not allocate anything
+ * (other than the toString() of any object arguments or fields).
+ *
+ * The buffers are heap buffers on purpose: CharsetEncoder only takes its fast
+ * array-to-array path when both sides are backed by arrays.
+ */
+final class TextEncoder {
+	/** Buffers bigger than this many chars are shrunk back after use. */
+	private static final int MAX_KEPT_CHARS = 65536;
+	/** Initial size of the char buffer. */
+	private static final int INITIAL_CHARS = 512;
+	/** Separator between logger name and message. */
+	private static final String NAME_SEPARATOR = ": ";
+	/** Start of the MDC pairs. */
+	private static final String CONTEXT_START = "[";
+	/** Separator between MDC pairs. */
+	private static final String CONTEXT_SEPARATOR = ", ";
+	/** Separator between MDC key and value. */
+	private static final String CONTEXT_EQUALS = "=";
+	/** End of the MDC pairs. */
+	private static final String CONTEXT_END = "] ";
+	/** Separator before each structured field. */
+	private static final String FIELD_SEPARATOR = " ";
+	/** Separator between field name and value. */
+	private static final String FIELD_EQUALS = "=";
+	/** Start of a JSON line, up to the time. */
+	private static final String JSON_TIME = "{\"time\":";
+	/** JSON name for the level. */
+	private static final String JSON_LEVEL = ",\"level\":";
+	/** JSON name for the logger. */
+	private static final String JSON_LOGGER = ",\"logger\":";
+	/** JSON name for the message. */
+	private static final String JSON_MESSAGE = ",\"message\":";
+	/** JSON name for the MDC pairs. */
+	private static final String JSON_CONTEXT = ",\"context\":{";
+	/** JSON name for the structured fields. */
+	private static final String JSON_FIELDS = ",\"fields\":{";
+	/** Separator between JSON members. */
+	private static final String JSON_COMMA = ",";
+	/** Separator between JSON names and values. */
+	private static final String JSON_COLON = ":";
+	/** End of a JSON object. */
+	private static final String JSON_END = "}";
+	/** JSON null. */
+	private static final String JSON_NULL = "null";
+	/** Hex digits for JSON escapes. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** Line separator for JSON lines, which is always "\n". */
+	private static final String JSON_LINE_SEPARATOR = "\n";
+	/** Line separator. */
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+	/** "[Level] " prefix for each log level, indexed by ordinal. */
+	private static final String[] PREFIXES;
+	/** Per-thread encoders, indexed by LineFormat ordinal. */
+	private static final ThreadLocal<TextEncoder[]> ENCODERS = new ThreadLocal<TextEncoder[]>() {
+		@Override
+		protected TextEncoder[] initialValue() {
+			return new TextEncoder[LineFormat.values().length];
+		}
+	};
+
+	static {
+		final LogLevel[] levels = LogLevel.values();
+		PREFIXES = new String[levels.length];
+		for (LogLevel level : levels) {
+			PREFIXES[level.ordinal()] = "["+level+"] ";
+		}
+	}
+
+	/** Format of the lines. */
+	private final LineFormat format;
+	/** Encoder for the charset being used. */
+	private final CharsetEncoder encoder;
+	/** Builder for numbers and field values. */
+	private final StringBuilder scratch = new StringBuilder(32);
+	/** Chars of the line being encoded. */
+	private char[] chars;
+	/** Buffer wrapping chars. */
+	private CharBuffer charBuffer;
+	/** Number of chars used. */
+	private int count;
+	/** Encoded bytes. */
+	private ByteBuffer bytes;
+
+	/**
+	 * Create a new TextEncoder for LineFormat.TEXT.
+	 *
+	 * @param charset Charset to encode to.
+	 */
+	TextEncoder(final Charset charset) {
+		this(charset, LineFormat.TEXT);
+	}
+
+	/**
+	 * Create a new TextEncoder.
+	 *
+	 * @param charset Charset to encode to.
+	 * @param format Format of the lines.
+	 */
+	TextEncoder(final Charset charset, final LineFormat format) {
+		this.format = format;
+		encoder = charset.newEncoder()
+		                 .onMalformedInput(CodingErrorAction.REPLACE)
+		                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = new char[INITIAL_CHARS];
+		charBuffer = CharBuffer.wrap(chars);
+		bytes = ByteBuffer.allocate((int) (INITIAL_CHARS * encoder.maxBytesPerChar()));
+	}
+
+	/**
+	 * Get the encoder for the calling thread.
+	 *
+	 * @param format Format of the lines.
+	 * @return This thread's encoder.
+	 */
+	static TextEncoder get(final LineFormat format) {
+		final TextEncoder[] encoders = ENCODERS.get();
+		TextEncoder result = encoders[format.ordinal()];
+		if (result == null) {
+			result = new TextEncoder(Charset.defaultCharset(), format);
+			encoders[format.ordinal()] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Get the format of the lines.
+	 *
+	 * @return Format of the lines.
+	 */
+	LineFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Encode an event as a line in this encoder's format.
+	 * Text lines are "[Level] message", or "[Level] name: message" for named
+	 * loggers, followed by a line separator. Any MDC pairs are added before
+	 * the message as "[key=value, key=value] ", and any structured fields
+	 * after it as " field=value field=value".
+	 *
+	 * @param event Event to encode.
+	 * @return Buffer containing the encoded line, ready to be read. This is
+	 *         only valid until the next call on this encoder.
+	 */
+	ByteBuffer encode(final LogEvent event) {
+		if (chars.length > MAX_KEPT_CHARS) {
+			chars = new char[INITIAL_CHARS];
+			charBuffer = CharBuffer.wrap(chars);
+			bytes = ByteBuffer.allocate((int) (INITIAL_CHARS * encoder.maxBytesPerChar()));
+		}
+		count = 0;
+		if (format == LineFormat.JSON) {
+			appendJson(event);
+		} else {
+			appendText(event);
+		}
+
+		charBuffer.clear();
+		charBuffer.limit(count);
+		bytes.clear();
+		encoder.reset();
+		CoderResult result = encoder.encode(charBuffer, bytes, true);
+		while (result.isOverflow()) {
+			growBytes();
+			result = encoder.encode(charBuffer, bytes, true);
+		}
+		while (encoder.flush(bytes).isOverflow()) {
+			growBytes();
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Append an event as text.
+	 *
+	 * @param event Event to append.
+	 */
+	private void appendText(final LogEvent event) {
+		append(PREFIXES[event.getLevel().ordinal()]);
+		if (!event.getName().isEmpty()) {
+			append(event.getName());
+			append(NAME_SEPARATOR);
+		}
+		final int contextSize = event.getContextSize();
+		if (contextSize > 0) {
+			append(CONTEXT_START);
+			for (int i = 0; i < contextSize; i++) {
+				if (i > 0) { append(CONTEXT_SEPARATOR); }
+				append(event.getContextKey(i));
+				append(CONTEXT_EQUALS);
+				append(event.getContextValue(i));
+			}
+			append(CONTEXT_END);
+		}
+		append(event.getMessage());
+		final int fieldCount = event.getFieldCount();
+		for (int i = 0; i < fieldCount; i++) {
+			append(FIELD_SEPARATOR);
+			append(event.getFieldKey(i));
+			append(FIELD_EQUALS);
+			scratch.setLength(0);
+			event.appendFieldValue(scratch, i);
+			append(scratch);
+		}
+		append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Append an event as a JSON object.
+	 *
+	 * @param event Event to append.
+	 */
+	private void appendJson(final LogEvent event) {
+		append(JSON_TIME);
+		scratch.setLength(0);
+		scratch.append(event.getTimestamp());
+		append(scratch);
+		append(JSON_LEVEL);
+		appendJsonString(event.getLevel().toString());
+		append(JSON_LOGGER);
+		appendJsonString(event.getName());
+		append(JSON_MESSAGE);
+		appendJsonString(event.getMessage());
+		final int contextSize = event.getContextSize();
+		if (contextSize > 0) {
+			append(JSON_CONTEXT);
+			for (int i = 0; i < contextSize; i++) {
+				if (i > 0) { append(JSON_COMMA); }
+				appendJsonString(event.getContextKey(i));
+				append(JSON_COLON);
+				appendJsonString(event.getContextValue(i));
+			}
+			append(JSON_END);
+		}
+		final int fieldCount = event.getFieldCount();
+		if (fieldCount > 0) {
+			append(JSON_FIELDS);
+			for (int i = 0; i < fieldCount; i++) {
+				if (i > 0) { append(JSON_COMMA); }
+				appendJsonString(event.getFieldKey(i));
+				append(JSON_COLON);
+				appendJsonValue(event, i);
+			}
+			append(JSON_END);
+		}
+		append(JSON_END);
+		append(JSON_LINE_SEPARATOR);
+	}
+
+	/**
+	 * Append a structured field's value as JSON.
+	 * Numbers and booleans are written bare, NaN and infinities (which JSON
+	 * can't hold) and everything else as strings.
+	 *
+	 * @param event Event with the field.
+	 * @param index Field to append.
+	 */
+	private void appendJsonValue(final LogEvent event, final int index) {
+		scratch.setLength(0);
+		switch (event.getFieldType(index)) {
+			case LogEvent.ARG_INT:
+			case LogEvent.ARG_LONG:
+				event.appendFieldValue(scratch, index);
+				append(scratch);
+				return;
+			case LogEvent.ARG_DOUBLE:
+				event.appendFieldValue(scratch, index);
+				appendJsonNumber(Double.longBitsToDouble(event.getFieldRawValue(index)));
+				return;
+			default:
+				final Object value = event.getFieldObject(index);
+				if (value == null) {
+					append(JSON_NULL);
+				} else if (value instanceof Boolean) {
+					append(value.toString());
+				} else if (value instanceof Number) {
+					scratch.append(value);
+					appendJsonNumber(((Number) value).doubleValue());
+				} else {
+					scratch.append(value);
+					appendJsonString(scratch);
+				}
+				return;
+		}
+	}
+
+	/**
+	 * Append a number already in scratch, quoting it if JSON can't hold it.
+	 *
+	 * @param value Value of the number.
+	 */
+	private void appendJsonNumber(final double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			appendJsonString(scratch);
+		} else {
+			append(scratch);
+		}
+	}
+
+	/**
+	 * Append a quoted and escaped JSON string.
+	 *
+	 * @param data Chars to append.
+	 */
+	private void appendJsonString(final CharSequence data) {
+		final int length = data.length();
+		ensureCapacity(length + 2);
+		chars[count++] = '"';
+		for (int i = 0; i < length; i++) {
+			final char c = data.charAt(i);
+			if (c == '"' || c == '\\') {
+				ensureCapacity(2 + length - i);
+				chars[count++] = '\\';
+				chars[count++] = c;
+			} else if (c < 0x20) {
+				ensureCapacity(6 + length - i);
+				chars[count++] = '\\';
+				if (c == '\n') {
+					chars[count++] = 'n';
+				} else if (c == '\r') {
+					chars[count++] = 'r';
+				} else if (c == '\t') {
+					chars[count++] = 't';
+				} else {
+					chars[count++] = 'u';
+					chars[count++] = '0';
+					chars[count++] = '0';
+					chars[count++] = HEX[c >> 4];
+					chars[count++] = HEX[c & 0xF];
+				}
+			} else {
+				chars[count++] = c;
+			}
+		}
+		chars[count++] = '"';
+	}
+
+	/**
+	 * Make sure there is room for more chars in the line.
+	 *
+	 * @param extra Number of chars that will be added.
+	 */
+	private void ensureCapacity(final int extra) {
+		if (count + extra > chars.length) {
+			final char[] newChars = new char[Math.max(chars.length * 2, count + extra)];
+			System.arraycopy(chars, 0, newChars, 0, count);
+			chars = newChars;
+			charBuffer = CharBuffer.wrap(chars);
+		}
+	}
+
+	/**
+	 * Append chars to the line.
+	 *
+	 * @param data Chars to append.
+	 */
+	private void append(final CharSequence data) {
+		final int length = data.length();
+		ensureCapacity(length);
+		if (data instanceof String) {
+			((String) data).getChars(0, length, chars, count);
+		} else if (data instanceof StringBuilder) {
+			((StringBuilder) data).getChars(0, length, chars, count);
+		} else {
+			for (int i = 0; i < length; i++) {
+				chars[count + i] = data.charAt(i);
+			}
+		}
+		count += length;
+	}
+
+	/** Double the size of the byte buffer, keeping what has been encoded. */
+	private void growBytes() {
+		final ByteBuffer newBytes = ByteBuffer.allocate(bytes.capacity() * 2);
+		bytes.flip();
+		newBytes.put(bytes);
+		bytes = newBytes;
+	}
+}
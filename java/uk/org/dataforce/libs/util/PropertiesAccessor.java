@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2006-2007 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+package uk.org.dataforce.libs.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generated implementation of a config schema interface for
+ * TypedProperties.bind().
+ *
+ * For each @Property getter the implementation has a volatile field, and the
+ * getter does nothing but return it, so the JIT can inline it down to a single
+ * load. refresh() resolves every property and stores it in its field.
+ *
+ * The class is defined as a hidden class in the schema's package, so the
+ * schema does not have to be public and does not have to be visible from
+ * this library's class loader.
+ */
+final class PropertiesAccessor {
+	/** Returns a byte. */
+	private static final int BYTE = 0;
+	/** Returns a short. */
+	private static final int SHORT = 1;
+	/** Returns an int. */
+	private static final int INT = 2;
+	/** Returns a long. */
+	private static final int LONG = 3;
+	/** Returns a float. */
+	private static final int FLOAT = 4;
+	/** Returns a double. */
+	private static final int DOUBLE = 5;
+	/** Returns a boolean. */
+	private static final int BOOLEAN = 6;
+	/** Returns a char. */
+	private static final int CHAR = 7;
+	/** Returns a String. */
+	private static final int STRING = 8;
+	/** Returns a String[], from getListProperty(). */
+	private static final int STRING_ARRAY = 9;
+
+	/** Return types, in the order above. */
+	private static final Class<?>[] TYPES = {byte.class, short.class, int.class, long.class, float.class, double.class, boolean.class, char.class, String.class, String[].class};
+	/** Return opcode for each type. */
+	private static final int[] RETURNS = {0xac, 0xac, 0xac, 0xad, 0xae, 0xaf, 0xac, 0xac, 0xb0, 0xb0};
+
+	/** Accessor for each schema, created when first bound. */
+	private static final ClassValue<PropertiesAccessor> ACCESSORS = new ClassValue<PropertiesAccessor>() {
+		@Override
+		protected PropertiesAccessor computeValue(final Class<?> schema) {
+			return new PropertiesAccessor(schema);
+		}
+	};
+
+	/** A getter and the field behind it. */
+	private static final class Getter {
+		/** Key of the property. */
+		final String key;
+		/** Return type. */
+		final int type;
+		/** Fallback value, boxed. */
+		final Object fallback;
+		/** Name of the getter. */
+		final String name;
+		/** Field, once the class is defined. */
+		VarHandle field;
+
+		/**
+		 * Create a new Getter.
+		 *
+		 * @param method Getter method
+		 * @param property Annotation on the getter
+		 * @param type Return type
+		 */
+		Getter(final Method method, final Property property, final int type) {
+			this.key = property.value();
+			this.type = type;
+			this.name = method.getName();
+			try {
+				this.fallback = parseFallback(property.fallback(), type);
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Invalid fallback for " + method + ": " + property.fallback(), nfe);
+			}
+		}
+	}
+
+	/** Getters, in field order. */
+	private final Getter[] getters;
+	/** Constructor of the implementation. */
+	private final MethodHandle constructor;
+
+	/**
+	 * Create the implementation of a schema.
+	 *
+	 * @param schema Schema interface
+	 * @throws IllegalArgumentException If the schema is not valid
+	 */
+	private PropertiesAccessor(final Class<?> schema) {
+		if (!schema.isInterface() || schema.isAnnotation() || schema.isSealed()) {
+			throw new IllegalArgumentException(schema.getName() + " is not a plain interface");
+		}
+		final Map<String, Getter> found = new LinkedHashMap<String, Getter>();
+		for (Method method : schema.getMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) || method.isDefault() || isObjectMethod(method)) { continue; }
+			final Property property = method.getAnnotation(Property.class);
+			final int type = indexOf(method.getReturnType());
+			if (property == null || method.getParameterCount() != 0 || type < 0) {
+				throw new IllegalArgumentException(method + " is not a @Property getter of a supported type");
+			}
+			final Getter existing = found.get(method.getName());
+			if (existing != null && existing.type != type) {
+				throw new IllegalArgumentException(method + " conflicts with another getter");
+			}
+			found.put(method.getName(), new Getter(method, property, type));
+		}
+		getters = found.values().toArray(new Getter[0]);
+
+		try {
+			final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(schema, MethodHandles.lookup()).defineHiddenClass(generate(schema), true);
+			for (int i = 0; i < getters.length; i++) {
+				getters[i].field = lookup.findVarHandle(lookup.lookupClass(), "f" + i, TYPES[getters[i].type]);
+			}
+			constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+		} catch (IllegalAccessException | NoSuchFieldException | NoSuchMethodException e) {
+			throw new IllegalArgumentException("Unable to implement " + schema.getName(), e);
+		}
+	}
+
+	/**
+	 * Get the accessor for a schema, creating it if needed.
+	 *
+	 * @param schema Schema interface
+	 * @return The accessor
+	 * @throws IllegalArgumentException If the schema is not valid
+	 */
+	static PropertiesAccessor get(final Class<?> schema) {
+		return ACCESSORS.get(schema);
+	}
+
+	/**
+	 * Create an instance of the schema, with every property at its default.
+	 * It should be refreshed before use.
+	 *
+	 * @return New instance
+	 */
+	Object newInstance() {
+		try {
+			return constructor.invokeExact();
+		} catch (Throwable t) {
+			throw new AssertionError(t);
+		}
+	}
+
+	/**
+	 * Resolve every property and store it in an instance.
+	 *
+	 * @param properties Config to read from
+	 * @param instance Instance to update
+	 */
+	void refresh(final TypedProperties properties, final Object instance) {
+		for (Getter getter : getters) {
+			final String key = getter.key;
+			final VarHandle field = getter.field;
+			switch (getter.type) {
+				case BYTE: field.setVolatile(instance, properties.getByteProperty(key, (Byte)getter.fallback)); break;
+				case SHORT: field.setVolatile(instance, properties.getShortProperty(key, (Short)getter.fallback)); break;
+				case INT: field.setVolatile(instance, properties.getIntProperty(key, (Integer)getter.fallback)); break;
+				case LONG: field.setVolatile(instance, properties.getLongProperty(key, (Long)getter.fallback)); break;
+				case FLOAT: field.setVolatile(instance, properties.getFloatProperty(key, (Float)getter.fallback)); break;
+				case DOUBLE: field.setVolatile(instance, properties.getDoubleProperty(key, (Double)getter.fallback)); break;
+				case BOOLEAN: field.setVolatile(instance, properties.getBoolProperty(key, (Boolean)getter.fallback)); break;
+				case CHAR: field.setVolatile(instance, properties.getCharProperty(key, (Character)getter.fallback)); break;
+				case STRING: field.setVolatile(instance, properties.getProperty(key, (String)getter.fallback)); break;
+				default:
+					final List<String> list = properties.getListProperty(key, null);
+					field.setVolatile(instance, list == null ? getter.fallback : list.toArray(new String[list.size()]));
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Parse a fallback value.
+	 *
+	 * @param value Fallback from the annotation
+	 * @param type Type to parse it as
+	 * @return Boxed value
+	 * @throws NumberFormatException If it is not a valid number
+	 */
+	private static Object parseFallback(final String value, final int type) {
+		final boolean empty = value.isEmpty();
+		switch (type) {
+			case BYTE: return empty ? (byte)0 : Byte.parseByte(value);
+			case SHORT: return empty ? (short)0 : Short.parseShort(value);
+			case INT: return empty ? 0 : Integer.parseInt(value);
+			case LONG: return empty ? 0L : Long.parseLong(value);
+			case FLOAT: return empty ? 0f : Float.parseFloat(value);
+			case DOUBLE: return empty ? 0d : Double.parseDouble(value);
+			case BOOLEAN: return Boolean.parseBoolean(value);
+			case CHAR: return empty ? '\0' : value.charAt(0);
+			case STRING: return value;
+			default: return empty ? new String[0] : value.split("\n");
+		}
+	}
+
+	/**
+	 * Get the index of a return type in TYPES.
+	 *
+	 * @param type Return type
+	 * @return Index, or -1 if not supported
+	 */
+	private static int indexOf(final Class<?> type) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if (TYPES[i] == type) { return i; }
+		}
+		return -1;
+	}
+
+	/**
+	 * Check if a method is one of Object's public methods, which an interface
+	 * may redeclare but which the implementation inherits from Object.
+	 *
+	 * @param method Method to check
+	 * @return True if Object has the same public method
+	 */
+	private static boolean isObjectMethod(final Method method) {
+		try {
+			Object.class.getMethod(method.getName(), method.getParameterTypes());
+			return true;
+		} catch (NoSuchMethodException nsme) {
+			return false;
+		}
+	}
+
+	/**
+	 * Generate the implementation class file.
+	 * The methods have no branches, so no StackMapTable is needed.
+	 *
+	 * @param schema Schema interface
+	 * @return Class file
+	 */
+	private byte[] generate(final Class<?> schema) {
+		final ConstantPool pool = new ConstantPool();
+		final String name = schema.getName().replace('.', '/') + "$$Accessor";
+		final int thisClass = pool.classRef(name);
+		final int superClass = pool.classRef("java/lang/Object");
+		final int schemaClass = pool.classRef(schema.getName().replace('.', '/'));
+		final int code = pool.utf8("Code");
+		final int init = pool.methodRef(superClass, "<init>", "()V");
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			// Fields: private volatile.
+			out.writeShort(getters.length);
+			for (int i = 0; i < getters.length; i++) {
+				out.writeShort(0x0002 | 0x0040);
+				out.writeShort(pool.utf8("f" + i));
+				out.writeShort(pool.utf8(descriptor(getters[i].type)));
+				out.writeShort(0);
+			}
+
+			out.writeShort(getters.length + 1);
+			// public <init>() { super(); }
+			out.writeShort(0x0001);
+			out.writeShort(pool.utf8("<init>"));
+			out.writeShort(pool.utf8("()V"));
+			out.writeShort(1);
+			writeCode(out, code, 1, new byte[]{0x2a, (byte)0xb7, (byte)(init >> 8), (byte)init, (byte)0xb1});
+			// public final T name() { return this.fN; }
+			for (int i = 0; i < getters.length; i++) {
+				final String descriptor = descriptor(getters[i].type);
+				final int field = pool.fieldRef(thisClass, "f" + i, descriptor);
+				out.writeShort(0x0001 | 0x0010);
+				out.writeShort(pool.utf8(getters[i].name));
+				out.writeShort(pool.utf8("()" + descriptor));
+				out.writeShort(1);
+				writeCode(out, code, 2, new byte[]{0x2a, (byte)0xb4, (byte)(field >> 8), (byte)field, (byte)RETURNS[getters[i].type]});
+			}
+			// No class attributes.
+			out.writeShort(0);
+		} catch (IOException ioe) {
+			throw new AssertionError(ioe);
+		}
+
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(result)) {
+			out.writeInt(0xCAFEBABE);
+			// Java 8
+			out.writeShort(0);
+			out.writeShort(52);
+			pool.write(out);
+			// public final synthetic
+			out.writeShort(0x0001 | 0x0010 | 0x0020 | 0x1000);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(schemaClass);
+			bytes.writeTo(out);
+		} catch (IOException ioe) {
+			throw new AssertionError(ioe);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Get the field descriptor of a type.
+	 *
+	 * @param type Type
+	 * @return Descriptor
+	 */
+	private static String descriptor(final int type) {
+		return MethodType.methodType(TYPES[type]).toMethodDescriptorString().substring(2);
+	}
+
+	/**
+	 * Write a Code attribute, for a method with one local (this).
+	 *
+	 * @param out Stream to write to
+	 * @param code Constant pool index of "Code"
+	 * @param maxStack Maximum stack size
+	 * @param instructions Bytecode
+	 * @throws IOException Never
+	 */
+	private static void writeCode(final DataOutputStream out, final int code, final int maxStack, final byte[] instructions) throws IOException {
+		out.writeShort(code);
+		out.writeInt(12 + instructions.length);
+		out.writeShort(maxStack);
+		out.writeShort(1);
+		out.writeInt(instructions.length);
+		out.write(instructions);
+		// No exception table or attributes.
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+	/** Constant pool being built, with each constant added once. */
+	private static final class ConstantPool {
+		/** Index of each constant added. */
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		/** Constants written so far. */
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		/** Constants written. */
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		/** Next index. */
+		private int next = 1;
+
+		/**
+		 * Add a constant.
+		 *
+		 * @param tag Constant type
+		 * @param key Unique description of the constant
+		 * @param first First u2 of the constant
+		 * @param second Second u2 of the constant, or -1 if none
+		 * @return Index of the constant
+		 */
+		private int add(final int tag, final String key, final int first, final int second) {
+			final Integer existing = indexes.get(tag + ":" + key);
+			if (existing != null) { return existing; }
+			try {
+				out.writeByte(tag);
+				out.writeShort(first);
+				if (second >= 0) { out.writeShort(second); }
+			} catch (IOException ioe) {
+				throw new AssertionError(ioe);
+			}
+			indexes.put(tag + ":" + key, next);
+			return next++;
+		}
+
+		/**
+		 * Add a Utf8 constant.
+		 *
+		 * @param value String
+		 * @return Index of the constant
+		 */
+		int utf8(final String value) {
+			final Integer existing = indexes.get("1:" + value);
+			if (existing != null) { return existing; }
+			try {
+				out.writeByte(1);
+				out.writeUTF(value);
+			} catch (IOException ioe) {
+				throw new AssertionError(ioe);
+			}
+			indexes.put("1:" + value, next);
+			return next++;
+		}
+
+		/**
+		 * Add a Class constant.
+		 *
+		 * @param name Internal name of the class
+		 * @return Index of the constant
+		 */
+		int classRef(final String name) {
+			return add(7, name, utf8(name), -1);
+		}
+
+		/**
+		 * Add a NameAndType constant.
+		 *
+		 * @param name Name
+		 * @param descriptor Descriptor
+		 * @return Index of the constant
+		 */
+		private int nameAndType(final String name, final String descriptor) {
+			return add(12, name + " " + descriptor, utf8(name), utf8(descriptor));
+		}
+
+		/**
+		 * Add a Fieldref constant.
+		 *
+		 * @param owner Index of the owning Class constant
+		 * @param name Name of the field
+		 * @param descriptor Descriptor of the field
+		 * @return Index of the constant
+		 */
+		int fieldRef(final int owner, final String name, final String descriptor) {
+			return add(9, owner + " " + name + " " + descriptor, owner, nameAndType(name, descriptor));
+		}
+
+		/**
+		 * Add a Methodref constant.
+		 *
+		 * @param owner Index of the owning Class constant
+		 * @param name Name of the method
+		 * @param descriptor Descriptor of the method
+		 * @return Index of the constant
+		 */
+		int methodRef(final int owner, final String name, final String descriptor) {
+			return add(10, owner + " " + name + " " + descriptor, owner, nameAndType(name, descriptor));
+		}
+
+		/**
+		 * Write the constant pool count and constants.
+		 *
+		 * @param target Stream to write to
+		 * @throws IOException If the stream can't be written
+		 */
+		void write(final DataOutputStream target) throws IOException {
+			target.writeShort(next);
+			bytes.writeTo(target);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2006-2007 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+package uk.org.dataforce.libs.util;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads large properties files by parsing parts of them in parallel.
+ *
+ * The file is memory mapped and split after line feeds where the line before
+ * does not end in an odd number of backslashes. Whatever that line was (a
+ * comment, a complete line or the end of a continued one) the next line always
+ * starts a new logical line, so each part can be parsed on its own. Each part
+ * is parsed by java.util.Properties itself, so the results are exactly the same
+ * as loading the whole file in one go.
+ *
+ * Splitting on bytes only works for charsets where '\n', '\r' and '\\' can't
+ * appear inside another character, see isSplittable(). Files in other charsets
+ * are parsed on a single thread.
+ */
+final class PropertiesFileLoader {
+	/** Parts smaller than this are not split any further. */
+	private static final int MIN_CHUNK = 1 << 20;
+	/** Largest part of the file mapped at once. */
+	private static final int MAX_WINDOW = Integer.MAX_VALUE;
+
+	/**
+	 * Entries parsed from one part of a file, in the order they appeared.
+	 * java.util.Properties parses straight into put(), so this collects them
+	 * from there rather than storing them.
+	 */
+	static final class Entries extends Properties {
+		/** A version number for this class. */
+		private static final long serialVersionUID = 1;
+
+		/** Should keys be lowercased? */
+		private final boolean lowerCase;
+		/** Keys, in order. */
+		private String[] keys = new String[256];
+		/** Values, in order. */
+		private String[] values = new String[256];
+		/** Number of entries. */
+		private int size = 0;
+
+		/**
+		 * Create a new Entries.
+		 *
+		 * @param lowerCase Should keys be lowercased?
+		 */
+		Entries(final boolean lowerCase) {
+			super();
+			this.lowerCase = lowerCase;
+		}
+
+		/**
+		 * Collect an entry from the parser.
+		 *
+		 * @param key Key parsed
+		 * @param value Value parsed
+		 * @return null
+		 */
+		@Override
+		public Object put(final Object key, final Object value) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			keys[size] = lowerCase ? TypedProperties.lowerCaseKey((String)key) : (String)key;
+			values[size] = (String)value;
+			size++;
+			return null;
+		}
+
+		/**
+		 * Get the number of entries.
+		 *
+		 * @return Number of entries parsed
+		 */
+		int getCount() {
+			return size;
+		}
+
+		/**
+		 * Get a key.
+		 *
+		 * @param index Index of entry
+		 * @return The key
+		 */
+		String getKey(final int index) {
+			return keys[index];
+		}
+
+		/**
+		 * Get a value.
+		 *
+		 * @param index Index of entry
+		 * @return The value
+		 */
+		String getValue(final int index) {
+			return values[index];
+		}
+	}
+
+	/** Parses one part of a mapped window, splitting it further if large. */
+	private static final class ChunkTask extends RecursiveTask<List<Entries>> {
+		/** A version number for this class. */
+		private static final long serialVersionUID = 1;
+
+		/** Window being parsed. */
+		private final transient ByteBuffer buffer;
+		/** Start of the part. */
+		private final int start;
+		/** End of the part. */
+		private final int end;
+		/** Charset of the file. */
+		private final transient Charset charset;
+		/** Should keys be lowercased? */
+		private final boolean lowerCase;
+
+		/**
+		 * Create a new ChunkTask.
+		 *
+		 * @param buffer Window being parsed
+		 * @param start Start of the part, at the start of a logical line
+		 * @param end End of the part, at the start of a logical line
+		 * @param charset Charset of the file
+		 * @param lowerCase Should keys be lowercased?
+		 */
+		ChunkTask(final ByteBuffer buffer, final int start, final int end, final Charset charset, final boolean lowerCase) {
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.charset = charset;
+			this.lowerCase = lowerCase;
+		}
+
+		/**
+		 * Parse this part, splitting it in two first if it is large.
+		 *
+		 * @return Entries parsed, in the order they appeared
+		 */
+		@Override
+		protected List<Entries> compute() {
+			if (end - start >= MIN_CHUNK * 2) {
+				final int split = nextBoundary(buffer, start + (end - start) / 2, end);
+				if (split > 0) {
+					final ChunkTask left = new ChunkTask(buffer, start, split, charset, lowerCase);
+					left.fork();
+					final List<Entries> right = new ChunkTask(buffer, split, end, charset, lowerCase).compute();
+					final List<Entries> result = left.join();
+					result.addAll(right);
+					return result;
+				}
+			}
+			final List<Entries> result = new ArrayList<Entries>();
+			result.add(parse());
+			return result;
+		}
+
+		/**
+		 * Parse this part.
+		 *
+		 * @return Entries parsed
+		 */
+		private Entries parse() {
+			final CharBuffer chars = charset.decode(buffer.slice(start, end - start));
+			final Entries entries = new Entries(lowerCase);
+			try {
+				entries.load(new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining()));
+			} catch (IOException ioe) {
+				// Can't happen reading from memory.
+				throw new IllegalStateException(ioe);
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Check if files in a charset can be split.
+	 *
+	 * @param charset Charset to check
+	 * @return True if '\n', '\r' and '\\' are always single bytes
+	 */
+	static boolean isSplittable(final Charset charset) {
+		return charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse a file, in parallel if the charset allows.
+	 *
+	 * @param file File to parse
+	 * @param charset Charset of the file
+	 * @param lowerCase Should keys be lowercased?
+	 * @return Entries parsed, in the order they appeared
+	 * @throws IOException If the file can't be read
+	 */
+	static List<Entries> load(final File file, final Charset charset, final boolean lowerCase) throws IOException {
+		final List<Entries> result = new ArrayList<Entries>();
+		if (!isSplittable(charset)) {
+			final Entries entries = new Entries(lowerCase);
+			try (Reader reader = new InputStreamReader(new FileInputStream(file), charset)) {
+				entries.load(reader);
+			}
+			result.add(entries);
+			return result;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAX_WINDOW));
+				int end = buffer.limit();
+				if (position + end < size) {
+					// Stop this window at the last place it can be split.
+					end = lastBoundary(buffer, end);
+					if (end < 0) { throw new IOException("Line too long at offset " + position + " in " + file); }
+				}
+				result.addAll(ForkJoinPool.commonPool().invoke(new ChunkTask(buffer, 0, end, charset, lowerCase)));
+				position += end;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Check if a line feed ends a logical line.
+	 *
+	 * @param buffer Buffer to check
+	 * @param index Index of a line feed
+	 * @return True if the line before doesn't end in an odd number of backslashes
+	 */
+	private static boolean isBoundary(final ByteBuffer buffer, final int index) {
+		int pos = index - 1;
+		// \r\n is a single line ending.
+		if (pos >= 0 && buffer.get(pos) == '\r') { pos--; }
+		int backslashes = 0;
+		while (pos >= 0 && buffer.get(pos) == '\\') {
+			backslashes++;
+			pos--;
+		}
+		return (backslashes & 1) == 0;
+	}
+
+	/**
+	 * Find the first place a buffer can be split at or after a position.
+	 *
+	 * @param buffer Buffer to look in
+	 * @param from Position to start looking from
+	 * @param end Position to stop looking at
+	 * @return Position after the line feed, or -1 if none before end
+	 */
+	private static int nextBoundary(final ByteBuffer buffer, final int from, final int end) {
+		for (int i = from; i < end - 1; i++) {
+			if (buffer.get(i) == '\n' && isBoundary(buffer, i)) { return i + 1; }
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last place a buffer can be split before a position.
+	 *
+	 * @param buffer Buffer to look in
+	 * @param end Position to look back from
+	 * @return Position after the line feed, or -1 if none
+	 */
+	private static int lastBoundary(final ByteBuffer buffer, final int end) {
+		for (int i = end - 1; i >= 0; i--) {
+			if (buffer.get(i) == '\n' && isBoundary(buffer, i)) { return i + 1; }
+		}
+		return -1;
+	}
+
+	/** Prevent instances of PropertiesFileLoader. */
+	private PropertiesFileLoader() { }
+}
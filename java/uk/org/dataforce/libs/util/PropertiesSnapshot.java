@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2006-2007 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * SVN: $Id$
+ */
+package uk.org.dataforce.libs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A binary snapshot of a parsed properties file, so it can be loaded again
+ * without parsing.
+ * <pre>
+ * Header (56 bytes):
+ *   int MAGIC, int VERSION
+ *   long source length, long source last modified, long source CRC32C
+ *   int flags, int charset name, int entry count, int slot count
+ *   int string table size, int reserved
+ * Slots (24 bytes each), an open-addressed table by key hash:
+ *   int key hash (String.hashCode()), int key (-1 if empty), int value
+ *   int type, long parsed value
+ * String table:
+ *   int (length &lt;&lt; 1 | 1 if UTF-16), then length bytes (ISO 8859-1) or
+ *   length chars (UTF-16)
+ * </pre>
+ * Keys and values are offsets into the string table, and equal strings are
+ * only stored once. Values that parse as a long, double or boolean have the
+ * parsed value stored as well, so typed getters don't need to parse them.
+ *
+ * Snapshots are memory mapped, and keys are compared in place, so only the
+ * values actually asked for are turned into Strings.
+ */
+final class PropertiesSnapshot {
+	/** Magic number at the start of the file, "DFPS". */
+	private static final int MAGIC = 0x44465053;
+	/** Version of the file format (2 leaves non-ASCII numbers as Strings). */
+	private static final int VERSION = 2;
+	/** Size of the header. */
+	private static final int HEADER_SIZE = 56;
+	/** Size of each slot. */
+	private static final int SLOT_SIZE = 24;
+	/** Flag set if keys were lowercased. */
+	private static final int FLAG_LOWER_CASE = 1;
+	/** Largest part of a source file mapped at once when checksumming. */
+	private static final int MAX_WINDOW = 1 << 30;
+
+	/** Value is only a String. */
+	static final int TYPE_STRING = 0;
+	/** Value parses as a long. */
+	static final int TYPE_LONG = 1;
+	/** Value parses as a double, but not a long. */
+	static final int TYPE_DOUBLE = 2;
+	/** Value is "true" or "false", ignoring case. */
+	static final int TYPE_BOOLEAN = 3;
+
+	/** Mapped snapshot. */
+	private final ByteBuffer buffer;
+	/** Number of entries. */
+	private final int count;
+	/** Mask used to turn a hash into a slot. */
+	private final int mask;
+	/** Position of the string table. */
+	private final int strings;
+	/** Values turned into Strings so far, by slot. */
+	private final String[] values;
+	/** Values parsed so far by TypedProperties, by slot. */
+	private final Object[] parsed;
+
+	/**
+	 * Create a new PropertiesSnapshot.
+	 *
+	 * @param buffer Mapped snapshot, already checked
+	 */
+	private PropertiesSnapshot(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		count = buffer.getInt(40);
+		final int slots = buffer.getInt(44);
+		mask = slots - 1;
+		strings = HEADER_SIZE + slots * SLOT_SIZE;
+		values = new String[slots];
+		parsed = new Object[slots];
+	}
+
+	/**
+	 * Get the snapshot file for a properties file.
+	 *
+	 * @param file Properties file
+	 * @return Snapshot file
+	 */
+	static File getFile(final File file) {
+		return new File(file.getPath() + ".snap");
+	}
+
+	/**
+	 * Open a snapshot, if it is up to date.
+	 *
+	 * @param snapshotFile Snapshot file
+	 * @param source Properties file it should be a snapshot of
+	 * @param charset Charset the properties file is read with
+	 * @param lowerCase Should keys be lowercased?
+	 * @return The snapshot, or null if missing, stale or damaged
+	 * @throws IOException If the source file can't be read
+	 */
+	static PropertiesSnapshot open(final File snapshotFile, final File source, final Charset charset, final boolean lowerCase) throws IOException {
+		if (!snapshotFile.isFile()) { return null; }
+		final ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) { return null; }
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) { return null; }
+		if (buffer.getLong(8) != source.length() || buffer.getLong(16) != source.lastModified()) { return null; }
+		if (((buffer.getInt(32) & FLAG_LOWER_CASE) != 0) != lowerCase) { return null; }
+		final int slots = buffer.getInt(44);
+		if (slots <= 0 || (slots & (slots - 1)) != 0 || (long)HEADER_SIZE + (long)slots * SLOT_SIZE + buffer.getInt(48) != buffer.limit()) { return null; }
+		final PropertiesSnapshot snapshot = new PropertiesSnapshot(buffer);
+		try {
+			if (!charset.name().equals(snapshot.getString(buffer.getInt(36)))) { return null; }
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+		// Last, as it means reading the whole source.
+		if (buffer.getLong(24) != checksum(source)) { return null; }
+		return snapshot;
+	}
+
+	/**
+	 * Get the checksum of a file.
+	 *
+	 * @param file File to checksum
+	 * @return CRC32C of the file's contents
+	 * @throws IOException If the file can't be read
+	 */
+	static long checksum(final File file) throws IOException {
+		final CRC32C crc = new CRC32C();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += MAX_WINDOW) {
+				crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAX_WINDOW)));
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Write a snapshot.
+	 * The snapshot is written to a temporary file and renamed into place, so
+	 * readers never see a partial one.
+	 *
+	 * @param snapshotFile Snapshot file
+	 * @param length Length of the properties file when it was read
+	 * @param modified Last modified time of the properties file when it was read
+	 * @param checksum Checksum of the properties file when it was read
+	 * @param charset Charset the properties file was read with
+	 * @param lowerCase Were keys lowercased?
+	 * @param parts Entries parsed from the properties file, in order
+	 * @throws IOException If the snapshot can't be written
+	 */
+	static void write(final File snapshotFile, final long length, final long modified, final long checksum, final Charset charset, final boolean lowerCase, final List<PropertiesFileLoader.Entries> parts) throws IOException {
+		final Map<String, String> entries = new HashMap<String, String>();
+		for (PropertiesFileLoader.Entries part : parts) {
+			for (int i = 0; i < part.getCount(); i++) {
+				entries.put(part.getKey(i), part.getValue(i));
+			}
+		}
+		int slots = 2;
+		while (slots < entries.size() * 2) { slots <<= 1; }
+		final int slotMask = slots - 1;
+
+		final StringTable table = new StringTable();
+		final ByteBuffer slotBuffer = ByteBuffer.allocate(slots * SLOT_SIZE);
+		for (int slot = 0; slot < slots; slot++) {
+			slotBuffer.putInt(slot * SLOT_SIZE + 4, -1);
+		}
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			final int hash = entry.getKey().hashCode();
+			int slot = (hash ^ (hash >>> 16)) & slotMask;
+			while (slotBuffer.getInt(slot * SLOT_SIZE + 4) >= 0) { slot = (slot + 1) & slotMask; }
+			final int base = slot * SLOT_SIZE;
+			slotBuffer.putInt(base, hash);
+			slotBuffer.putInt(base + 4, table.add(entry.getKey()));
+			slotBuffer.putInt(base + 8, table.add(entry.getValue()));
+			putParsedValue(slotBuffer, base, entry.getValue());
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION);
+		header.putLong(length).putLong(modified).putLong(checksum);
+		header.putInt(lowerCase ? FLAG_LOWER_CASE : 0);
+		header.putInt(table.add(charset.name()));
+		header.putInt(entries.size()).putInt(slots);
+		header.putInt(table.size).putInt(0);
+		header.flip();
+
+		final File temp = new File(snapshotFile.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer[] data = {header, slotBuffer, ByteBuffer.wrap(table.data, 0, table.size)};
+			while (data[2].hasRemaining()) { channel.write(data); }
+		} catch (IOException ioe) {
+			temp.delete();
+			throw ioe;
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Store the parsed form of a value in a slot.
+	 *
+	 * @param slotBuffer Slots being written
+	 * @param base Position of the slot
+	 * @param value Value to parse
+	 */
+	private static void putParsedValue(final ByteBuffer slotBuffer, final int base, final String value) {
+		int type = TYPE_STRING;
+		long bits = 0;
+		if (isNumeric(value)) {
+			try {
+				bits = Long.parseLong(value);
+				type = TYPE_LONG;
+			} catch (NumberFormatException nfe) {
+				try {
+					bits = Double.doubleToRawLongBits(Double.parseDouble(value));
+					type = TYPE_DOUBLE;
+				} catch (NumberFormatException nfe2) {
+					// Just a String.
+				}
+			}
+		} else if ("true".equalsIgnoreCase(value)) {
+			type = TYPE_BOOLEAN;
+			bits = 1;
+		} else if ("false".equalsIgnoreCase(value)) {
+			type = TYPE_BOOLEAN;
+		}
+		slotBuffer.putInt(base + 12, type);
+		slotBuffer.putLong(base + 16, bits);
+	}
+
+	/**
+	 * Check if a value might be a number, to avoid throwing exceptions for the
+	 * many that are not. Double.parseDouble() ignores leading whitespace and
+	 * accepts NaN and Infinity. Values with any non-ASCII characters are left
+	 * as Strings: Long.parseLong() accepts digits in any script but
+	 * Double.parseDouble() doesn't, so only parsing the text gives the same
+	 * results as load().
+	 *
+	 * @param value Value to check
+	 * @return False if it certainly isn't a number
+	 */
+	private static boolean isNumeric(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 127) { return false; }
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c > ' ') {
+				return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'N' || c == 'I';
+			}
+		}
+		return false;
+	}
+
+	/** Strings being written, each stored once. */
+	private static final class StringTable {
+		/** Offset of each string added. */
+		private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+		/** Table so far. */
+		byte[] data = new byte[65536];
+		/** Size of the table so far. */
+		int size = 0;
+
+		/**
+		 * Add a string to the table.
+		 *
+		 * @param string String to add
+		 * @return Offset of the string
+		 */
+		int add(final String string) {
+			final Integer existing = offsets.get(string);
+			if (existing != null) { return existing; }
+			final int offset = size;
+			final int length = string.length();
+			boolean latin1 = true;
+			for (int i = 0; i < length && latin1; i++) {
+				latin1 = string.charAt(i) <= 0xFF;
+			}
+			final int bytes = latin1 ? length : length * 2;
+			if (size + 4L + bytes > Integer.MAX_VALUE - HEADER_SIZE) {
+				throw new IllegalStateException("Too much data for a snapshot");
+			}
+			if (size + 4 + bytes > data.length) {
+				data = Arrays.copyOf(data, (int)Math.min(Integer.MAX_VALUE - 8, Math.max((long)data.length * 2, size + 4L + bytes)));
+			}
+			final ByteBuffer out = ByteBuffer.wrap(data, size, 4 + bytes);
+			out.putInt(length << 1 | (latin1 ? 0 : 1));
+			if (latin1) {
+				for (int i = 0; i < length; i++) { out.put((byte)string.charAt(i)); }
+			} else {
+				for (int i = 0; i < length; i++) { out.putChar(string.charAt(i)); }
+			}
+			size += 4 + bytes;
+			offsets.put(string, offset);
+			return offset;
+		}
+	}
+
+	/**
+	 * Get the number of entries.
+	 *
+	 * @return Number of entries
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Get the number of slots.
+	 *
+	 * @return Number of slots, some of which are empty
+	 */
+	int getSlots() {
+		return mask + 1;
+	}
+
+	/**
+	 * Check if a slot has an entry.
+	 *
+	 * @param slot Slot to check
+	 * @return True if the slot is used
+	 */
+	boolean isUsed(final int slot) {
+		return buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4) >= 0;
+	}
+
+	/**
+	 * Find a key.
+	 *
+	 * @param key Key to look for
+	 * @param hash key.hashCode(), or what it would be for a String
+	 * @return Slot of the key, or -1 if not present
+	 */
+	int indexOf(final CharSequence key, final int hash) {
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (true) {
+			final int base = HEADER_SIZE + slot * SLOT_SIZE;
+			final int keyOffset = buffer.getInt(base + 4);
+			if (keyOffset < 0) { return -1; }
+			if (buffer.getInt(base) == hash && matches(keyOffset, key)) { return slot; }
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Compare a string in the table with a key, without creating it.
+	 *
+	 * @param offset Offset of the string
+	 * @param key Key to compare with
+	 * @return True if they are the same
+	 */
+	private boolean matches(final int offset, final CharSequence key) {
+		final int pos = strings + offset;
+		final int header = buffer.getInt(pos);
+		final int length = header >>> 1;
+		if (length != key.length()) { return false; }
+		if ((header & 1) == 0) {
+			for (int i = 0; i < length; i++) {
+				if ((char)(buffer.get(pos + 4 + i) & 0xFF) != key.charAt(i)) { return false; }
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				if (buffer.getChar(pos + 4 + i * 2) != key.charAt(i)) { return false; }
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get a string from the table.
+	 *
+	 * @param offset Offset of the string
+	 * @return The string
+	 */
+	private String getString(final int offset) {
+		final int pos = strings + offset;
+		final int header = buffer.getInt(pos);
+		final int length = header >>> 1;
+		if ((header & 1) == 0) {
+			final byte[] bytes = new byte[length];
+			buffer.get(pos + 4, bytes);
+			return new String(bytes, StandardCharsets.ISO_8859_1);
+		} else {
+			final char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = buffer.getChar(pos + 4 + i * 2);
+			}
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * Get the key in a slot.
+	 *
+	 * @param slot Slot to get
+	 * @return The key
+	 */
+	String getKey(final int slot) {
+		return getString(buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4));
+	}
+
+	/**
+	 * Get the value in a slot.
+	 * Values are only turned into Strings the first time they are asked for.
+	 *
+	 * @param slot Slot to get
+	 * @return The value
+	 */
+	String getValue(final int slot) {
+		String value = values[slot];
+		if (value == null) {
+			value = getString(buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8));
+			values[slot] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Get the type the value in a slot parses as.
+	 *
+	 * @param slot Slot to get
+	 * @return TYPE_STRING, TYPE_LONG, TYPE_DOUBLE or TYPE_BOOLEAN
+	 */
+	int getType(final int slot) {
+		return buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 12);
+	}
+
+	/**
+	 * Get the parsed value in a slot.
+	 *
+	 * @param slot Slot to get
+	 * @return The long, the raw bits of the double, or 1 for true
+	 */
+	long getBits(final int slot) {
+		return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + 16);
+	}
+
+	/**
+	 * Get what TypedProperties cached for a slot.
+	 *
+	 * @param slot Slot to get
+	 * @return The cached object, or null
+	 */
+	Object getParsed(final int slot) {
+		return parsed[slot];
+	}
+
+	/**
+	 * Cache something for a slot.
+	 * This isn't synchronised, so should only be used for objects that are
+	 * safe to see half filled in, such as arrays of immutable objects.
+	 *
+	 * @param slot Slot to set
+	 * @param value Object to cache
+	 */
+	void setParsed(final int slot, final Object value) {
+		parsed[slot] = value;
+	}
+}
@@ -23,15 +23,51 @@
  */
 package uk.org.dataforce.libs.util;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.io.File;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Properties file that allows for getting/setting of typed properties
+ * Properties file that allows for getting/setting of typed properties.
+ * Typed values are parsed the first time they are read and cached until the
+ * property changes.
+ *
+ * For config that is read far more than it is changed, setReadMostly(true)
+ * serves reads from an immutable snapshot without locking. Each change, made
+ * through the TypedProperties or Map methods or the keySet(), values() and
+ * entrySet() views, builds a new snapshot while holding the lock and then
+ * publishes it. During a load() reads go to the table until it is done.
+ *
+ * When case insensitive, keys are stored lowercased. Lookups remember the
+ * lowercased form of each spelling they are given, and otherwise hash and
+ * compare ASCII keys as if lowercased rather than lowercasing them, so they
+ * allocate nothing; only keys with other characters are lowercased first.
+ *
+ * loadWithSnapshot() keeps a binary snapshot of each file it loads, and reads
+ * it in place the next time instead of parsing the file again.
+ *
+ * For settings read in hot loops, bind() implements an interface of annotated
+ * getters whose values are parsed once per change and then read as fields.
  */
 public class TypedProperties extends Properties {
 	/**
@@ -45,6 +81,450 @@ public class TypedProperties extends Properties {
 	/** Is this properties file Case Sensitive */
 	private boolean caseSensitive = true;
 	
+	/** Values already parsed by the typed getters, by key and then type. */
+	private transient volatile ConcurrentHashMap<String, ParsedValue[]> parsedValues;
+	
+	/** Snapshot that reads are served from, or null if not read-mostly. */
+	private transient volatile Snapshot snapshot;
+	
+	/**
+	 * Mapped file snapshot holding every property, or null. While set, the
+	 * table itself is empty and is only filled in when something needs it.
+	 */
+	private transient volatile PropertiesSnapshot mapped;
+	
+	/** Accessors returned by bind(), or null if there are none. */
+	private transient List<BoundAccessor> boundAccessors;
+	
+	/** Depth of changes that refresh bound accessors only when done. */
+	private transient int bulkChanges;
+	
+	/**
+	 * An instance returned by bind(), held weakly so that it can be collected
+	 * once no longer used.
+	 */
+	private static final class BoundAccessor extends WeakReference<Object> {
+		/** Accessor that refreshes the instance. */
+		final PropertiesAccessor accessor;
+		
+		/**
+		 * Create a new BoundAccessor.
+		 *
+		 * @param accessor Accessor that refreshes the instance
+		 * @param instance Instance returned by bind()
+		 */
+		BoundAccessor(final PropertiesAccessor accessor, final Object instance) {
+			super(instance);
+			this.accessor = accessor;
+		}
+	}
+	
+	/**
+	 * An immutable copy of the String properties, in an open-addressed table.
+	 * The parsed values for each slot are filled in when first asked for.
+	 */
+	private static final class Snapshot {
+		/** Marker for a snapshot being rebuilt, reads go to the table. */
+		static final Snapshot STALE = new Snapshot();
+		
+		/** Is this the stale marker? */
+		final boolean stale;
+		/** Keys, by slot. */
+		final String[] keys;
+		/** Values, by slot. */
+		final String[] values;
+		/** Parsed values, by slot and then type. */
+		final ParsedValue[][] parsed;
+		/** Mask used to turn a hash into a slot. */
+		final int mask;
+		
+		/**
+		 * Create the stale marker.
+		 */
+		private Snapshot() {
+			stale = true;
+			keys = new String[1];
+			values = new String[1];
+			parsed = new ParsedValue[1][];
+			mask = 0;
+		}
+		
+		/**
+		 * Copy the String properties from a map.
+		 * The caller must hold the map's lock.
+		 *
+		 * @param map Map to copy
+		 */
+		Snapshot(final Map<Object, Object> map) {
+			stale = false;
+			// At most half full, so there is always an empty slot to stop at.
+			int size = 2;
+			while (size < map.size() * 2) { size <<= 1; }
+			keys = new String[size];
+			values = new String[size];
+			parsed = new ParsedValue[size][];
+			mask = size - 1;
+			for (Map.Entry<Object, Object> entry : map.entrySet()) {
+				if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+					final String key = (String)entry.getKey();
+					int slot = hash(key) & mask;
+					while (keys[slot] != null) { slot = (slot + 1) & mask; }
+					keys[slot] = key;
+					values[slot] = (String)entry.getValue();
+				}
+			}
+		}
+		
+		/**
+		 * Spread a key's hash code over the low bits.
+		 *
+		 * @param key Key (or CaseFoldedKey) to hash
+		 * @return The hash
+		 */
+		static int hash(final Object key) {
+			final int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+		
+		/**
+		 * Find a key.
+		 *
+		 * @param key Key (or CaseFoldedKey) to look for
+		 * @return Slot of the key, or -1 if not present
+		 */
+		int indexOf(final Object key) {
+			int slot = hash(key) & mask;
+			String candidate;
+			while ((candidate = keys[slot]) != null) {
+				if (key.equals(candidate)) { return slot; }
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+		
+		/**
+		 * Get the value in a slot parsed as the given type.
+		 * Slots are filled without locking, but as ParsedValue is immutable the
+		 * worst a race can do is parse the value again.
+		 *
+		 * @param slot Slot to get
+		 * @param type ParsedValue type to parse as
+		 * @return the parsed value, or null if not valid
+		 */
+		ParsedValue getParsedValue(final int slot, final int type) {
+			ParsedValue[] byType = parsed[slot];
+			if (byType == null) {
+				byType = new ParsedValue[ParsedValue.TYPES];
+				parsed[slot] = byType;
+			}
+			ParsedValue result = byType[type];
+			if (result == null) {
+				result = new ParsedValue(values[slot], type);
+				byType[type] = result;
+			}
+			return result.valid ? result : null;
+		}
+	}
+	
+	/**
+	 * Probe used to look up an ASCII key as if it had been lowercased.
+	 * It has the same hash code as the lowercased key, and equals() a String
+	 * that matches the lowercased key. Map.get() compares keys with
+	 * probe.equals(stored), so this finds the stored key without creating it.
+	 * As a CharSequence it reads as the lowercased key, for PropertiesSnapshot.
+	 */
+	private static final class CaseFoldedKey implements CharSequence {
+		/** Maximum number of spellings to remember. */
+		private static final int MAX_REMEMBERED = 4096;
+		/** Lowercased keys, by the spelling looked up. */
+		private static final ConcurrentHashMap<String, String> REMEMBERED = new ConcurrentHashMap<String, String>();
+		/** Probe for each thread. */
+		static final ThreadLocal<CaseFoldedKey> PROBE = ThreadLocal.withInitial(CaseFoldedKey::new);
+		
+		/** Key being looked up. */
+		private String key;
+		/** Hash code of the lowercased key. */
+		private int hash;
+		/** Is the key lowercase already? */
+		private boolean lower;
+		
+		/**
+		 * Lowercase a key the way lookups expect.
+		 *
+		 * @param key Key to lowercase
+		 * @return The lowercased key, or key itself if already lowercase
+		 */
+		static String fold(final String key) {
+			boolean lower = true;
+			for (int i = 0; i < key.length(); i++) {
+				final char c = key.charAt(i);
+				if (c >= 0x80) {
+					return key.toLowerCase();
+				} else if (c >= 'A' && c <= 'Z') {
+					lower = false;
+				}
+			}
+			return lower ? key : key.toLowerCase(Locale.ROOT);
+		}
+		
+		/**
+		 * Get the lowercased key for a spelling that has been looked up before.
+		 * Keys are usually constants, so this is a lookup of a String with a
+		 * cached hash code, and the result's hash code is cached too.
+		 *
+		 * @param key Key to look up
+		 * @return The lowercased key, or null if not remembered
+		 */
+		static String getRemembered(final String key) {
+			return REMEMBERED.get(key);
+		}
+		
+		/**
+		 * Remember the lowercased key for a spelling, if there is room.
+		 *
+		 * @param key Key looked up
+		 */
+		static void remember(final String key) {
+			if (REMEMBERED.size() < MAX_REMEMBERED) { REMEMBERED.put(key, fold(key)); }
+		}
+		
+		/**
+		 * Get this thread's probe, set to the given key.
+		 * The hash and case are worked out in a single pass over the key.
+		 * The probe is only valid until the thread's next lookup.
+		 *
+		 * @param key Key to look up
+		 * @return The probe, or null if the key is not ASCII
+		 */
+		static CaseFoldedKey get(final String key) {
+			int h = 0;
+			boolean isLower = true;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (c >= 0x80) {
+					return null;
+				} else if (c >= 'A' && c <= 'Z') {
+					c = (char)(c + ('a' - 'A'));
+					isLower = false;
+				}
+				h = 31 * h + c;
+			}
+			final CaseFoldedKey probe = PROBE.get();
+			probe.key = key;
+			probe.hash = h;
+			probe.lower = isLower;
+			return probe;
+		}
+		
+		/**
+		 * Get the object to look up with: the key itself if it is lowercase
+		 * already (its String hash code is cached), else this probe.
+		 *
+		 * @return Key to look up
+		 */
+		CharSequence lookupKey() {
+			return lower ? key : this;
+		}
+		
+		/**
+		 * Lowercase an ASCII character.
+		 *
+		 * @param c Character to lowercase
+		 * @return The lowercase character
+		 */
+		private static char toLower(final char c) {
+			return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+		}
+		
+		/**
+		 * Get the length of the key.
+		 *
+		 * @return The length
+		 */
+		@Override
+		public int length() {
+			return key.length();
+		}
+		
+		/**
+		 * Get a character of the lowercased key.
+		 *
+		 * @param index Index of the character
+		 * @return The lowercase character
+		 */
+		@Override
+		public char charAt(final int index) {
+			return toLower(key.charAt(index));
+		}
+		
+		/**
+		 * Get part of the lowercased key.
+		 *
+		 * @param start Start index, inclusive
+		 * @param end End index, exclusive
+		 * @return The lowercased part
+		 */
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return toString().subSequence(start, end);
+		}
+		
+		/**
+		 * Get the lowercased key.
+		 *
+		 * @return The lowercased key
+		 */
+		@Override
+		public String toString() {
+			return key.toLowerCase(Locale.ROOT);
+		}
+		
+		/**
+		 * Get the hash code of the lowercased key.
+		 *
+		 * @return The hash code
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		/**
+		 * Check if a stored key matches the lowercased key.
+		 *
+		 * @param other Stored key
+		 * @return True if other is the lowercased key
+		 */
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof String)) { return false; }
+			final String stored = (String)other;
+			final int length = key.length();
+			if (stored.length() != length) { return false; }
+			for (int i = 0; i < length; i++) {
+				if (stored.charAt(i) != toLower(key.charAt(i))) { return false; }
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * A property value parsed as one type.
+	 * Entries are checked against the current value by identity, so one that
+	 * has been replaced is never used, even if the cache was not cleared.
+	 */
+	private static final class ParsedValue {
+		/** Parsed as a byte. */
+		static final int BYTE = 0;
+		/** Parsed as a short. */
+		static final int SHORT = 1;
+		/** Parsed as an int. */
+		static final int INT = 2;
+		/** Parsed as a long. */
+		static final int LONG = 3;
+		/** Parsed as a float. */
+		static final int FLOAT = 4;
+		/** Parsed as a double. */
+		static final int DOUBLE = 5;
+		/** Parsed as a boolean. */
+		static final int BOOLEAN = 6;
+		/** Parsed as a char. */
+		static final int CHAR = 7;
+		/** Number of types, for arrays indexed by type. */
+		static final int TYPES = 8;
+		
+		/** Value that was parsed. */
+		final String value;
+		/** Type it was parsed as. */
+		final int type;
+		/** Did it parse? */
+		final boolean valid;
+		/** Parsed value (floating point values as their raw bits). */
+		final long bits;
+		
+		/**
+		 * Parse a value.
+		 *
+		 * @param value Value to parse
+		 * @param type Type to parse it as
+		 */
+		ParsedValue(final String value, final int type) {
+			this.value = value;
+			this.type = type;
+			long result = 0;
+			boolean ok = true;
+			try {
+				switch (type) {
+					case BYTE: result = Byte.parseByte(value); break;
+					case SHORT: result = Short.parseShort(value); break;
+					case INT: result = Integer.parseInt(value); break;
+					case LONG: result = Long.parseLong(value); break;
+					case FLOAT: result = Float.floatToRawIntBits(Float.parseFloat(value)); break;
+					case DOUBLE: result = Double.doubleToRawLongBits(Double.parseDouble(value)); break;
+					case BOOLEAN: result = Boolean.parseBoolean(value) ? 1 : 0; break;
+					default:
+						ok = !value.isEmpty();
+						if (ok) { result = value.charAt(0); }
+						break;
+				}
+			} catch (NumberFormatException nfe) {
+				ok = false;
+			}
+			this.valid = ok;
+			this.bits = result;
+		}
+		
+		/**
+		 * Create an already parsed value.
+		 *
+		 * @param type Type it was parsed as
+		 * @param valid Did it parse?
+		 * @param bits Parsed value
+		 */
+		private ParsedValue(final int type, final boolean valid, final long bits) {
+			this.value = null;
+			this.type = type;
+			this.valid = valid;
+			this.bits = valid ? bits : 0;
+		}
+		
+		/**
+		 * Get a value from a mapped file snapshot as the given type, using the
+		 * value it was parsed as when the snapshot was written where possible.
+		 *
+		 * @param file Snapshot to get from
+		 * @param slot Slot of the value
+		 * @param type Type to parse it as
+		 * @return The parsed value
+		 */
+		static ParsedValue fromSnapshot(final PropertiesSnapshot file, final int slot, final int type) {
+			final int stored = file.getType(slot);
+			final long bits = file.getBits(slot);
+			final boolean isLong = stored == PropertiesSnapshot.TYPE_LONG;
+			if (stored == PropertiesSnapshot.TYPE_STRING && type != BOOLEAN) {
+				// Not a number when written, but don't second guess the
+				// parsers, which accept more than the writer checks for.
+				return new ParsedValue(file.getValue(slot), type);
+			}
+			switch (type) {
+				case BYTE: return new ParsedValue(type, isLong && bits == (byte)bits, bits);
+				case SHORT: return new ParsedValue(type, isLong && bits == (short)bits, bits);
+				case INT: return new ParsedValue(type, isLong && bits == (int)bits, bits);
+				case LONG: return new ParsedValue(type, isLong, bits);
+				case DOUBLE:
+					if (stored == PropertiesSnapshot.TYPE_DOUBLE) { return new ParsedValue(type, true, bits); }
+					// "-0" is a long 0, but the double -0.0.
+					if (isLong && bits != 0) { return new ParsedValue(type, true, Double.doubleToRawLongBits((double)bits)); }
+					if (!isLong) { return new ParsedValue(type, false, 0); }
+					// Parse "-0" itself.
+					break;
+				case BOOLEAN: return new ParsedValue(type, true, stored == PropertiesSnapshot.TYPE_BOOLEAN ? bits : 0);
+				default: break;
+			}
+			return new ParsedValue(file.getValue(slot), type);
+		}
+	}
+	
 	/**
 	 * Creates an empty property list with no default values.
 	 */
@@ -66,20 +546,26 @@ public class TypedProperties extends Properties {
 	 *
 	 * @param value True/False for the case sensitivity of this file
 	 */
-	public void setCaseSensitivity(final boolean value) {
+	public synchronized void setCaseSensitivity(final boolean value) {
+		materialize();
 		// Set all existing values to lowercase.
 		if (!value) {
-			for (Object property : this.keySet()) {
+			// Work from a copy of the keys, changing them while iterating can
+			// visit the same key twice.
+			for (Object property : keySet().toArray()) {
 				if (property instanceof String) {
 					final String propertyName = (String)property;
-					if (!propertyName.equals(propertyName.toLowerCase())) {
-						super.setProperty(propertyName.toLowerCase(), getProperty(propertyName));
+					final String lowerName = CaseFoldedKey.fold(propertyName);
+					if (lowerName != propertyName) {
+						super.put(lowerName, super.get(propertyName));
 						super.remove(propertyName);
 					}
 				}
 			}
 		}
 		caseSensitive = value;
+		clearParsedValues();
+		changed();
 	}
 	
 	/**
@@ -93,8 +579,17 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public void load(final InputStream inStream) throws IOException {
-		super.load(inStream);
-		setCaseSensitivity(caseSensitive);
+		synchronized (this) {
+			bulkChanges++;
+			try {
+				super.load(inStream);
+				setCaseSensitivity(caseSensitive);
+				clearParsedValues();
+			} finally {
+				bulkChanges--;
+				changed();
+			}
+		}
 	}
 	
 	/**
@@ -108,8 +603,17 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public void load(final Reader reader) throws IOException {
-		super.load(reader);
-		setCaseSensitivity(caseSensitive);
+		synchronized (this) {
+			bulkChanges++;
+			try {
+				super.load(reader);
+				setCaseSensitivity(caseSensitive);
+				clearParsedValues();
+			} finally {
+				bulkChanges--;
+				changed();
+			}
+		}
 	}
 	
 	/**
@@ -123,8 +627,175 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public void loadFromXML(final InputStream in) throws IOException {
-		super.loadFromXML(in);
+		synchronized (this) {
+			bulkChanges++;
+			try {
+				super.loadFromXML(in);
+				setCaseSensitivity(caseSensitive);
+				clearParsedValues();
+			} finally {
+				bulkChanges--;
+				changed();
+			}
+		}
+	}
+	
+	/**
+	 * Load properties from a file, parsing large files in parallel.
+	 * The file is read as ISO 8859-1, the same as load(InputStream).
+	 * After loading, setCaseSensitivity(caseSensitive) is called.
+	 *
+	 * @param file File to load from.
+	 * @throws IOException If there is an error reading from the file
+	 */
+	public void loadParallel(final File file) throws IOException {
+		loadParallel(file, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Load properties from a file, parsing large files in parallel.
+	 * The results are exactly the same as load(Reader) with the given charset.
+	 * Files in charsets other than ISO 8859-1, US-ASCII and UTF-8 are parsed
+	 * on a single thread.
+	 * After loading, setCaseSensitivity(caseSensitive) is called.
+	 *
+	 * @param file File to load from.
+	 * @param charset Charset of the file.
+	 * @throws IOException If there is an error reading from the file
+	 */
+	public void loadParallel(final File file, final Charset charset) throws IOException {
+		putEntries(PropertiesFileLoader.load(file, charset, !caseSensitive));
+		setCaseSensitivity(caseSensitive);
+		clearParsedValues();
+	}
+	
+	/**
+	 * Put entries parsed by PropertiesFileLoader, in order.
+	 *
+	 * @param parts Entries to put
+	 */
+	private synchronized void putEntries(final List<PropertiesFileLoader.Entries> parts) {
+		materialize();
+		for (PropertiesFileLoader.Entries entries : parts) {
+			for (int i = 0; i < entries.getCount(); i++) {
+				super.put(entries.getKey(i), entries.getValue(i));
+			}
+		}
+		changed();
+	}
+	
+	/**
+	 * Load properties from a file, using a binary snapshot of it if there is
+	 * an up to date one.
+	 * The file is read as ISO 8859-1, the same as load(InputStream).
+	 *
+	 * @param file File to load from.
+	 * @throws IOException If there is an error reading from the file
+	 * @see #loadWithSnapshot(File, Charset)
+	 */
+	public void loadWithSnapshot(final File file) throws IOException {
+		loadWithSnapshot(file, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Load properties from a file, using a binary snapshot of it if there is
+	 * an up to date one.
+	 * The snapshot is kept next to the file, with ".snap" added to the name.
+	 * It is only used if the file's length, last modified time and checksum
+	 * are unchanged, and the charset and case sensitivity are the same;
+	 * otherwise the file is parsed as by loadParallel() and the snapshot
+	 * written again. Failing to write the snapshot is not an error.
+	 *
+	 * If nothing else has been loaded, the snapshot is memory mapped and
+	 * read in place, with values and their parsed forms only created when
+	 * asked for. get(), getOrDefault(), containsKey(), size(), isEmpty() and
+	 * the getProperty() and typed getter methods read it in place; the first
+	 * change, or use of any other Map method, copies it all in.
+	 *
+	 * @param file File to load from.
+	 * @param charset Charset of the file.
+	 * @throws IOException If there is an error reading from the file
+	 */
+	public void loadWithSnapshot(final File file, final Charset charset) throws IOException {
+		final File snapshotFile = PropertiesSnapshot.getFile(file);
+		final boolean lowerCase = !caseSensitive;
+		final PropertiesSnapshot existing = PropertiesSnapshot.open(snapshotFile, file, charset, lowerCase);
+		if (existing != null) {
+			if (putSnapshot(existing)) {
+				// Nothing else was loaded, so there are no keys to lowercase.
+				clearParsedValues();
+				return;
+			}
+		} else {
+			final long length = file.length();
+			final long modified = file.lastModified();
+			final long checksum = PropertiesSnapshot.checksum(file);
+			final List<PropertiesFileLoader.Entries> parts = PropertiesFileLoader.load(file, charset, lowerCase);
+			putEntries(parts);
+			try {
+				PropertiesSnapshot.write(snapshotFile, length, modified, checksum, charset, lowerCase, parts);
+			} catch (IOException ioe) {
+				// The snapshot is only a cache, the properties are loaded anyway.
+			}
+		}
 		setCaseSensitivity(caseSensitive);
+		clearParsedValues();
+	}
+	
+	/**
+	 * Use a mapped file snapshot, in place if nothing else is loaded, else by
+	 * copying its properties in.
+	 *
+	 * @param file Snapshot to use
+	 * @return True if it is used in place
+	 */
+	private synchronized boolean putSnapshot(final PropertiesSnapshot file) {
+		materialize();
+		final boolean inPlace = super.isEmpty();
+		if (inPlace) {
+			mapped = file;
+		} else {
+			copySnapshot(file);
+		}
+		changed();
+		return inPlace;
+	}
+	
+	/**
+	 * Copy the properties from a mapped file snapshot into the table.
+	 * The caller must hold the lock.
+	 *
+	 * @param file Snapshot to copy from
+	 */
+	private void copySnapshot(final PropertiesSnapshot file) {
+		for (int slot = 0; slot < file.getSlots(); slot++) {
+			if (file.isUsed(slot)) { super.put(file.getKey(slot), file.getValue(slot)); }
+		}
+	}
+	
+	/**
+	 * Copy in the properties from the mapped file snapshot, if there is one,
+	 * so that the table can be used directly.
+	 */
+	private void materialize() {
+		if (mapped == null) { return; }
+		synchronized (this) {
+			final PropertiesSnapshot file = mapped;
+			if (file == null) { return; }
+			copySnapshot(file);
+			mapped = null;
+			invalidateSnapshot();
+		}
+	}
+	
+	/**
+	 * Lowercase a key the same way as a case insensitive TypedProperties.
+	 *
+	 * @param key Key to lowercase
+	 * @return The lowercased key
+	 */
+	static String lowerCaseKey(final String key) {
+		return CaseFoldedKey.fold(key);
 	}
 	
 	/**
@@ -135,11 +806,70 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public String getProperty(final String key) {
-		if (!caseSensitive) {
-			return super.getProperty(key.toLowerCase());
+		final PropertiesSnapshot file = mapped;
+		final Snapshot current;
+		if (file != null) {
+			final int slot = indexOf(file, key);
+			if (slot >= 0) { return file.getValue(slot); }
+		} else if ((current = getSnapshot()) != null) {
+			final int slot = indexOf(current, key);
+			if (slot >= 0) { return current.values[slot]; }
 		} else {
-			return super.getProperty(key);
+			final Object value = caseSensitive ? super.get(key) : getFolded(key);
+			if (value instanceof String) { return (String)value; }
 		}
+		final Properties fallback = defaults;
+		if (fallback == null) { return null; }
+		return fallback.getProperty(caseSensitive ? key : CaseFoldedKey.fold(key));
+	}
+	
+	/**
+	 * Get the stored value for a key, ignoring case.
+	 *
+	 * @param key key for property
+	 * @return the stored value, or null if not defined
+	 */
+	private Object getFolded(final String key) {
+		return super.get(foldedKey(key));
+	}
+	
+	/**
+	 * Get the key to look up to ignore case: the remembered lowercased key,
+	 * or else this thread's CaseFoldedKey probe.
+	 *
+	 * @param key key for property
+	 * @return Key to look up, only valid until this thread's next lookup
+	 */
+	private static CharSequence foldedKey(final String key) {
+		final String lowerKey = CaseFoldedKey.getRemembered(key);
+		if (lowerKey != null) { return lowerKey; }
+		CaseFoldedKey.remember(key);
+		final CaseFoldedKey probe = CaseFoldedKey.get(key);
+		return probe == null ? key.toLowerCase() : probe.lookupKey();
+	}
+	
+	/**
+	 * Find a key in a snapshot, ignoring case if this is case insensitive.
+	 *
+	 * @param current Snapshot to look in
+	 * @param key key for property
+	 * @return Slot of the key, or -1 if not present
+	 */
+	private int indexOf(final Snapshot current, final String key) {
+		return current.indexOf(caseSensitive ? key : foldedKey(key));
+	}
+	
+	/**
+	 * Find a key in a mapped file snapshot, ignoring case if this is case
+	 * insensitive.
+	 *
+	 * @param file Snapshot to look in
+	 * @param key key for property
+	 * @return Slot of the key, or -1 if not present
+	 */
+	private int indexOf(final PropertiesSnapshot file, final String key) {
+		final CharSequence lookup = caseSensitive ? key : foldedKey(key);
+		return file.indexOf(lookup, lookup.hashCode());
 	}
 	
 	/**
@@ -151,11 +881,8 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public String getProperty(final String key, final String fallback) {
-		if (!caseSensitive) {
-			return super.getProperty(key.toLowerCase(), fallback);
-		} else {
-			return super.getProperty(key, fallback);
-		}
+		final String value = getProperty(key);
+		return value == null ? fallback : value;
 	}
 	
 	/**
@@ -167,11 +894,893 @@ public class TypedProperties extends Properties {
 	 */
 	@Override
 	public Object setProperty(final String key, final String value) {
+		final Object result;
 		if (!caseSensitive) {
-			return super.setProperty(key.toLowerCase(), value);
+			result = super.setProperty(CaseFoldedKey.fold(key), value);
 		} else {
-			return super.setProperty(key, value);
+			result = super.setProperty(key, value);
 		}
+		clearParsedValue(key);
+		return result;
+	}
+	
+	/**
+	 * Remove a property from the config
+	 *
+	 * @param key key for property
+	 * @return Old value of property
+	 */
+	@Override
+	public synchronized Object remove(final Object key) {
+		materialize();
+		final Object result = super.remove(key);
+		if (key instanceof String) { clearParsedValue((String)key); }
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Remove all properties from the config
+	 */
+	@Override
+	public synchronized void clear() {
+		mapped = null;
+		super.clear();
+		clearParsedValues();
+		changed();
+	}
+	
+	/**
+	 * Create a copy of this config, without sharing its parsed values.
+	 *
+	 * @return The copy
+	 */
+	@Override
+	public synchronized Object clone() {
+		materialize();
+		final TypedProperties result = (TypedProperties)super.clone();
+		result.parsedValues = null;
+		result.boundAccessors = null;
+		if (result.snapshot != null) { result.snapshot = new Snapshot(result); }
+		return result;
+	}
+	
+	/**
+	 * Put a value in the config
+	 *
+	 * @param key key for property
+	 * @param value Value for property
+	 * @return Old value of property
+	 */
+	@Override
+	public synchronized Object put(final Object key, final Object value) {
+		materialize();
+		final Object result = super.put(key, value);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Put all the values from a map in the config
+	 *
+	 * @param map Map to copy from
+	 */
+	@Override
+	public synchronized void putAll(final Map<?, ?> map) {
+		materialize();
+		super.putAll(map);
+		changed();
+	}
+	
+	/**
+	 * Put a value in the config if the key has none
+	 *
+	 * @param key key for property
+	 * @param value Value for property
+	 * @return Current value of property, or null if it was put
+	 */
+	@Override
+	public synchronized Object putIfAbsent(final Object key, final Object value) {
+		materialize();
+		final Object result = super.putIfAbsent(key, value);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Remove a property from the config if it has the given value
+	 *
+	 * @param key key for property
+	 * @param value Value expected
+	 * @return True if the property was removed
+	 */
+	@Override
+	public synchronized boolean remove(final Object key, final Object value) {
+		materialize();
+		final boolean result = super.remove(key, value);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Replace a property in the config if it exists
+	 *
+	 * @param key key for property
+	 * @param value Value for property
+	 * @return Old value of property, or null if there was none
+	 */
+	@Override
+	public synchronized Object replace(final Object key, final Object value) {
+		materialize();
+		final Object result = super.replace(key, value);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Replace a property in the config if it has the given value
+	 *
+	 * @param key key for property
+	 * @param oldValue Value expected
+	 * @param newValue Value for property
+	 * @return True if the property was replaced
+	 */
+	@Override
+	public synchronized boolean replace(final Object key, final Object oldValue, final Object newValue) {
+		materialize();
+		final boolean result = super.replace(key, oldValue, newValue);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Replace every property in the config
+	 *
+	 * @param function Function giving the new value for each property
+	 */
+	@Override
+	public synchronized void replaceAll(final BiFunction<? super Object, ? super Object, ?> function) {
+		materialize();
+		super.replaceAll(function);
+		changed();
+	}
+	
+	/**
+	 * Compute a new value for a property
+	 *
+	 * @param key key for property
+	 * @param function Function giving the new value, or null to remove it
+	 * @return New value of property
+	 */
+	@Override
+	public synchronized Object compute(final Object key, final BiFunction<? super Object, ? super Object, ?> function) {
+		materialize();
+		final Object result = super.compute(key, function);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Compute a value for a property if it has none
+	 *
+	 * @param key key for property
+	 * @param function Function giving the value
+	 * @return Current value of property
+	 */
+	@Override
+	public synchronized Object computeIfAbsent(final Object key, final Function<? super Object, ?> function) {
+		materialize();
+		final Object result = super.computeIfAbsent(key, function);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Compute a new value for a property if it exists
+	 *
+	 * @param key key for property
+	 * @param function Function giving the new value, or null to remove it
+	 * @return New value of property
+	 */
+	@Override
+	public synchronized Object computeIfPresent(final Object key, final BiFunction<? super Object, ? super Object, ?> function) {
+		materialize();
+		final Object result = super.computeIfPresent(key, function);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Merge a value into a property
+	 *
+	 * @param key key for property
+	 * @param value Value to merge
+	 * @param function Function combining the old and new values
+	 * @return New value of property
+	 */
+	@Override
+	public synchronized Object merge(final Object key, final Object value, final BiFunction<? super Object, ? super Object, ?> function) {
+		materialize();
+		final Object result = super.merge(key, value, function);
+		changed();
+		return result;
+	}
+	
+	/**
+	 * Get a value from the config
+	 *
+	 * @param key key for property
+	 * @return Value of property, or null if there is none
+	 */
+	@Override
+	public Object get(final Object key) {
+		final PropertiesSnapshot file = mapped;
+		if (file != null && key instanceof String) {
+			final int slot = file.indexOf((String)key, key.hashCode());
+			return slot < 0 ? null : file.getValue(slot);
+		}
+		materialize();
+		return super.get(key);
+	}
+	
+	/**
+	 * Get a value from the config, or a default if there is none
+	 *
+	 * @param key key for property
+	 * @param defaultValue Value to return if key is not found
+	 * @return Value of property, or defaultValue if there is none
+	 */
+	@Override
+	public Object getOrDefault(final Object key, final Object defaultValue) {
+		final Object value = get(key);
+		return value == null ? defaultValue : value;
+	}
+	
+	/**
+	 * Check if the config has a value for a key
+	 *
+	 * @param key key for property
+	 * @return True if the key has a value
+	 */
+	@Override
+	public boolean containsKey(final Object key) {
+		final PropertiesSnapshot file = mapped;
+		if (file != null && key instanceof String) {
+			return file.indexOf((String)key, key.hashCode()) >= 0;
+		}
+		materialize();
+		return super.containsKey(key);
+	}
+	
+	/**
+	 * Check if any key in the config has a value
+	 *
+	 * @param value Value to look for
+	 * @return True if some key has the value
+	 */
+	@Override
+	public boolean contains(final Object value) {
+		materialize();
+		return super.contains(value);
+	}
+	
+	/**
+	 * Check if any key in the config has a value
+	 *
+	 * @param value Value to look for
+	 * @return True if some key has the value
+	 */
+	@Override
+	public boolean containsValue(final Object value) {
+		materialize();
+		return super.containsValue(value);
+	}
+	
+	/**
+	 * Get the number of values in the config
+	 *
+	 * @return Number of values, not counting defaults
+	 */
+	@Override
+	public int size() {
+		final PropertiesSnapshot file = mapped;
+		return file != null ? file.size() : super.size();
+	}
+	
+	/**
+	 * Check if the config has no values
+	 *
+	 * @return True if there are no values, not counting defaults
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	/**
+	 * Get the keys in the config
+	 *
+	 * @return Enumeration of the keys
+	 */
+	@Override
+	public Enumeration<Object> keys() {
+		materialize();
+		return super.keys();
+	}
+	
+	/**
+	 * Get the values in the config
+	 *
+	 * @return Enumeration of the values
+	 */
+	@Override
+	public Enumeration<Object> elements() {
+		materialize();
+		return super.elements();
+	}
+	
+	/**
+	 * Get a view of the keys in the config
+	 *
+	 * @return Set of the keys
+	 */
+	@Override
+	public Set<Object> keySet() {
+		materialize();
+		return new ChangeSet<Object>(super.keySet());
+	}
+	
+	/**
+	 * Get a view of the values in the config
+	 *
+	 * @return Collection of the values
+	 */
+	@Override
+	public Collection<Object> values() {
+		materialize();
+		return new ChangeCollection<Object>(super.values());
+	}
+	
+	/**
+	 * Get a view of the entries in the config
+	 *
+	 * @return Set of the entries
+	 */
+	@Override
+	public Set<Map.Entry<Object, Object>> entrySet() {
+		materialize();
+		return new ChangeSet<Map.Entry<Object, Object>>(super.entrySet()) {
+			@Override
+			Map.Entry<Object, Object> wrap(final Map.Entry<Object, Object> entry) {
+				return new ChangeEntry(entry);
+			}
+		};
+	}
+	
+	/**
+	 * A view of the table whose changes are treated like any other change to
+	 * the config.
+	 *
+	 * @param <E> Element type
+	 */
+	private class ChangeCollection<E> extends AbstractCollection<E> {
+		/** View being wrapped. */
+		final Collection<E> view;
+		
+		/**
+		 * Create a new ChangeCollection.
+		 *
+		 * @param view View to wrap
+		 */
+		ChangeCollection(final Collection<E> view) {
+			this.view = view;
+		}
+		
+		/**
+		 * Wrap an element before it is returned.
+		 *
+		 * @param element Element from the view
+		 * @return Element to return
+		 */
+		E wrap(final E element) {
+			return element;
+		}
+		
+		/**
+		 * Get the number of elements.
+		 *
+		 * @return Number of elements
+		 */
+		@Override
+		public int size() {
+			return view.size();
+		}
+		
+		/**
+		 * Check if the view has an element.
+		 *
+		 * @param o Element to look for
+		 * @return True if present
+		 */
+		@Override
+		public boolean contains(final Object o) {
+			return view.contains(o);
+		}
+		
+		/**
+		 * Get an iterator whose remove() is a change to the config.
+		 *
+		 * @return The iterator
+		 */
+		@Override
+		public Iterator<E> iterator() {
+			final Iterator<E> it = view.iterator();
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+				
+				@Override
+				public E next() {
+					return wrap(it.next());
+				}
+				
+				@Override
+				public void remove() {
+					synchronized (TypedProperties.this) {
+						it.remove();
+						changed();
+					}
+				}
+			};
+		}
+		
+		/**
+		 * Remove an element from the config.
+		 *
+		 * @param o Element to remove
+		 * @return True if removed
+		 */
+		@Override
+		public boolean remove(final Object o) {
+			synchronized (TypedProperties.this) {
+				final boolean result = view.remove(o);
+				if (result) { changed(); }
+				return result;
+			}
+		}
+		
+		/**
+		 * Remove elements from the config.
+		 *
+		 * @param c Elements to remove
+		 * @return True if any were removed
+		 */
+		@Override
+		public boolean removeAll(final Collection<?> c) {
+			synchronized (TypedProperties.this) {
+				final boolean result = view.removeAll(c);
+				if (result) { changed(); }
+				return result;
+			}
+		}
+		
+		/**
+		 * Remove all other elements from the config.
+		 *
+		 * @param c Elements to keep
+		 * @return True if any were removed
+		 */
+		@Override
+		public boolean retainAll(final Collection<?> c) {
+			synchronized (TypedProperties.this) {
+				final boolean result = view.retainAll(c);
+				if (result) { changed(); }
+				return result;
+			}
+		}
+		
+		/**
+		 * Remove matching elements from the config.
+		 *
+		 * @param filter Test for elements to remove
+		 * @return True if any were removed
+		 */
+		@Override
+		public boolean removeIf(final Predicate<? super E> filter) {
+			synchronized (TypedProperties.this) {
+				final boolean result = view.removeIf(element -> filter.test(wrap(element)));
+				if (result) { changed(); }
+				return result;
+			}
+		}
+		
+		/**
+		 * Remove everything from the config.
+		 */
+		@Override
+		public void clear() {
+			TypedProperties.this.clear();
+		}
+		
+		/**
+		 * Get the view as a String.
+		 *
+		 * @return The elements as a String
+		 */
+		@Override
+		public String toString() {
+			return view.toString();
+		}
+	}
+	
+	/**
+	 * A set view of the table whose changes are treated like any other change
+	 * to the config.
+	 *
+	 * @param <E> Element type
+	 */
+	private class ChangeSet<E> extends ChangeCollection<E> implements Set<E> {
+		/**
+		 * Create a new ChangeSet.
+		 *
+		 * @param view View to wrap
+		 */
+		ChangeSet(final Set<E> view) {
+			super(view);
+		}
+		
+		/**
+		 * Compare this set with another.
+		 *
+		 * @param o Object to compare with
+		 * @return True if o is a set with the same elements
+		 */
+		@Override
+		public boolean equals(final Object o) {
+			return o == this || view.equals(o);
+		}
+		
+		/**
+		 * Get the hash code of the set.
+		 *
+		 * @return Hash code of the elements
+		 */
+		@Override
+		public int hashCode() {
+			return view.hashCode();
+		}
+	}
+	
+	/**
+	 * An entry of the table whose setValue() is a change to the config.
+	 */
+	private final class ChangeEntry implements Map.Entry<Object, Object> {
+		/** Entry being wrapped. */
+		private final Map.Entry<Object, Object> entry;
+		
+		/**
+		 * Create a new ChangeEntry.
+		 *
+		 * @param entry Entry to wrap
+		 */
+		ChangeEntry(final Map.Entry<Object, Object> entry) {
+			this.entry = entry;
+		}
+		
+		/**
+		 * Get the key.
+		 *
+		 * @return The key
+		 */
+		@Override
+		public Object getKey() {
+			return entry.getKey();
+		}
+		
+		/**
+		 * Get the value.
+		 *
+		 * @return The value
+		 */
+		@Override
+		public Object getValue() {
+			return entry.getValue();
+		}
+		
+		/**
+		 * Set the value in the config.
+		 *
+		 * @param value New value
+		 * @return Old value
+		 */
+		@Override
+		public Object setValue(final Object value) {
+			synchronized (TypedProperties.this) {
+				final Object result = entry.setValue(value);
+				changed();
+				return result;
+			}
+		}
+		
+		/**
+		 * Compare this entry with another.
+		 *
+		 * @param o Object to compare with
+		 * @return True if o is an entry with the same key and value
+		 */
+		@Override
+		public boolean equals(final Object o) {
+			return entry.equals(o);
+		}
+		
+		/**
+		 * Get the hash code of the entry.
+		 *
+		 * @return Hash code of the key and value
+		 */
+		@Override
+		public int hashCode() {
+			return entry.hashCode();
+		}
+		
+		/**
+		 * Get the entry as a String.
+		 *
+		 * @return "key=value"
+		 */
+		@Override
+		public String toString() {
+			return entry.toString();
+		}
+	}
+	
+	/**
+	 * Call a function for every entry in the config
+	 *
+	 * @param action Function to call with each key and value
+	 */
+	@Override
+	public void forEach(final BiConsumer<? super Object, ? super Object> action) {
+		materialize();
+		super.forEach(action);
+	}
+	
+	/**
+	 * Compare this config with a map
+	 *
+	 * @param o Object to compare with
+	 * @return True if o is a map with the same entries
+	 */
+	@Override
+	public boolean equals(final Object o) {
+		materialize();
+		return super.equals(o);
+	}
+	
+	/**
+	 * Get the hash code of the config
+	 *
+	 * @return Hash code of the entries
+	 */
+	@Override
+	public int hashCode() {
+		materialize();
+		return super.hashCode();
+	}
+	
+	/**
+	 * Get the config as a String
+	 *
+	 * @return The entries as a String
+	 */
+	@Override
+	public String toString() {
+		materialize();
+		return super.toString();
+	}
+	
+	/**
+	 * Copy in any mapped file snapshot before this is serialised, as
+	 * Properties writes its table directly.
+	 *
+	 * @return This config
+	 * @throws ObjectStreamException Never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		materialize();
+		return this;
+	}
+	
+	/**
+	 * Set whether reads should be served from an immutable snapshot.
+	 * This suits config that is read often from many threads but rarely
+	 * changed, as every change means the snapshot has to be rebuilt. Many
+	 * changes are best made at once with putAll() or load().
+	 *
+	 * @param value True to read from snapshots, false to read directly
+	 */
+	public synchronized void setReadMostly(final boolean value) {
+		snapshot = value ? Snapshot.STALE : null;
+		invalidateSnapshot();
+	}
+	
+	/**
+	 * Check if reads are served from an immutable snapshot.
+	 *
+	 * @return True if read-mostly, else false
+	 */
+	public boolean isReadMostly() {
+		return snapshot != null;
+	}
+	
+	/**
+	 * Get the current snapshot.
+	 *
+	 * @return The snapshot, or null if not read-mostly or it is being rebuilt
+	 */
+	private Snapshot getSnapshot() {
+		final Snapshot current = snapshot;
+		return current == null || current.stale ? null : current;
+	}
+	
+	/**
+	 * Bind a config schema to this config.
+	 * The schema is an interface whose methods are all getters with no
+	 * parameters annotated with @Property, returning a primitive, String or
+	 * String[] (as from getListProperty()), for example:
+	 * <pre>
+	 * interface ServerConfig {
+	 *     &#64;Property(value = "server.port", fallback = "80")
+	 *     int getPort();
+	 *     &#64;Property("server.aliases")
+	 *     String[] getAliases();
+	 * }
+	 * </pre>
+	 * The instance returned holds every property already parsed in a field,
+	 * so its getters are a single field read each. All of them are resolved
+	 * again after each change to this config (once per load, rather than per
+	 * line), but not when only the defaults change. Arrays returned are
+	 * shared, and must not be modified.
+	 *
+	 * @param <T> Schema type
+	 * @param schema Schema interface
+	 * @return Instance of the schema, reading from this config
+	 * @throws IllegalArgumentException If the schema is not valid
+	 */
+	public <T> T bind(final Class<T> schema) {
+		final PropertiesAccessor accessor = PropertiesAccessor.get(schema);
+		final Object instance = accessor.newInstance();
+		synchronized (this) {
+			accessor.refresh(this, instance);
+			if (boundAccessors == null) { boundAccessors = new ArrayList<BoundAccessor>(); }
+			boundAccessors.add(new BoundAccessor(accessor, instance));
+		}
+		return schema.cast(instance);
+	}
+	
+	/**
+	 * Note that the config has changed: rebuild the snapshot, and refresh any
+	 * bound accessors, unless in the middle of a bulk change.
+	 * The caller must hold the lock.
+	 */
+	private void changed() {
+		invalidateSnapshot();
+		if (boundAccessors == null || bulkChanges > 0) { return; }
+		final Iterator<BoundAccessor> it = boundAccessors.iterator();
+		while (it.hasNext()) {
+			final BoundAccessor bound = it.next();
+			final Object instance = bound.get();
+			if (instance == null) {
+				it.remove();
+			} else {
+				bound.accessor.refresh(this, instance);
+			}
+		}
+	}
+	
+	/**
+	 * Build and publish a new snapshot, if read-mostly.
+	 * In the middle of a bulk change, or while a mapped file snapshot is in
+	 * use, it is just marked stale so reads go elsewhere until the next call.
+	 * The caller must hold the lock.
+	 */
+	private void invalidateSnapshot() {
+		if (snapshot == null) { return; }
+		snapshot = bulkChanges > 0 || mapped != null ? Snapshot.STALE : new Snapshot(this);
+	}
+	
+	/**
+	 * Get a property parsed as the given type.
+	 * Values are only parsed the first time they are asked for as each type.
+	 *
+	 * @param key key for property
+	 * @param type ParsedValue type to parse as
+	 * @return the parsed property, or null if not defined or not valid
+	 */
+	private ParsedValue getParsedValue(final String key, final int type) {
+		final PropertiesSnapshot file = mapped;
+		final Snapshot current;
+		if (file != null) {
+			final int slot = indexOf(file, key);
+			if (slot >= 0) { return getParsedValue(file, slot, type); }
+		} else if ((current = getSnapshot()) != null) {
+			final int slot = indexOf(current, key);
+			if (slot >= 0) { return current.getParsedValue(slot, type); }
+		}
+		final String value = getProperty(key);
+		if (value == null) { return null; }
+		ConcurrentHashMap<String, ParsedValue[]> cache = parsedValues;
+		if (cache == null) {
+			synchronized (this) {
+				cache = parsedValues;
+				if (cache == null) {
+					cache = new ConcurrentHashMap<String, ParsedValue[]>();
+					parsedValues = cache;
+				}
+			}
+		}
+		ParsedValue[] byType = cache.get(key);
+		if (byType == null) {
+			byType = new ParsedValue[ParsedValue.TYPES];
+			final ParsedValue[] existing = cache.putIfAbsent(key, byType);
+			if (existing != null) { byType = existing; }
+		}
+		ParsedValue parsed = byType[type];
+		if (parsed == null || parsed.value != value) {
+			parsed = new ParsedValue(value, type);
+			byType[type] = parsed;
+		}
+		return parsed.valid ? parsed : null;
+	}
+	
+	/**
+	 * Get a value from a mapped file snapshot parsed as the given type.
+	 * As with Snapshot, the worst a race can do is parse the value again.
+	 *
+	 * @param file Snapshot to get from
+	 * @param slot Slot of the value
+	 * @param type ParsedValue type to parse as
+	 * @return the parsed value, or null if not valid
+	 */
+	private static ParsedValue getParsedValue(final PropertiesSnapshot file, final int slot, final int type) {
+		final Object cached = file.getParsed(slot);
+		ParsedValue[] byType = cached instanceof ParsedValue[] ? (ParsedValue[])cached : null;
+		if (byType == null) {
+			byType = new ParsedValue[ParsedValue.TYPES];
+			file.setParsed(slot, byType);
+		}
+		ParsedValue parsed = byType[type];
+		if (parsed == null) {
+			parsed = ParsedValue.fromSnapshot(file, slot, type);
+			byType[type] = parsed;
+		}
+		return parsed.valid ? parsed : null;
+	}
+	
+	/**
+	 * Forget the parsed value for a key.
+	 *
+	 * @param key key for property
+	 */
+	private void clearParsedValue(final String key) {
+		final ConcurrentHashMap<String, ParsedValue[]> cache = parsedValues;
+		if (cache == null) { return; }
+		if (caseSensitive) {
+			cache.remove(key);
+		} else {
+			// Other spellings of the key may be cached too.
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Forget all parsed values.
+	 */
+	private void clearParsedValues() {
+		final ConcurrentHashMap<String, ParsedValue[]> cache = parsedValues;
+		if (cache != null) { cache.clear(); }
 	}
 	
 	/**
@@ -192,11 +1801,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public byte getByteProperty(final String key, final byte fallback) {
-		try {
-			return Byte.parseByte(getProperty(key, Byte.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.BYTE);
+		return parsed == null ? fallback : (byte)parsed.bits;
 	}
 	
 	/**
@@ -217,11 +1823,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public short getShortProperty(final String key, final short fallback) {
-		try {
-			return Short.parseShort(getProperty(key, Short.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.SHORT);
+		return parsed == null ? fallback : (short)parsed.bits;
 	}
 	
 	/**
@@ -242,11 +1845,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public int getIntProperty(final String key, final int fallback) {
-		try {
-			return Integer.parseInt(getProperty(key, Integer.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.INT);
+		return parsed == null ? fallback : (int)parsed.bits;
 	}
 	
 	/**
@@ -267,11 +1867,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public long getLongProperty(final String key, final long fallback) {
-		try {
-			return Long.parseLong(getProperty(key, Long.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.LONG);
+		return parsed == null ? fallback : parsed.bits;
 	}
 	
 	/**
@@ -292,11 +1889,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public float getFloatProperty(final String key, final float fallback) {
-		try {
-			return Float.parseFloat(getProperty(key, Float.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.FLOAT);
+		return parsed == null ? fallback : Float.intBitsToFloat((int)parsed.bits);
 	}
 	
 	/**
@@ -317,11 +1911,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public double getDoubleProperty(final String key, final double fallback) {
-		try {
-			return Double.parseDouble(getProperty(key, Double.toString(fallback)));
-		} catch (NumberFormatException nfe) {
-			return fallback;
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.DOUBLE);
+		return parsed == null ? fallback : Double.longBitsToDouble(parsed.bits);
 	}
 	
 	/**
@@ -342,7 +1933,8 @@ public class TypedProperties extends Properties {
  	 * @return the requested property, or the fallback value if not defined
 	 */
 	public boolean getBoolProperty(final String key, final boolean fallback) {
-		return Boolean.parseBoolean(getProperty(key, Boolean.toString(fallback)));
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.BOOLEAN);
+		return parsed == null ? fallback : parsed.bits != 0;
 	}
 	
 	/**
@@ -363,12 +1955,8 @@ public class TypedProperties extends Properties {
 	 * @return the requested property, or the fallback value if not defined
 	 */
 	public char getCharProperty(final String key, final char fallback) {
-		final String res = getProperty(key, Character.toString(fallback));
-		if (res == null || res.isEmpty()) {
-			return fallback;
-		} else {
-			return res.charAt(0);
-		}
+		final ParsedValue parsed = getParsedValue(key, ParsedValue.CHAR);
+		return parsed == null ? fallback : (char)parsed.bits;
 	}
 	
 	/**